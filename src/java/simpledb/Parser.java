@@ -15,11 +15,14 @@ import simpledb.common.Type;
 import simpledb.execution.*;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 public class Parser {
@@ -361,13 +364,14 @@ public class Parser {
                     IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (td.getFieldType(i) != Type.STRING_TYPE
+                            && td.getFieldType(i) != Type.VARCHAR_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
                     }
                     StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
+                            Type.STRING_LEN, td.getFieldType(i));
                     t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
@@ -463,6 +467,36 @@ public class Parser {
         }
     }
 
+    /** VACUUM table, which ZQL does not parse */
+    private static final java.util.regex.Pattern VACUUM = java.util.regex.Pattern.compile(
+            "vacuum\\s+(\\w+)\\s*;?", java.util.regex.Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Compacts a table, in transactions of its own.
+     *
+     * @see HeapFile#vacuum
+     */
+    public void handleVacuumStatement(String tableName)
+            throws IOException, DbException, TransactionAbortedException,
+            simpledb.ParsingException {
+        if (inUserTrans)
+            throw new ParsingException(
+                    "VACUUM runs its own transactions; commit or roll back the current transaction first.");
+        int tableId;
+        try {
+            tableId = Database.getCatalog().getTableId(tableName);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown table " + tableName);
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile))
+            throw new ParsingException("VACUUM only compacts heap files");
+        HeapFile heapFile = (HeapFile) file;
+        int removed = heapFile.vacuum();
+        System.out.println("Vacuumed " + tableName + ": removed " + removed
+                + " pages, " + heapFile.numPages() + " remain.");
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
@@ -490,6 +524,17 @@ public class Parser {
     }
 
     public void processNextStatement(String s) {
+        java.util.regex.Matcher vacuum = VACUUM.matcher(s.trim());
+        if (vacuum.matches()) {
+            try {
+                handleVacuumStatement(vacuum.group(1));
+            } catch (IOException | DbException | TransactionAbortedException e) {
+                e.printStackTrace();
+            } catch (simpledb.ParsingException e) {
+                System.out.println("Invalid VACUUM statement: \n \t" + e.getMessage());
+            }
+            return;
+        }
         processNextStatement(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)));
     }
 
@@ -567,7 +612,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "vacuum" };
 
     public static void main(String[] argv) throws IOException {
 
@@ -669,8 +714,7 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    processNextStatement(cmd);
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
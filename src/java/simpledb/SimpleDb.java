@@ -14,9 +14,10 @@ public class SimpleDb {
         // convert a file
         switch (args[0]) {
             case "convert":
+            case "load":
                 try {
                     if (args.length < 3 || args.length > 5) {
-                        System.err.println("Unexpected number of arguments to convert ");
+                        System.err.println("Unexpected number of arguments to " + args[0]);
                         return;
                     }
                     File sourceTxtFile = new File(args[1]);
@@ -41,6 +42,8 @@ public class SimpleDb {
                                 ts[index++] = Type.INT_TYPE;
                             else if (s.equalsIgnoreCase("string"))
                                 ts[index++] = Type.STRING_TYPE;
+                            else if (s.equalsIgnoreCase("varchar"))
+                                ts[index++] = Type.VARCHAR_TYPE;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
@@ -50,8 +53,15 @@ public class SimpleDb {
                             fieldSeparator = args[4].charAt(0);
                     }
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    if (args[0].equals("convert")) {
+                        HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    } else {
+                        // appends to the table if it already exists
+                        HeapFile table = new HeapFile(targetDatFile, new TupleDesc(ts));
+                        long loaded = new BulkLoader(table).load(sourceTxtFile, fieldSeparator);
+                        System.out.println("Loaded " + loaded + " tuples into " + targetDatFile);
+                    }
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
@@ -1,7 +1,11 @@
 package simpledb.common;
 
+import simpledb.storage.BufferPool;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.LzPageCodec;
+import simpledb.storage.PageCodec;
+import simpledb.storage.PaxFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -64,7 +68,11 @@ public class Catalog {
         // some code goes here
         int tableid = file.getId();
         CItem item = new CItem(file,name,pkeyField);
-        _schemas.put(tableid,item);
+        CItem replaced = _schemas.put(tableid,item);
+        // the replaced table's file handles are no longer reachable through the catalog
+        if(replaced != null && replaced.file != file) {
+            replaced.file.close();
+        }
         _tableids.add(tableid);
         _nameIndex.put(name,tableid);
     }
@@ -126,6 +134,17 @@ public class Catalog {
         return table.file;
     }
 
+    /**
+     * Returns the size of the pages of the specified table, in bytes.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     * @see DbFile#getPageSize()
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        return getDatabaseFile(tableid).getPageSize();
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         if(!_schemas.containsKey(tableid)){
@@ -149,9 +168,12 @@ public class Catalog {
         return table.name;
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
         // some code goes here
+        for(CItem item : _schemas.values()) {
+            item.file.close();
+        }
         _schemas.clear();
         _tableids.clear();
         _nameIndex.clear();
@@ -159,6 +181,23 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes one table as
+     * <pre>
+     *     name (field type [pk], field type [pk], ...) [option ...]
+     * </pre>
+     * where type is int, string or varchar and the optional table options are:
+     * <ul>
+     * <li> mmap -- read the table's pages through a memory mapping
+     * (see {@link HeapFile#HeapFile(File, TupleDesc, boolean)})
+     * <li> layout=row|pax -- store the table row by row in a HeapFile (the
+     * default), or column by column within each page in a {@link PaxFile}
+     * <li> compress=none|lz -- store the table's pages as is (the default), or
+     * compressed with an {@link LzPageCodec}
+     * (see {@link HeapFile#HeapFile(File, TupleDesc, boolean, PageCodec)})
+     * <li> pagesize=N -- store the table in pages of N bytes instead of
+     * {@link BufferPool#getPageSize()}
+     * (see {@link HeapFile#HeapFile(File, TupleDesc, boolean, PageCodec, int)})
+     * </ul>
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -183,6 +222,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -196,17 +237,44 @@ public class Catalog {
                         }
                     }
                 }
+                // table options follow the closing parenthesis
+                boolean memoryMapped = false;
+                boolean pax = false;
+                PageCodec codec = null;
+                int pageSize = BufferPool.getPageSize();
+                for (String option : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (option.isEmpty())
+                        continue;
+                    if (option.equalsIgnoreCase("mmap"))
+                        memoryMapped = true;
+                    else if (option.equalsIgnoreCase("layout=row"))
+                        pax = false;
+                    else if (option.equalsIgnoreCase("layout=pax"))
+                        pax = true;
+                    else if (option.equalsIgnoreCase("compress=none"))
+                        codec = null;
+                    else if (option.equalsIgnoreCase("compress=lz"))
+                        codec = new LzPageCodec();
+                    else if (option.toLowerCase().startsWith("pagesize="))
+                        pageSize = Integer.parseInt(option.substring("pagesize=".length()));
+                    else {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf = pax ? new PaxFile(tabFile, t, memoryMapped, codec, pageSize)
+                        : new HeapFile(tabFile, t, memoryMapped, codec, pageSize);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
         }
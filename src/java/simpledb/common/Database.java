@@ -2,6 +2,7 @@ package simpledb.common;
 
 import simpledb.storage.BufferPool;
 import simpledb.storage.LogFile;
+import simpledb.storage.ReplacementPolicy;
 import simpledb.transaction.LockManager;
 
 import java.io.*;
@@ -67,11 +68,43 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, BufferPool.DEFAULT_REPLACEMENT);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool,
+     * with the specified replacement policy, and return it
+     *
+     * @see BufferPool#BufferPool(int, ReplacementPolicy.Kind)
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind replacement) {
+        return installBufferPool(new BufferPool(pages, replacement));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool,
+     * with the specified replacement policy and the specified number of
+     * shards, and return it
+     *
+     * @see BufferPool#BufferPool(int, ReplacementPolicy.Kind, int)
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind replacement, int shards) {
+        return installBufferPool(new BufferPool(pages, replacement, shards));
+    }
+
+    private static BufferPool installBufferPool(BufferPool bufferPool) {
+        // the old pool is dropped with whatever it has not written
+        _instance.get()._bufferpool.stopPageCleaner();
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bufferPool);
+            // the locks are those of the pages of the old pool; a transaction a
+            // test left running would otherwise hold them forever
+            java.lang.reflect.Field lockManagerF = Database.class.getDeclaredField("_lockManager");
+            lockManagerF.setAccessible(true);
+            lockManagerF.set(_instance.get(), new LockManager());
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -81,7 +114,10 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        // stop writing the pages of the previous pool, and close the files of
+        // the previous catalog rather than leak their handles
+        _instance.get()._bufferpool.stopPageCleaner();
+        _instance.getAndSet(new Database())._catalog.clear();
     }
 
 }
@@ -6,12 +6,19 @@ import simpledb.storage.IntField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 
 /**
  * Class representing a type in SimpleDB.
  * Types are static objects defined by this class; hence, the Type
  * constructor is private.
+ * <p>
+ * STRING_TYPE values are always stored padded to STRING_LEN bytes, while
+ * VARCHAR_TYPE values are stored as a two byte length followed by only the
+ * bytes of the string. Tuples with VARCHAR_TYPE fields vary in size, so
+ * HeapFile stores them on {@link simpledb.storage.SlottedHeapPage}s.
  */
 public enum Type implements Serializable {
     INT_TYPE() {
@@ -29,6 +36,15 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                return new IntField(buf.getInt());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -47,15 +63,102 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                int start = buf.position();
+                int strLen = buf.getInt();
+                byte[] bs = new byte[strLen];
+                buf.get(bs);
+                buf.position(start + getLen());
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+    }, VARCHAR_TYPE() {
+        @Override
+        public int getLen() {
+            return STRING_LEN+2;
+        }
+
+        @Override
+        public boolean isFixedLength() {
+            return false;
+        }
+
+        @Override
+        public int getLen(Field f) {
+            return 2 + Math.min(((StringField) f).getValue().length(), STRING_LEN);
+        }
+
+        @Override
+        public int getLen(byte[] data, int offset) {
+            return 2 + (((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff));
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readUnsignedShort();
+                byte[] bs = new byte[strLen];
+                dis.readFully(bs);
+                return new StringField(new String(bs), STRING_LEN, this);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                int strLen = buf.getShort() & 0xffff;
+                byte[] bs = new byte[strLen];
+                buf.get(bs);
+                return new StringField(new String(bs), STRING_LEN, this);
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
     };
 
     public static final int STRING_LEN = 128;
 
     /**
      * @return the number of bytes required to store a field of this type.
+     *   For a variable-length type this is the size of the largest value.
      */
     public abstract int getLen();
 
+    /**
+     * @return whether every field of this type takes {@link #getLen()}
+     *   bytes when serialized. Fields of a variable-length type, such as
+     *   VARCHAR_TYPE, only take the bytes their value needs.
+     */
+    public boolean isFixedLength() {
+        return true;
+    }
+
+    /**
+     * @return the number of bytes the specified field of this type takes
+     *   when serialized.
+     * @param f a field of this type
+     */
+    public int getLen(Field f) {
+        return getLen();
+    }
+
+    /**
+     * @return the number of bytes taken by the serialized field of this type
+     *   that starts at the specified offset.
+     * @param data the bytes holding the field
+     * @param offset the offset of the field within data
+     */
+    public int getLen(byte[] data, int offset) {
+        return getLen();
+    }
+
     /**
      * @return a Field object of the same type as this object that has contents
      *   read from the specified DataInputStream.
@@ -65,4 +168,14 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * @return a Field object of the same type as this object that has contents
+     *   read from the current position of the specified buffer. The position
+     *   is advanced past the field.
+     * @param buf The buffer to read from
+     * @throws ParseException if the data read from the buffer is not
+     *   of the appropriate type.
+     */
+    public abstract Field parse(ByteBuffer buf) throws ParseException;
+
 }
@@ -4,6 +4,7 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
@@ -56,7 +57,7 @@ public class Aggregate extends Operator {
             this.aggregator = new IntegerAggregator(gfield,groupType,afield,aop);
             // set TupleDesc for aggregator
             ((IntegerAggregator)aggregator).setTupleDesc(td);
-        }else if(aggType == Type.STRING_TYPE) {
+        }else if(aggType == Type.STRING_TYPE || aggType == Type.VARCHAR_TYPE) {
             this.aggregator = new StringAggregator(gfield,groupType,afield,aop);
             // set TupleDesc for aggregator
             ((StringAggregator)aggregator).setTupleDesc(td);
@@ -118,11 +119,17 @@ public class Aggregate extends Operator {
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
         // some code goes here
-        // merge tuples into Aggregator
+        // merge tuples into Aggregator, which only reads the aggregate and group fields
+        if (child instanceof SeqScan) {
+            ((SeqScan) child).setRequiredFields(gfield == Aggregator.NO_GROUPING
+                    ? new int[]{afield} : new int[]{afield, gfield});
+        }
         child.open();
-        while (child.hasNext()) {
-            Tuple t = child.next();
-            aggregator.mergeTupleIntoGroup(t);
+        for (TupleBatch batch = child.nextBatch(TupleBatch.DEFAULT_SIZE); !batch.isEmpty();
+                batch = child.nextBatch(TupleBatch.DEFAULT_SIZE)) {
+            for (int i = 0; i < batch.size(); i++) {
+                aggregator.mergeTupleIntoGroup(batch.get(i));
+            }
         }
         child.close();
         this.iterator = aggregator.iterator();
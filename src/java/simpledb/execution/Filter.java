@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -17,6 +18,8 @@ public class Filter extends Operator {
     private Predicate p;
     private OpIterator child;
     private final TupleDesc td;
+    /** whether the child applies the predicate itself, so it need not be applied again */
+    private boolean pushedDown;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -48,6 +51,12 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        // a scan can skip pages that hold no tuple passing the predicate,
+        // and only returns the tuples that pass it
+        pushedDown = child instanceof SeqScan;
+        if (pushedDown) {
+            ((SeqScan) child).setPredicate(p);
+        }
         child.open();
         super.open();
     }
@@ -79,7 +88,7 @@ public class Filter extends Operator {
         Tuple t = null;
         while (child.hasNext()) {
             Tuple tmp = child.next();
-            if(p.filter(tmp)) {
+            if(pushedDown || p.filter(tmp)) {
                 t = tmp;
                 break;
             }
@@ -87,6 +96,29 @@ public class Filter extends Operator {
         return t;
     }
 
+    /**
+     * Operator.fetchBatch implementation. Reads the child a batch at a time,
+     * asking for no more tuples than fit in batch, and keeps those that pass
+     * the predicate.
+     */
+    @Override
+    protected void fetchBatch(TupleBatch batch, int max) throws TransactionAbortedException,
+            DbException {
+        while (batch.size() < max) {
+            TupleBatch in = child.nextBatch(max - batch.size());
+            if (in.isEmpty())
+                return;
+            for (int i = 0; i < in.size(); i++) {
+                Tuple t = in.get(i);
+                if (pushedDown || p.filter(t))
+                    batch.add(t);
+            }
+            // reading on would refill reused tuples already in the batch
+            if (batch.isReused())
+                return;
+        }
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
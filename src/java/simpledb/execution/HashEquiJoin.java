@@ -3,7 +3,9 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleRing;
 
 import java.util.*;
 
@@ -18,6 +20,11 @@ public class HashEquiJoin extends Operator {
     private final TupleDesc comboTD;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
+    /** tuples of child2 read in a batch, of which those from probePos on are yet to be probed */
+    transient private TupleBatch probe = null;
+    transient private int probePos = 0;
+    /** joined tuples refilled in place while child2's tuples are reused, created on first use */
+    transient private TupleRing out = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -61,12 +68,17 @@ public class HashEquiJoin extends Operator {
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+        while (cnt <= MAP_SIZE) {
+            TupleBatch build = child1.nextBatch(MAP_SIZE + 1 - cnt);
+            if (build.isEmpty())
+                break;
+            for (int i = 0; i < build.size(); i++) {
+                // the map outlives the batch, so it keeps tuples of its own
+                t1 = build.get(i).retain();
+                List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
+                list.add(t1);
+            }
+            cnt += build.size();
         }
         return cnt > 0;
 
@@ -87,12 +99,14 @@ public class HashEquiJoin extends Operator {
         this.t1=null;
         this.t2=null;
         this.listIt=null;
+        this.probe=null;
         this.map.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        probe = null;
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -112,17 +126,29 @@ public class HashEquiJoin extends Operator {
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
      * 
+     * The joined tuple is refilled in place, like the tuples of a reusing
+     * SeqScan, if the tuple of child2 is.
+     *
+     * @param ringSize the number of joined tuples that have to stay intact
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() {
+    private Tuple processList(int ringSize) {
         t1 = listIt.next();
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
 
         // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
+        Tuple t;
+        if (t2.isReused()) {
+            if (out == null)
+                out = new TupleRing(comboTD);
+            out.ensureCapacity(ringSize);
+            t = out.next();
+        } else {
+            t = new Tuple(comboTD);
+        }
         for (int i = 0; i < td1n; i++)
             t.setField(i, t1.getField(i));
         for (int i = 0; i < td2n; i++)
@@ -133,12 +159,11 @@ public class HashEquiJoin extends Operator {
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         if (listIt != null && listIt.hasNext()) {
-            return processList();
+            return processList(2);
         }
 
         // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+        while ((t2 = nextProbe()) != null) {
 
             // if match, create a combined tuple and fill it with the values
             // from both tuples
@@ -147,12 +172,13 @@ public class HashEquiJoin extends Operator {
                 continue;
             listIt = l.iterator();
 
-            return processList();
+            return processList(2);
 
         }
 
         // child2 is done: advance child1
         child2.rewind();
+        probe = null;
         if (loadMap()) {
             return fetchNext();
         }
@@ -160,6 +186,47 @@ public class HashEquiJoin extends Operator {
         return null;
     }
 
+    /**
+     * @return the next tuple of child2 to probe the map with, or null if
+     *         child2 is done
+     */
+    private Tuple nextProbe() throws TransactionAbortedException, DbException {
+        if (probe != null && probePos < probe.size())
+            return probe.get(probePos++);
+        return child2.hasNext() ? child2.next() : null;
+    }
+
+    /**
+     * Operator.fetchBatch implementation. Reads child2 a batch at a time,
+     * and probes the map with each of its tuples in turn.
+     */
+    @Override
+    protected void fetchBatch(TupleBatch batch, int max) throws TransactionAbortedException,
+            DbException {
+        while (batch.size() < max) {
+            if (listIt != null && listIt.hasNext()) {
+                batch.add(processList(max + 2));
+            } else if (probe != null && probePos < probe.size()) {
+                t2 = probe.get(probePos++);
+                List<Tuple> l = map.get(t2.getField(pred.getField2()));
+                listIt = l == null ? null : l.iterator();
+            } else if (batch.isReused()) {
+                // reading child2 on would refill the tuples joined so far
+                return;
+            } else {
+                probe = child2.nextBatch(TupleBatch.DEFAULT_SIZE);
+                probePos = 0;
+                if (probe.isEmpty()) {
+                    // child2 is done: advance child1
+                    child2.rewind();
+                    probe = null;
+                    if (!loadMap())
+                        return;
+                }
+            }
+        }
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child1, this.child2};
@@ -97,7 +97,8 @@ public class Insert extends Operator {
         int affectedRows = 0;
         callTimes ++;
         while (child.hasNext()) {
-            Tuple tup = child.next();
+            // the page keeps the inserted tuple
+            Tuple tup = child.next().retain();
             // insert tuple
             try {
                 Database.getBufferPool().insertTuple(t,tableId,tup);
@@ -48,7 +48,7 @@ public class IntegerAggregator implements Aggregator {
             groupAndAggregateVals = new HashMap<Integer, List<Integer>>();
         }
         // gbfield STRING-TYPE
-        else if (gbfieldtype == Type.STRING_TYPE) {
+        else if (gbfieldtype == Type.STRING_TYPE || gbfieldtype == Type.VARCHAR_TYPE) {
             groupAndAggregateVals = new HashMap<String, List<Integer>>();
         }
     }
@@ -87,7 +87,7 @@ public class IntegerAggregator implements Aggregator {
             compute(temp, aggVal);
         }
         // gbfield STRING-TYPE
-        else if (gbfieldtype == Type.STRING_TYPE) {
+        else if (gbfieldtype == Type.STRING_TYPE || gbfieldtype == Type.VARCHAR_TYPE) {
             HashMap<String, List<Integer>> map = (HashMap<String, List<Integer>>) groupAndAggregateVals;
             String groupVal = ((StringField) tup.getField(gbfield)).getValue();
             List<Integer> temp;
@@ -182,7 +182,7 @@ public class IntegerAggregator implements Aggregator {
                 }
             }
             // gbfield STRING-TYPE
-            else if(gbfieldtype == Type.STRING_TYPE) {
+            else if(gbfieldtype == Type.STRING_TYPE || gbfieldtype == Type.VARCHAR_TYPE) {
                 HashMap<String,List<Integer>> map = (HashMap<String,List<Integer>>) groupAndAggregateVals;
                 for(Map.Entry<String,List<Integer>> entry : map.entrySet()) {
                     String groupVal = entry.getKey();
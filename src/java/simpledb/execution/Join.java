@@ -144,7 +144,8 @@ public class Join extends Operator {
                         t.setField(idx, field);
                         idx++;
                     }
-                    return t;
+                    // reused tuples of child2 are refilled as it reads on, so t keeps fields of its own
+                    return t.retain();
                 }
             }
             curFetch = null;
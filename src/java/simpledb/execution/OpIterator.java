@@ -2,6 +2,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.io.Serializable;
@@ -39,6 +40,28 @@ public interface OpIterator extends Serializable{
    */
   Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Returns up to max of the next tuples at once, saving the per-tuple calls
+   * to hasNext and next. Batches pick up where next left off, and the other
+   * way round.
+   * <p>
+   * The returned batch may be reused by the next call to nextBatch, so the
+   * caller must be done with it by then. A batch of reused tuples (see
+   * {@link simpledb.storage.Tuple#isReused}) can hold fewer than max tuples
+   * before the end, and is only valid until the next call to the iterator.
+   * This default implementation fills a new batch with hasNext and next.
+   *
+   * @param max the maximum number of tuples to return, at least 1
+   * @return the next tuples, or an empty batch if there are no more tuples.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default TupleBatch nextBatch(int max) throws DbException, TransactionAbortedException {
+    TupleBatch batch = new TupleBatch(max);
+    while (batch.size() < max && hasNext())
+      batch.add(next());
+    return batch;
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
@@ -3,14 +3,16 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.NoSuchElementException;
 
 /**
  * Abstract class for implementing operators. It handles <code>close</code>,
- * <code>next</code> and <code>hasNext</code>. Subclasses only need to implement
- * <code>open</code> and <code>readNext</code>.
+ * <code>next</code>, <code>hasNext</code> and <code>nextBatch</code>. Subclasses
+ * only need to implement <code>open</code> and <code>readNext</code>, and may
+ * implement <code>fetchBatch</code> to process their input a batch at a time.
  */
 public abstract class Operator implements OpIterator {
 
@@ -38,6 +40,44 @@ public abstract class Operator implements OpIterator {
         return result;
     }
 
+    public TupleBatch nextBatch(int max) throws DbException, TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+
+        if (batch == null)
+            batch = new TupleBatch(max);
+        else
+            batch.clear();
+        if (next != null) {
+            batch.add(next);
+            next = null;
+        }
+        fetchBatch(batch, max);
+        return batch;
+    }
+
+    /**
+     * Appends the next tuples in the iterator to batch, until it holds max
+     * tuples or the iteration is finished. Operator uses this method to
+     * implement <code>nextBatch</code>. This implementation calls
+     * <code>fetchNext</code> for each tuple; operators can override it to
+     * read their children a batch at a time.
+     *
+     * @param batch the batch to append to, holding fewer than max tuples
+     * @param max the number of tuples batch should hold on return, unless
+     *            the iteration is finished or batch holds reused tuples
+     *            (see {@link TupleBatch#isReused})
+     */
+    protected void fetchBatch(TupleBatch batch, int max) throws DbException,
+            TransactionAbortedException {
+        while (batch.size() < max) {
+            Tuple t = fetchNext();
+            if (t == null)
+                return;
+            batch.add(t);
+        }
+    }
+
     /**
      * Returns the next Tuple in the iterator, or null if the iteration is
      * finished. Operator uses this method to implement both <code>next</code>
@@ -60,6 +100,8 @@ public abstract class Operator implements OpIterator {
     }
 
     private Tuple next = null;
+    /** the batch returned by nextBatch, reused from call to call */
+    private transient TupleBatch batch = null;
     private boolean open = false;
     private int estimatedCardinality = 0;
 
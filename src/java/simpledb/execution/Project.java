@@ -4,7 +4,9 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleRing;
 
 import java.util.*;
 
@@ -17,6 +19,8 @@ public class Project extends Operator {
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    /** output tuples refilled in place while the child's tuples are reused, created on first use */
+    private transient TupleRing out;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -72,8 +76,44 @@ public class Project extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         if (!child.hasNext()) return null;
-        Tuple t = child.next();
-        Tuple newTuple = new Tuple(td);
+        return project(child.next(), 2);
+    }
+
+    /**
+     * Operator.fetchBatch implementation. Reads the child a batch at a time,
+     * projecting out the fields from each tuple.
+     */
+    @Override
+    protected void fetchBatch(TupleBatch batch, int max) throws TransactionAbortedException,
+            DbException {
+        while (batch.size() < max) {
+            TupleBatch in = child.nextBatch(max - batch.size());
+            if (in.isEmpty())
+                return;
+            for (int i = 0; i < in.size(); i++)
+                batch.add(project(in.get(i), max + 2));
+            // reading on would refill reused tuples already in the batch
+            if (batch.isReused())
+                return;
+        }
+    }
+
+    /**
+     * Projects a tuple. The result is refilled in place, like the tuples of
+     * a reusing SeqScan, if t is.
+     *
+     * @param ringSize the number of output tuples that have to stay intact
+     */
+    private Tuple project(Tuple t, int ringSize) {
+        Tuple newTuple;
+        if (t.isReused()) {
+            if (out == null)
+                out = new TupleRing(td);
+            out.ensureCapacity(ringSize);
+            newTuple = out.next();
+        } else {
+            newTuple = new Tuple(td);
+        }
         newTuple.setRecordId(t.getRecordId());
         for (int i = 0; i < td.numFields(); i++) {
             newTuple.setField(i, t.getField(outFieldIds.get(i)));
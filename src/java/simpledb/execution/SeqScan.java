@@ -5,8 +5,12 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -24,6 +28,12 @@ public class SeqScan implements OpIterator {
     private int tableid;
     private String tableAlias;
     private DbFileIterator iterator;
+    /** the fields the consumer of this scan reads, or null if it may read any */
+    private int[] requiredFields;
+    /** the predicate returned tuples satisfy, or null */
+    private Predicate predicate;
+    /** whether returned tuples are refilled in place; see setReuseTuples */
+    private boolean reuseTuples;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -88,9 +98,73 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Tells this scan that its consumer only reads the specified fields of
+     * the returned tuples. Tables stored column by column, such as a
+     * {@link simpledb.storage.PaxFile}, then only decode those fields up
+     * front. Other fields can still be read, at a higher cost. Takes effect
+     * on the next call to open.
+     *
+     * @param fields the indexes of the fields read, or null if any field may
+     *            be read
+     */
+    public void setRequiredFields(int[] fields) {
+        this.requiredFields = fields;
+    }
+
+    /**
+     * Makes this scan return only the tuples that satisfy a predicate, which
+     * is pushed down into the scan by a {@link Filter} over it. A HeapFile
+     * then skips the pages whose zone map shows they hold no tuple
+     * satisfying a predicate on an INT field. Takes effect on the next call
+     * to open.
+     *
+     * @param p the predicate, on the fields of this scan's tuples, or null
+     *            to return every tuple
+     */
+    public void setPredicate(Predicate p) {
+        this.predicate = p;
+    }
+
+    /**
+     * @return the predicate the returned tuples satisfy, or null.
+     */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * Makes this scan refill a few tuples in place instead of creating a
+     * tuple, and an IntField per INT field, for every row of a HeapFile.
+     * A returned tuple, and any field read from it, is then only valid until
+     * the next call to this scan; consumers that keep tuples or fields
+     * across rows must keep {@link Tuple#retain} copies of them. Takes
+     * effect on the next call to open.
+     *
+     * @param reuse whether to reuse tuples
+     */
+    public void setReuseTuples(boolean reuse) {
+        this.reuseTuples = reuse;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        iterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (predicate != null && file instanceof HeapFile) {
+            int[] fields = requiredFields;
+            if (fields != null) {
+                // the scan reads the predicate's field too
+                fields = Arrays.copyOf(fields, fields.length + 1);
+                fields[fields.length - 1] = predicate.getField();
+            }
+            iterator = ((HeapFile) file).iterator(tid, fields, predicate, reuseTuples);
+        } else if (predicate != null) {
+            iterator = new FilteredIterator(file.iterator(tid), predicate);
+        } else if (file instanceof HeapFile) {
+            iterator = ((HeapFile) file).iterator(tid, requiredFields, null, reuseTuples);
+        } else {
+            iterator = file.iterator(tid);
+        }
         iterator.open();
     }
 
@@ -134,6 +208,10 @@ public class SeqScan implements OpIterator {
         return iterator.next();
     }
 
+    public TupleBatch nextBatch(int max) throws TransactionAbortedException, DbException {
+        return iterator.nextBatch(max);
+    }
+
     public void close() {
         // some code goes here
         iterator.close();
@@ -144,4 +222,41 @@ public class SeqScan implements OpIterator {
         // some code goes here
         iterator.rewind();
     }
+
+    /**
+     * Applies a predicate to the tuples of a file that cannot apply it
+     * itself.
+     */
+    private static class FilteredIterator extends AbstractDbFileIterator {
+        private final DbFileIterator child;
+        private final Predicate predicate;
+
+        FilteredIterator(DbFileIterator child, Predicate predicate) {
+            this.child = child;
+            this.predicate = predicate;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (predicate.filter(t))
+                    return t;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            super.close();
+            child.rewind();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+    }
 }
@@ -55,7 +55,7 @@ public class StringAggregator implements Aggregator {
             groupAndAggregateVals = new HashMap<Integer, Integer>();
         }
         // gbfield STRING-TYPE
-        else if (gbfieldtype == Type.STRING_TYPE) {
+        else if (gbfieldtype == Type.STRING_TYPE || gbfieldtype == Type.VARCHAR_TYPE) {
             groupAndAggregateVals = new HashMap<String, Integer>();
         }
     }
@@ -90,7 +90,7 @@ public class StringAggregator implements Aggregator {
             map.put(groupVal,map.getOrDefault(groupVal,0) + 1);
         }
         // gbfield STRING-TYPE
-        else if (gbfieldtype == Type.STRING_TYPE) {
+        else if (gbfieldtype == Type.STRING_TYPE || gbfieldtype == Type.VARCHAR_TYPE) {
             HashMap<String,Integer> map = (HashMap<String,Integer>) groupAndAggregateVals;
             String groupVal = ((StringField) tup.getField(gbfield)).getValue();
             map.put(groupVal,map.getOrDefault(groupVal,0) + 1);
@@ -126,7 +126,7 @@ public class StringAggregator implements Aggregator {
                 }
             }
             // gbfield STRING-TYPE
-            else if (gbfieldtype == Type.STRING_TYPE) {
+            else if (gbfieldtype == Type.STRING_TYPE || gbfieldtype == Type.VARCHAR_TYPE) {
                 HashMap<String, Integer> map = (HashMap<String, Integer>) groupAndAggregateVals;
                 for (Map.Entry<String, Integer> entry : map.entrySet()) {
                     String groupVal = entry.getKey();
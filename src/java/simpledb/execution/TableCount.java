@@ -0,0 +1,98 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * TableCount answers a COUNT over all the tuples of a heap file from the
+ * tuple count the file keeps in its header, without scanning the table.
+ * When the file doesn't know the count for the transaction, such as while
+ * another transaction has changed the table and not yet completed, it runs
+ * the aggregate it stands in for instead.
+ *
+ * @see HeapFile#tupleCount
+ */
+public class TableCount extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final HeapFile file;
+    private OpIterator child;
+    /** the count, until it has been returned */
+    private Tuple count;
+    /** whether tuples come from child rather than the header */
+    private boolean scanning;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            The transaction the count is taken for
+     * @param file
+     *            The table to count the tuples of
+     * @param child
+     *            The ungrouped COUNT aggregate over a scan of the table, run
+     *            if the file doesn't know the count
+     */
+    public TableCount(TransactionId tid, HeapFile file, OpIterator child) {
+        this.tid = tid;
+        this.file = file;
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        // the count is taken when the query runs, not when it is planned
+        long tuples = file.tupleCount(tid);
+        scanning = tuples < 0;
+        if (scanning) {
+            child.open();
+        } else {
+            count = new Tuple(getTupleDesc());
+            count.setField(0, new IntField((int) tuples));
+        }
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (scanning)
+            child.close();
+        count = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (scanning)
+            return child.hasNext() ? child.next() : null;
+        Tuple t = count;
+        count = null;
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
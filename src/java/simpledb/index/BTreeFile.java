@@ -33,6 +33,9 @@ public class BTreeFile implements DbFile {
     private final TupleDesc td;
     private final int tableid;
     private final int keyField;
+    private final DbFileChannel channel;
+    /** where pages are kept if the file is compressed, or null if they are stored as is */
+    private final CompressedPageStore compressed;
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -41,12 +44,37 @@ public class BTreeFile implements DbFile {
      *            file.
      * @param key - the field which index is keyed on
      * @param td  - the tuple descriptor of tuples in the file
+     * @throws IllegalArgumentException if td has variable-length fields,
+     *            which B+ tree pages cannot store
      */
     public BTreeFile(File f, int key, TupleDesc td) {
+        this(f, key, td, null);
+    }
+
+    /**
+     * Constructs a B+ tree file backed by the specified file, optionally
+     * keeping its pages compressed with the given codec. The root pointer
+     * page is stored as page 0 of the {@link CompressedPageStore}, followed
+     * by the other pages by page number.
+     *
+     * @param f     - the file that stores the on-disk backing store for this B+ tree
+     *              file.
+     * @param key   - the field which index is keyed on
+     * @param td    - the tuple descriptor of tuples in the file
+     * @param codec - the codec to compress pages with, or null to store them as is
+     * @throws IllegalArgumentException if td has variable-length fields,
+     *            which B+ tree pages cannot store
+     * @see simpledb.storage.HeapFile#HeapFile(File, TupleDesc, boolean, PageCodec)
+     */
+    public BTreeFile(File f, int key, TupleDesc td, PageCodec codec) {
+        if (!td.isFixedLength())
+            throw new IllegalArgumentException("B+ tree files only store fixed-length tuples: " + td);
         this.f = f;
         this.tableid = f.getAbsoluteFile().hashCode();
         this.keyField = key;
         this.td = td;
+        this.channel = new DbFileChannel(f);
+        this.compressed = codec == null ? null : new CompressedPageStore(f, codec);
     }
 
     /**
@@ -88,11 +116,11 @@ public class BTreeFile implements DbFile {
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
+                int retval = readPageData(0, pageBuf);
+                if (retval == 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BTreeRootPtrPage.getPageSize()) {
@@ -103,13 +131,8 @@ public class BTreeFile implements DbFile {
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
                 byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
+                int retval = readPageData(id.getPageNumber(), pageBuf);
+                if (retval == 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BufferPool.getPageSize()) {
@@ -128,8 +151,6 @@ public class BTreeFile implements DbFile {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
     }
 
     /**
@@ -142,21 +163,67 @@ public class BTreeFile implements DbFile {
         BTreePageId id = (BTreePageId) page.getId();
 
         byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
         if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-            rf.write(data);
-            rf.close();
+            writePageData(0, data);
         } else {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-            rf.write(data);
-            rf.close();
+            writePageData(page.getId().getPageNumber(), data);
         }
     }
 
+    /**
+     * Reads the bytes of a page from disk.
+     *
+     * @param pageNo - the page number, 0 for the root pointer page
+     * @param pageBuf - the buffer to read the page into
+     * @return the number of bytes read, short of the page size at the end of the file
+     */
+    private int readPageData(int pageNo, byte[] pageBuf) throws IOException {
+        if (compressed != null) {
+            if (pageNo >= compressed.numPages())
+                return 0;
+            compressed.read(pageNo, pageBuf);
+            return pageBuf.length;
+        }
+        return channel.read(pageBuf, pageNo == 0 ? 0 : pageOffset(pageNo));
+    }
+
+    /**
+     * Writes the bytes of a page to disk.
+     *
+     * @param pageNo - the page number, 0 for the root pointer page
+     * @param data - the bytes of the page
+     */
+    private void writePageData(int pageNo, byte[] data) throws IOException {
+        if (compressed != null)
+            compressed.write(pageNo, data);
+        else
+            channel.write(data, pageNo == 0 ? 0 : pageOffset(pageNo));
+    }
+
+    /**
+     * Returns the file offset of the given (non root pointer) page. Page numbers
+     * start at 1, directly after the root pointer page.
+     */
+    private long pageOffset(int pageNo) {
+        return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * BufferPool.getPageSize();
+    }
+
+    /**
+     * Closes the channel backing this BTreeFile. Called by the Catalog when
+     * the table is removed; a later page read or write reopens the file.
+     */
+    public void close() {
+        channel.close();
+        if (compressed != null)
+            compressed.close();
+    }
+
     /**
      * Returns the number of pages in this BTreeFile.
      */
     public int numPages() {
+        if (compressed != null)
+            return Math.max(0, compressed.numPages() - 1);
         // we only ever write full pages
         return (int) ((f.length() - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize());
     }
@@ -1039,15 +1106,12 @@ public class BTreeFile implements DbFile {
      */
     BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
         synchronized (this) {
-            if (f.length() == 0) {
+            if (compressed != null ? compressed.numPages() == 0 : f.length() == 0) {
                 // create the root pointer page and the root page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
                 byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
                 byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-                bw.write(emptyRootPtrData);
-                bw.write(emptyLeafData);
-                bw.close();
+                writePageData(0, emptyRootPtrData);
+                writePageData(1, emptyLeafData);
             }
         }
 
@@ -1101,12 +1165,9 @@ public class BTreeFile implements DbFile {
         if (headerId == null) {
             synchronized (this) {
                 // create the new page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
                 byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
-                emptyPageNo = numPages();
+                emptyPageNo = numPages() + 1;
+                writePageData(emptyPageNo, emptyData);
             }
         }
 
@@ -1135,10 +1196,7 @@ public class BTreeFile implements DbFile {
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        writePageData(emptyPageNo, BTreePage.createEmptyPageData());
 
         // make sure the page is not in the buffer pool	or in the local cache
         Database.getBufferPool().discardPage(newPageId);
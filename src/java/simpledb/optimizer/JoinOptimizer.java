@@ -255,6 +255,10 @@ public class JoinOptimizer {
 
         // some code goes here
         //Replace the following
+        // a query over a single table has no joins to order, and no plan in the cache
+        if(joins.isEmpty()) {
+            return joins;
+        }
         // when computing bestplan(j), we already know bestplan(j-1,j-2,...,1) in PlanCache
         PlanCache pc = new PlanCache();
         HashSet<LogicalJoinNode> joinSet = new HashSet<>(joins);
@@ -298,6 +298,8 @@ public class LogicalPlan {
             SeqScan ss = null;
             try {
                  ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 // the operators planned over the scan retain the tuples they keep
+                 ss.setReuseTuples(true);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -469,6 +471,14 @@ public class LogicalPlan {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
+            // an ungrouped COUNT over a whole table can be answered from the table's header
+            if (groupByField == null && getAggOp(aggOp) == Aggregator.Op.COUNT
+                    && tables.size() == 1 && filters.isEmpty() && joins.isEmpty()) {
+                DbFile file = Database.getCatalog().getDatabaseFile(tables.get(0).t);
+                if (file instanceof HeapFile) {
+                    node = new TableCount(t, (HeapFile) file, aggNode);
+                }
+            }
         }
 
         if (hasOrderBy) {
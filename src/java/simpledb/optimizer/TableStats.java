@@ -104,10 +104,17 @@ public class TableStats {
             HeapFile hf = (HeapFile)dbFile;
             this.npages = hf.numPages();
         }
+        // the count of committed tuples the file keeps in its header, where it knows it
+        long knownTuples = dbFile instanceof HeapFile ? ((HeapFile) dbFile).tupleCount(null) : -1;
+        if(knownTuples >= 0) {
+            this.ntups = (int) knownTuples;
+        }
         TupleDesc td = dbFile.getTupleDesc();
         this.histograms = new Object[td.numFields()];
         // create one seqscan
         SeqScan seqScan = new SeqScan(null,tableid);
+        // only the values of each tuple are read, so the scan can reuse tuples
+        seqScan.setReuseTuples(true);
         // find min and max value for every field (scan once)
         int[] min = new int[td.numFields()];
         Arrays.fill(min,Integer.MAX_VALUE);
@@ -124,7 +131,9 @@ public class TableStats {
                         max[i] = Math.max(max[i], f.getValue());
                     }
                 }
-                this.ntups++; // count Tuples
+                if(knownTuples < 0) {
+                    this.ntups++; // count Tuples
+                }
             }
             seqScan.rewind();
         } catch (DbException e) {
@@ -136,7 +145,7 @@ public class TableStats {
         for (int i = 0; i < td.numFields(); i++) {
             if(td.getFieldType(i) == Type.INT_TYPE) {
                 histograms[i] = new IntHistogram(NUM_HIST_BINS,min[i],max[i]);
-            } else if(td.getFieldType(i) == Type.STRING_TYPE) {
+            } else if(td.getFieldType(i) == Type.STRING_TYPE || td.getFieldType(i) == Type.VARCHAR_TYPE) {
                 histograms[i] = new StringHistogram(NUM_HIST_BINS);
             }
         }
@@ -150,7 +159,7 @@ public class TableStats {
                         IntHistogram histogram = (IntHistogram)histograms[i];
                         IntField f = (IntField) tup.getField(i);
                         histogram.addValue(f.getValue());
-                    } else if(td.getFieldType(i) == Type.STRING_TYPE) {
+                    } else if(td.getFieldType(i) == Type.STRING_TYPE || td.getFieldType(i) == Type.VARCHAR_TYPE) {
                         StringHistogram histogram = (StringHistogram)histograms[i];
                         StringField f = (StringField) tup.getField(i);
                         histogram.addValue(f.getValue());
@@ -232,7 +241,7 @@ public class TableStats {
             IntHistogram histogram = (IntHistogram) histograms[field];
             IntField f = (IntField) constant;
             selectivity = histogram.estimateSelectivity(op,f.getValue());
-        } else if(td.getFieldType(field) == Type.STRING_TYPE) {
+        } else if(td.getFieldType(field) == Type.STRING_TYPE || td.getFieldType(field) == Type.VARCHAR_TYPE) {
             StringHistogram histogram = (StringHistogram) histograms[field];
             StringField f = (StringField) constant;
             selectivity = histogram.estimateSelectivity(op,f.getValue());
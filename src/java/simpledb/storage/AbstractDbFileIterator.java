@@ -5,7 +5,7 @@ import simpledb.transaction.TransactionAbortedException;
 
 import java.util.NoSuchElementException;
 
-/** Helper for implementing DbFileIterators. Handles hasNext()/next() logic. */
+/** Helper for implementing DbFileIterators. Handles hasNext()/next() and nextBatch() logic. */
 public abstract class AbstractDbFileIterator implements DbFileIterator {
 
 	public boolean hasNext() throws DbException, TransactionAbortedException {
@@ -25,6 +25,24 @@ public abstract class AbstractDbFileIterator implements DbFileIterator {
         return result;
     }
 
+    public TupleBatch nextBatch(int max) throws DbException, TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch(max);
+        else
+            batch.clear();
+        if (next != null) {
+            batch.add(next);
+            next = null;
+        }
+        while (batch.size() < max) {
+            Tuple t = readNext();
+            if (t == null)
+                break;
+            batch.add(t);
+        }
+        return batch;
+    }
+
     /** If subclasses override this, they should call super.close(). */
     public void close() {
         // Ensures that a future call to next() will fail
@@ -36,4 +54,6 @@ public abstract class AbstractDbFileIterator implements DbFileIterator {
     protected abstract Tuple readNext() throws DbException, TransactionAbortedException;
 
     private Tuple next = null;
+    /** the batch returned by nextBatch, reused from call to call */
+    private TupleBatch batch = null;
 }
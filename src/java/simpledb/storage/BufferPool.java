@@ -10,8 +10,10 @@ import simpledb.transaction.TransactionId;
 import java.io.*;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -21,6 +23,56 @@ import java.util.concurrent.locks.Lock;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Tables may use pages of different sizes (see {@link DbFile#getPageSize}),
+ * so the BufferPool budgets its memory in bytes: a pool of numPages pages
+ * holds numPages pages of {@link #getPageSize()} bytes, four times as many
+ * pages a quarter that size, or a mix of both.
+ * <p>
+ * Sequential scans can ask the BufferPool to read pages ahead of them (see
+ * {@link #prefetchPages}). Read-ahead fills free frames in the background
+ * without taking locks; a transaction still locks a prefetched page when it
+ * asks for it with getPage. Read-ahead and commits hand their pages to the
+ * DbFile in batches (see {@link DbFile#readPagesAsync} and
+ * {@link DbFile#writePages}), which the {@link IoEngine} turns into a few
+ * large I/Os.
+ * <p>
+ * The page to evict is chosen by a {@link ReplacementPolicy}, picked when
+ * the BufferPool is built. The default, 2Q, keeps the pages a sequential
+ * scan reads once apart from the pages used over and over, so that a large
+ * scan does not flush the working set.
+ * <p>
+ * A large BufferPool is split into shards by the hash of the page id. Each
+ * shard has its own page table and replacement state, and its monitor is
+ * the latch held while changing them, so threads working on pages of
+ * different shards do not wait on each other; lookups take no latch. The
+ * byte budget is shared by all shards: a page that needs room evicts from
+ * its own shard first, and from the others if that one has no clean page.
+ * Misses are read without holding any latch, and a page being read by one
+ * thread, for getPage or read-ahead, is waited for rather than read again
+ * by another.
+ * <p>
+ * The BufferPool follows a STEAL policy with write-ahead logging: a dirty
+ * page may be evicted before the transaction that dirtied it completes,
+ * if the {@link LogFile} can roll that transaction back, that is, if it
+ * has begun in the log (see {@link LogFile#isLive}). Every dirty page is
+ * logged with its before image, and the log forced, before the page is
+ * written, whether it is stolen, flushed or written at commit, so an
+ * abort or recovery can undo it. Clean pages are evicted first; a dirty
+ * page of a transaction that has not begun in the log is never evicted.
+ * <p>
+ * A transaction commits by writing its dirty pages (FORCE), unless the
+ * BufferPool is set to NO-FORCE (see {@link #setNoForce}). A NO-FORCE
+ * commit only logs the after images of the pages and the COMMIT record,
+ * with a force shared by the transactions committing at the same time,
+ * and the pages stay dirty in the pool until they are evicted or flushed.
+ * Eviction writes such pages back before it steals any. Transactions that
+ * have not begun in the log always commit by writing their pages.
+ * <p>
+ * A {@link PageCleaner} can write dirty pages back in the background (see
+ * {@link #startPageCleaner}), keeping the dirty share of the pool between
+ * two watermarks so that eviction finds clean pages and does not wait for
+ * a write.
  * 
  * @Threadsafe, all fields are final
  */
@@ -35,24 +87,112 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    /** Store pages */
-    private Map<PageId,Page> pageStore;
+    /** Default maximum number of pages a sequential scan reads ahead. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 16;
+
+    private static int readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+
+    private static boolean noForce = false;
+
+    /** Replacement policy of a BufferPool built without one. */
+    public static final ReplacementPolicy.Kind DEFAULT_REPLACEMENT = ReplacementPolicy.Kind.TWO_QUEUE;
+
+    /** Largest number of shards a BufferPool built without a number is split into. */
+    public static final int DEFAULT_SHARDS = 16;
+
+    /** Fewest pages of the default size in each shard of a BufferPool built without a number of shards. */
+    private static final int MIN_SHARD_PAGES = 32;
+
+    /**
+     * A partition of the pool, holding the pages whose ids hash to it. Its
+     * monitor is the latch held while changing its pages or replacement
+     * state; pages are looked up without it.
+     */
+    private static class Shard {
+        final int index;
+        /** Store pages */
+        final Map<PageId,Page> pages = new ConcurrentHashMap<>();
+        /** chooses the pages of this shard to evict */
+        final ReplacementPolicy policy;
+        /**
+         * dirty pages being written outside the latch by eviction or the
+         * cleaner, and the transactions that dirtied them; neither chooses
+         * a page in here, and the latch is notified as pages leave
+         */
+        final Map<PageId,TransactionId> writing = new HashMap<>();
+
+        Shard(int index, ReplacementPolicy policy) {
+            this.index = index;
+            this.policy = policy;
+        }
+    }
+
+    private final Shard[] shards;
     /** Fixed number of pages */
     private int numPages;
+    /** bytes of pages the pool holds at most, numPages pages of the default size */
+    private final long capacityBytes;
+    /** bytes of the pages in the shards, and of the pages being added to them */
+    private final AtomicLong usedBytes = new AtomicLong();
 
-    /** eviction */
-    private Deque<PageId> fifoQueue; // FIFO eviction
+    /** pages being read by getPage or read ahead, completed once they are cached or dropped */
+    private final Map<PageId,CompletableFuture<Void>> loading = new ConcurrentHashMap<>();
+
+    /** dirty pages whose changes committed without being written (NO-FORCE), and the transaction that committed them */
+    private final Map<PageId,TransactionId> unwritten = new ConcurrentHashMap<>();
+
+    /** transactions being rolled back, whose pages must not be stolen */
+    private final Set<TransactionId> aborting = ConcurrentHashMap.newKeySet();
+
+    /** writes dirty pages back in the background, or null */
+    private volatile PageCleaner cleaner;
+
+    /** the transaction the cleaner locks committed pages as while it writes them */
+    private final TransactionId cleanerTid = new TransactionId();
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages of the default
+     * page size, or as many bytes of pages of other sizes.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, DEFAULT_REPLACEMENT);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages of the default
+     * page size, and evicts pages as the specified replacement policy
+     * chooses.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param replacement the replacement policy
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind replacement) {
+        // small pools are not worth splitting: each shard's policy would see too few pages
+        this(numPages, replacement, Math.max(1, Math.min(DEFAULT_SHARDS, numPages / MIN_SHARD_PAGES)));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages of the default
+     * page size, split into the specified number of shards, each evicting
+     * pages as its own instance of the replacement policy chooses.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param replacement the replacement policy
+     * @param shards the number of shards, at least 1
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind replacement, int shards) {
         // some code goes here
-        pageStore = new ConcurrentHashMap<>();
+        if(shards < 1) {
+            throw new IllegalArgumentException("a buffer pool needs at least one shard");
+        }
         this.numPages = numPages;
-        this.fifoQueue = new LinkedList<>();
+        this.capacityBytes = (long) numPages * pageSize;
+        this.shards = new Shard[shards];
+        for(int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(i, replacement.create(Math.max(1, numPages / shards)));
+        }
     }
     
     public static int getPageSize() {
@@ -69,6 +209,108 @@ public class BufferPool {
     	BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /**
+     * Sets the maximum number of pages a sequential scan reads ahead of
+     * the page it is on.
+     *
+     * @param pages the maximum read-ahead, or 0 to turn read-ahead off
+     */
+    public static void setReadAheadPages(int pages) {
+        BufferPool.readAheadPages = pages;
+    }
+
+    /**
+     * Sets whether transactions that have begun in the log commit without
+     * writing their pages, which the log then holds until the pages are
+     * written back.
+     *
+     * @param noForce true for NO-FORCE commits, false to write the pages
+     *            of a transaction as it commits
+     */
+    public static void setNoForce(boolean noForce) {
+        BufferPool.noForce = noForce;
+    }
+
+    /**
+     * @return the number of pages of the default size this pool holds.
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the number of shards this pool is split into.
+     */
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    /**
+     * Starts writing dirty pages back in the background, with the default
+     * rate and watermarks of {@link PageCleaner}.
+     */
+    public void startPageCleaner() {
+        startPageCleaner(PageCleaner.DEFAULT_PAGES_PER_SECOND,
+                PageCleaner.DEFAULT_LOW_WATERMARK, PageCleaner.DEFAULT_HIGH_WATERMARK);
+    }
+
+    /**
+     * Starts writing dirty pages back in the background, replacing the
+     * cleaner this pool has, if any. Once dirty pages take highWatermark of
+     * the pool's bytes, the cleaner writes pages until they take
+     * lowWatermark, at most pagesPerSecond pages a second.
+     *
+     * @param pagesPerSecond the largest number of pages to write a second
+     * @param lowWatermark the dirty fraction of the pool to write down to
+     * @param highWatermark the dirty fraction of the pool to start writing at
+     * @see PageCleaner
+     */
+    public synchronized void startPageCleaner(int pagesPerSecond, double lowWatermark, double highWatermark) {
+        stopPageCleaner();
+        cleaner = new PageCleaner(this, pagesPerSecond, lowWatermark, highWatermark);
+    }
+
+    /**
+     * Stops the background cleaner of this pool, if it has one, once it has
+     * finished the pages it is writing.
+     */
+    public synchronized void stopPageCleaner() {
+        if(cleaner != null) {
+            cleaner.stop();
+            cleaner = null;
+        }
+    }
+
+    /**
+     * @return the fraction of this pool's bytes held by dirty pages.
+     */
+    public double getDirtyFraction() {
+        long dirty = 0;
+        for(Shard shard : shards) {
+            for(Page page : shard.pages.values()) {
+                if(page.isDirty() != null) {
+                    dirty += page.getSizeInBytes();
+                }
+            }
+        }
+        return (double) dirty / capacityBytes;
+    }
+
+    private Shard shardOf(PageId pid) {
+        int h = pid.hashCode();
+        // spread the high bits, page numbers of one table differ in the low ones
+        return shards[Math.floorMod(h ^ (h >>> 16), shards.length)];
+    }
+
+    /**
+     * @return the maximum number of pages a sequential scan should read
+     *         ahead of the page it is on. Read-ahead is kept to a quarter
+     *         of the pool, so that it cannot crowd out the pages in use.
+     */
+    public int getMaxReadAhead() {
+        return Math.min(readAheadPages, numPages / 4);
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -88,6 +330,90 @@ public class BufferPool {
         throws TransactionAbortedException, DbException {
         // some code goes here
 
+        acquireLock(tid,pid,perm);
+        Shard shard = shardOf(pid);
+        while(true) {
+            // buffer pool has this page, return it directly
+            Page page = shard.pages.get(pid);
+            if(page != null) {
+                shard.policy.access(pid);
+                return page;
+            }
+            // another thread may be reading the page, wait for it rather than reading it twice
+            CompletableFuture<Void> loaded = new CompletableFuture<>();
+            CompletableFuture<Void> pending = loading.putIfAbsent(pid, loaded);
+            if(pending != null) {
+                // completed normally whether or not the page could be read
+                pending.join();
+                continue;
+            }
+            try {
+                // the page may have been cached since it was looked up
+                page = shard.pages.get(pid);
+                if(page == null) {
+                    page = cachePage(shard, pid, loadPage(pid));
+                }
+            } finally {
+                loading.remove(pid);
+                loaded.complete(null);
+            }
+            shard.policy.access(pid);
+            return page;
+        }
+    }
+
+    /**
+     * Reads a page the buffer pool does not have, with no latch held.
+     */
+    private Page loadPage(PageId pid) {
+        int tableid = pid.getTableId();
+        // get DbFile of this table through Catalog
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableid);
+        // read page from disk
+        return dbFile.readPage(pid);
+    }
+
+    /**
+     * Adds a page that a DbFile has just created to the buffer pool, with a
+     * write lock held by the specified transaction, so that the file need
+     * not write the empty page and read it back. The page reaches disk when
+     * it is flushed, like any page the transaction dirties.
+     *
+     * @param tid the ID of the transaction creating the page
+     * @param page the new page
+     * @return the cached copy of the page
+     */
+    public Page newPage(TransactionId tid, Page page)
+        throws TransactionAbortedException, DbException {
+        acquireLock(tid,page.getId(),Permissions.READ_WRITE);
+        Shard shard = shardOf(page.getId());
+        Page cached = cachePage(shard,page.getId(),page);
+        shard.policy.access(page.getId());
+        return cached;
+    }
+
+    /**
+     * Locks a page without reading it, as getPage does before returning a
+     * page. The lock is held until the transaction completes. Files use
+     * this to lock what no page of theirs stands for.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID to lock, which need not be a page of the file
+     * @param perm the requested permissions
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        acquireLock(tid,pid,perm);
+    }
+
+    /**
+     * Waits for a lock on a page, giving up after a random timeout.
+     *
+     * @throws TransactionAbortedException if the timeout was reached,
+     *         taken to mean the transaction is deadlocked
+     */
+    private void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
         LockManager lockManager = Database.getLockManager();
         long start = System.currentTimeMillis();
         long timeout = new Random().nextInt(2000) + 10000;
@@ -99,25 +425,148 @@ public class BufferPool {
                 throw new TransactionAbortedException();
             }
         }
-        // buffer pool has this page, return it directly
-        if(pageStore.containsKey(pid)) {
-            return pageStore.get(pid);
+    }
+
+    /**
+     * Adds a page read from disk to its shard, evicting pages if the pool is
+     * full, unless another thread has cached the page meanwhile.
+     *
+     * @return the cached copy of the page
+     */
+    private Page cachePage(Shard shard, PageId pid, Page page) throws DbException {
+        // make room before taking the shard's latch, as eviction takes the
+        // latches of other shards and a thread never holds two
+        long bytes = page.getSizeInBytes();
+        reserve(shard, bytes);
+        synchronized (shard) {
+            Page cached = shard.pages.get(pid);
+            if(cached != null) {
+                usedBytes.addAndGet(-bytes);
+                return cached;
+            }
+            // add into buffer pool
+            shard.pages.put(pid,page);
+            // entering the pool is not a reference, getPage reports that
+            shard.policy.admit(pid);
+            return page;
         }
-        // if exceed numPages (no space)
-        if(pageStore.size() >= numPages){
-            evictPage();
+    }
+
+    /**
+     * Charges the byte budget for a page about to be added to a shard,
+     * evicting pages until it fits. A page larger than the whole pool fits
+     * once the pool is empty.
+     */
+    private void reserve(Shard shard, long bytes) throws DbException {
+        while(true) {
+            long used = usedBytes.get();
+            if(used + bytes <= capacityBytes || used == 0) {
+                if(usedBytes.compareAndSet(used, used + bytes)) {
+                    return;
+                }
+            } else {
+                evictPage(shard);
+            }
+        }
+    }
+
+    /**
+     * Charges the byte budget for a page if it fits without evicting.
+     *
+     * @return whether the page fits
+     */
+    private boolean tryReserve(long bytes) {
+        while(true) {
+            long used = usedBytes.get();
+            if(used + bytes > capacityBytes) {
+                return false;
+            }
+            if(usedBytes.compareAndSet(used, used + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return whether pages of the specified number of bytes fit in the
+     *         pool next to the pages it holds.
+     */
+    private boolean hasRoomFor(long bytes) {
+        return usedBytes.get() + bytes <= capacityBytes;
+    }
+
+    /**
+     * Starts reading a page into the buffer pool in the background, ahead of
+     * a transaction asking for it with getPage.
+     *
+     * @param pid the ID of the page to read
+     * @see #prefetchPages
+     */
+    public void prefetchPage(PageId pid) {
+        prefetchPages(Collections.singletonList(pid));
+    }
+
+    /**
+     * Starts reading pages into the buffer pool in the background, ahead of
+     * a transaction asking for them with getPage. No lock is taken: the
+     * pages are only cached, and getPage locks them as usual before
+     * returning them. The pages of each table are read as one batch, so
+     * adjacent pages cost a single I/O.
+     * <p>
+     * Read-ahead never evicts a page. A page is skipped if it is already
+     * cached or being read, or if the pool has no free frame for it.
+     *
+     * @param pids the IDs of the pages to read, in the order they are needed
+     */
+    public void prefetchPages(List<PageId> pids) {
+        Map<Integer,List<PageId>> byTable = new LinkedHashMap<>();
+        for(PageId pid : pids) {
+            if(shardOf(pid).pages.containsKey(pid) || loading.containsKey(pid)) {
+                continue;
+            }
+            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            if(!hasRoomFor((loading.size() + 1L) * dbFile.getPageSize())) {
+                break;
+            }
+            // getPage waits on this future rather than reading the page twice
+            if(loading.putIfAbsent(pid, new CompletableFuture<>()) == null) {
+                byTable.computeIfAbsent(pid.getTableId(), t -> new ArrayList<>()).add(pid);
+            }
+        }
+        for(Map.Entry<Integer,List<PageId>> table : byTable.entrySet()) {
+            DbFile dbFile = Database.getCatalog().getDatabaseFile(table.getKey());
+            List<PageId> batch = table.getValue();
+            List<CompletableFuture<Page>> pages = dbFile.readPagesAsync(batch);
+            for(int i = 0; i < batch.size(); i++) {
+                PageId pid = batch.get(i);
+                pages.get(i).whenComplete((page, e) -> readAhead(pid, page));
+            }
+        }
+    }
+
+    /**
+     * Caches a page read for prefetchPages if there is still room, and
+     * completes the future getPage may be waiting on.
+     *
+     * @param page the page, or null if it could not be read; read-ahead is
+     *             only a hint, getPage then reads the page itself
+     */
+    private void readAhead(PageId pid, Page page) {
+        try {
+            if(page != null) {
+                Shard shard = shardOf(pid);
+                synchronized (shard) {
+                    // a transaction may have read (and changed) the page meanwhile
+                    if(!shard.pages.containsKey(pid) && tryReserve(page.getSizeInBytes())) {
+                        shard.pages.put(pid,page);
+                        // not referenced until a transaction asks for it
+                        shard.policy.admit(pid);
+                    }
+                }
+            }
+        } finally {
+            loading.remove(pid).complete(null);
         }
-        // buffer pool has not, retrieve it from disk and add to buffer pool
-        int tableid = pid.getTableId();
-        // get DbFile of this table through Catalog
-        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableid);
-        // read page from disk
-        Page page = dbFile.readPage(pid);
-        // add into buffer pool
-        pageStore.put(pid,page);
-        // update eviction data structure
-        fifoQueue.offer(pid);
-        return page;
     }
 
     /**
@@ -165,46 +614,110 @@ public class BufferPool {
         // not necessary for lab1|lab2
         // commit: flush dirty pages associated to the transaction to disk
         if(commit) {
-            // iterate all pages in bufferpool
-            for(Map.Entry<PageId,Page> entry : pageStore.entrySet()) {
-                PageId pid = entry.getKey();
-                // if dirty, query lockmanager to check if page has lock of tx
-                if(entry.getValue().isDirty() != null) {
-                    if(holdsLock(tid, pid)) {
-                        // flush
-                        try {
-                            flushPage(pid);
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
+            // a commit forcing the log meanwhile waits for this one's COMMIT record
+            Database.getLogFile().startCommit(tid);
+            // flush the dirty pages the transaction holds locks on, or log them
+            try {
+                if(noForce && Database.getLogFile().isLive(tid)) {
+                    commitLogged(tid);
+                } else {
+                    flushPages(tid);
                 }
+            } catch (IOException e) {
+                e.printStackTrace();
             }
+            completeFiles(tid, true);
             // release all locks of this tid
             LockManager lockManager = Database.getLockManager();
             lockManager.completeTransaction(tid);
         }
         // abort: discard dirty pages associated to the transaction
         else {
+            // pages stolen from the pool are undone from the log, unless
+            // the caller has done so already
+            LogFile logFile = Database.getLogFile();
+            if(logFile.isLive(tid)) {
+                try {
+                    logFile.logAbort(tid);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
             // call discardPage() modifies pageStore in foreach
             // will throw ConcurrentModificationException, so change HashMap to ConcurrentHashMap
             // iterate all pages in bufferpool
-            for(Map.Entry<PageId,Page> entry : pageStore.entrySet()) {
-                PageId pid = entry.getKey();
-                // if dirty, query lockmanager to check if page has lock of tx
-                if(entry.getValue().isDirty() != null) {
-                    // TODO only page with exclusive lock need to be discarded
-                    if(holdsLock(tid, pid)) {
-                        // discard
+            for(Shard shard : shards) {
+                for(Map.Entry<PageId,Page> entry : shard.pages.entrySet()) {
+                    PageId pid = entry.getKey();
+                    TransactionId dirtier = entry.getValue().isDirty();
+                    // if dirty, query lockmanager to check if page has lock of tx
+                    if(dirtier == null || !holdsLock(tid, pid)) {
+                        continue;
+                    }
+                    TransactionId committed = unwritten.get(pid);
+                    if(committed == null) {
+                        // TODO only page with exclusive lock need to be discarded
                         discardPage(pid);
+                    } else if(!committed.equals(dirtier)) {
+                        // the disk lacks the committed changes, so the page
+                        // goes back to them rather than out of the pool
+                        Page before = entry.getValue().getBeforeImage();
+                        before.markDirty(true, committed);
+                        synchronized (shard) {
+                            shard.pages.replace(pid, entry.getValue(), before);
+                        }
                     }
                 }
             }
+            completeFiles(tid, false);
             LockManager lockManager = Database.getLockManager();
             lockManager.completeTransaction(tid);
         }
     }
 
+    /**
+     * Commits a transaction without writing its pages (NO-FORCE): logs the
+     * pages it dirtied and its COMMIT record, and keeps the pages dirty
+     * until they are written back.
+     */
+    private void commitLogged(TransactionId tid) throws IOException {
+        LogFile logFile = Database.getLogFile();
+        List<Page> pages = new ArrayList<>();
+        for(Shard shard : shards) {
+            for(Page page : shard.pages.values()) {
+                if(tid.equals(page.isDirty())) {
+                    pages.add(page);
+                }
+            }
+        }
+        for(Page page : pages) {
+            logFile.logWrite(tid, page.getBeforeImage(), page);
+        }
+        logFile.logCommit(tid);
+        for(Page page : pages) {
+            // what the page returns to if a later transaction aborts
+            page.setBeforeImage();
+            unwritten.put(page.getId(), tid);
+        }
+    }
+
+    /**
+     * Tells the files of the catalog the outcome of a transaction, so that
+     * they can commit or drop what they keep of it besides its pages.
+     *
+     * @see DbFile#transactionComplete
+     */
+    private void completeFiles(TransactionId tid, boolean commit) {
+        Iterator<Integer> tableIds = Database.getCatalog().tableIdIterator();
+        while(tableIds.hasNext()) {
+            try {
+                Database.getCatalog().getDatabaseFile(tableIds.next()).transactionComplete(tid, commit);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     /**
      * Add a tuple to the specified table on behalf of transaction tid.  Will
      * acquire a write lock on the page the tuple is added to and any other 
@@ -253,29 +766,38 @@ public class BufferPool {
     private void updateBufferPool(List<Page> pageList, TransactionId tid) throws DbException {
         for(Page page : pageList) {
             page.markDirty(true,tid);
-            if(!pageStore.containsKey(page.getId())) {
-                fifoQueue.offer(page.getId());
+            Shard shard = shardOf(page.getId());
+            synchronized (shard) {
+                Page replaced = shard.pages.put(page.getId(),page);
+                usedBytes.addAndGet(page.getSizeInBytes() - (replaced == null ? 0 : replaced.getSizeInBytes()));
+                if(replaced == null) {
+                    shard.policy.admit(page.getId());
+                }
+                shard.policy.access(page.getId());
             }
-            pageStore.put(page.getId(),page);
-            if(pageStore.size() > numPages) {
-                evictPage();
+            while(usedBytes.get() > capacityBytes) {
+                evictPage(shard);
             }
         }
     }
 
     /**
      * Flush all dirty pages to disk.
-     * NB: Be careful using this routine -- it writes dirty data to disk so will
-     *     break simpledb if running in NO STEAL mode.
+     * NB: Be careful using this routine -- it writes dirty data to disk, which
+     *     can only be undone from the log.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for(Map.Entry<PageId,Page> entry : pageStore.entrySet()) {
-            if(entry.getValue().isDirty() != null) {
-                PageId pid = entry.getKey();
-                flushPage(pid);
-                Database.getLockManager().releaseLock(pid);
+        for(Shard shard : shards) {
+            synchronized (shard) {
+                for(Map.Entry<PageId,Page> entry : shard.pages.entrySet()) {
+                    if(entry.getValue().isDirty() != null) {
+                        PageId pid = entry.getKey();
+                        flushPage(pid);
+                        Database.getLockManager().releaseLock(pid);
+                    }
+                }
             }
         }
     }
@@ -288,61 +810,415 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        pageStore.remove(pid);
+        Shard shard = shardOf(pid);
+        synchronized (shard) {
+            dropPage(shard, pid);
+            shard.policy.remove(pid);
+        }
+    }
+
+    /**
+     * Removes a page from its shard and refunds the budget for it; whatever
+     * of it was not written is no longer the pool's to write. Called while
+     * holding the shard's latch.
+     *
+     * @return the page, or null if the shard did not hold it
+     */
+    private Page dropPage(Shard shard, PageId pid) {
+        Page removed = shard.pages.remove(pid);
+        unwritten.remove(pid);
+        if(removed != null) {
+            usedBytes.addAndGet(-removed.getSizeInBytes());
+        }
+        return removed;
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        Page page = pageStore.get(pid);
-        dbFile.writePage(page);
-        // marked not dirty
-        page.markDirty(false,null);
+        Shard shard = shardOf(pid);
+        synchronized (shard) {
+            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            Page page = shard.pages.get(pid);
+            if(logUpdate(page, page.isDirty())) {
+                Database.getLogFile().force();
+            }
+            dbFile.writePage(page);
+            // marked not dirty
+            page.markDirty(false,null);
+            page.setBeforeImage();
+            unwritten.remove(pid);
+        }
+    }
+
+    /**
+     * Logs a dirty page with its before image, which write-ahead logging
+     * asks for before the page is written, unless the page was logged as
+     * its changes committed. A page of a transaction that has not begun in
+     * the log is not logged either, as recovery would ignore the record.
+     * Once written, the page's before image is what the disk holds; the
+     * log keeps the earlier images.
+     *
+     * @param dirtier the transaction that dirtied the page, or null if it is clean
+     * @return whether the page was logged; the caller forces the log
+     */
+    private boolean logUpdate(Page page, TransactionId dirtier) throws IOException {
+        if(dirtier == null || dirtier.equals(unwritten.get(page.getId()))) {
+            return false;
+        }
+        LogFile logFile = Database.getLogFile();
+        if(!logFile.isLive(dirtier)) {
+            return false;
+        }
+        logFile.logWrite(dirtier, page.getBeforeImage(), page);
+        return true;
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        // the dirty pages the transaction holds locks on, by table; they are
+        // locked, so no latch is needed to write them out, and one stolen
+        // meanwhile is written with the same contents
+        Map<Integer,List<Page>> byTable = new HashMap<>();
+        for(Shard shard : shards) {
+            for(Map.Entry<PageId,Page> entry : shard.pages.entrySet()) {
+                PageId pid = entry.getKey();
+                if(entry.getValue().isDirty() != null && holdsLock(tid, pid)) {
+                    byTable.computeIfAbsent(pid.getTableId(), t -> new ArrayList<>()).add(entry.getValue());
+                }
+            }
+        }
+        if(byTable.isEmpty()) {
+            return;
+        }
+        // write ahead, with one force for all the pages
+        boolean logged = false;
+        for(List<Page> pages : byTable.values()) {
+            for(Page page : pages) {
+                logged |= logUpdate(page, page.isDirty());
+            }
+        }
+        if(logged) {
+            Database.getLogFile().force();
+        }
+        // each table writes its pages as one batch
+        for(Map.Entry<Integer,List<Page>> table : byTable.entrySet()) {
+            DbFile dbFile = Database.getCatalog().getDatabaseFile(table.getKey());
+            dbFile.writePages(table.getValue());
+            for(Page page : table.getValue()) {
+                // marked not dirty
+                page.markDirty(false,null);
+                page.setBeforeImage();
+                unwritten.remove(page.getId());
+            }
+        }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Writes back up to max dirty pages that may be written without a
+     * transaction asking, for the {@link PageCleaner}: pages whose changes
+     * committed without being written first, then pages of transactions
+     * that have begun in the log, whose updates are logged and forced
+     * before they are written. A committed page is only written while no
+     * transaction holds a lock on it, since one may be changing it. Takes
+     * the latch of one shard at a time, and must be called holding none.
+     *
+     * @return the number of pages written
      */
-    private synchronized  void evictPage() throws DbException {
+    int cleanPages(int max) throws IOException {
+        LogFile logFile = Database.getLogFile();
+        int written = 0;
+        for(int pass = 0; pass < 2; pass++) {
+            for(Shard shard : shards) {
+                if(written >= max) {
+                    return written;
+                }
+                written += cleanShard(shard, pass, max - written, logFile);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Writes back up to max dirty pages of a shard. The pages are chosen and
+     * logged holding the shard's latch, and marked as being written, so that
+     * none is evicted as clean before it is written; the log is forced and
+     * the pages written without the latch.
+     *
+     * @param pass 0 to write pages committed without being written, 1 to
+     *             write pages of transactions that have begun in the log
+     * @return the number of pages written
+     */
+    private int cleanShard(Shard shard, int pass, int max, LogFile logFile) throws IOException {
+        LockManager lockManager = Database.getLockManager();
+        List<Page> pages = new ArrayList<>();
+        List<TransactionId> dirtiers = new ArrayList<>();
+        boolean logged = false;
+        synchronized (shard) {
+            for(Page page : shard.pages.values()) {
+                if(pages.size() >= max) {
+                    break;
+                }
+                TransactionId dirtier = page.isDirty();
+                PageId pid = page.getId();
+                if(dirtier == null || shard.writing.containsKey(pid)) {
+                    continue;
+                }
+                if(pass == 0) {
+                    if(!dirtier.equals(unwritten.get(pid)) || !tryLock(lockManager, pid)) {
+                        continue;
+                    }
+                    // a transaction may have dirtied the page before letting go of it
+                    if(!dirtier.equals(page.isDirty())) {
+                        lockManager.releaseLock(cleanerTid, pid);
+                        continue;
+                    }
+                } else if(!logFile.isLive(dirtier) || aborting.contains(dirtier)) {
+                    continue;
+                }
+                pages.add(page);
+                dirtiers.add(dirtier);
+            }
+            if(pages.isEmpty()) {
+                return 0;
+            }
+            try {
+                // write ahead: the records are appended before the pages
+                // look clean to a commit, the force is left for later
+                for(int i = 0; i < pages.size(); i++) {
+                    logged |= logUpdate(pages.get(i), dirtiers.get(i));
+                }
+            } catch (IOException e) {
+                if(pass == 0) {
+                    for(Page page : pages) {
+                        lockManager.releaseLock(cleanerTid, page.getId());
+                    }
+                }
+                throw e;
+            }
+            for(int i = 0; i < pages.size(); i++) {
+                Page page = pages.get(i);
+                shard.writing.put(page.getId(), dirtiers.get(i));
+                // a transaction still changing a stolen page marks it dirty
+                // again afterwards, so the flag is cleared before the page
+                // is serialized rather than after
+                page.markDirty(false,null);
+            }
+        }
+        boolean done = false;
+        try {
+            // one force for the batch
+            if(logged) {
+                logFile.force();
+            }
+            Map<Integer,List<Page>> byTable = new HashMap<>();
+            for(Page page : pages) {
+                byTable.computeIfAbsent(page.getId().getTableId(), t -> new ArrayList<>()).add(page);
+            }
+            for(Map.Entry<Integer,List<Page>> table : byTable.entrySet()) {
+                Database.getCatalog().getDatabaseFile(table.getKey()).writePages(table.getValue());
+            }
+            for(Page page : pages) {
+                page.setBeforeImage();
+                unwritten.remove(page.getId());
+            }
+            done = true;
+            return pages.size();
+        } finally {
+            synchronized (shard) {
+                for(int i = 0; i < pages.size(); i++) {
+                    Page page = pages.get(i);
+                    if(!done && page.isDirty() == null) {
+                        page.markDirty(true, dirtiers.get(i));
+                    }
+                    shard.writing.remove(page.getId());
+                }
+                shard.notifyAll();
+            }
+            if(pass == 0) {
+                for(Page page : pages) {
+                    lockManager.releaseLock(cleanerTid, page.getId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Locks a page for the cleaner if no transaction holds a lock on it. The
+     * lock is exclusive, so that a transaction asking for the page waits for
+     * the write rather than sharing the page with the cleaner.
+     */
+    private boolean tryLock(LockManager lockManager, PageId pid) {
+        try {
+            return lockManager.acquireLock(cleanerTid, pid, Permissions.READ_WRITE);
+        } catch (TransactionAbortedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Discards a page from the buffer pool, from the specified shard if it
+     * has a page to evict, or else from the next shard that has one. A
+     * clean page is looked for in every shard first, then a page whose
+     * changes committed without being written, which is written back, and
+     * only then is a dirty page stolen. A dirty page is logged and marked as
+     * being written while its shard is latched, then the log is forced and
+     * the page written without the latch, and it is dropped once the latch
+     * is taken again, unless it was dirtied meanwhile. Takes the latch of one shard at a time, and must be
+     * called holding none.
+     *
+     * @throws DbException if no shard has a page that may be evicted
+     */
+    private void evictPage(Shard home) throws DbException {
         // some code goes here
         // not necessary for lab1
-        for (PageId pid : fifoQueue) {
-            Page page = pageStore.get(pid);
-            // check dirty
-            if (page != null && page.isDirty() == null) {
-                fifoQueue.remove(pid);
-                // release locks
-                Database.getLockManager().releaseLock(pid);
-                discardPage(pid);
+        LogFile logFile = Database.getLogFile();
+        for(int pass = 0; pass < 3; pass++) {
+            for(int i = 0; i < shards.length; i++) {
+                Shard shard = shards[(home.index + i) % shards.length];
+                PageId pid;
+                Page page;
+                TransactionId dirtier;
+                boolean logged;
+                synchronized (shard) {
+                    pid = shard.policy.victim(evictable(shard, pass, logFile));
+                    if(pid == null) {
+                        continue;
+                    }
+                    page = shard.pages.get(pid);
+                    dirtier = page.isDirty();
+                    if(dirtier == null) {
+                        // locks outlive the cached copy: a transaction that
+                        // read the page keeps its lock until it completes
+                        // the policy has already let go of the page, and may remember it
+                        dropPage(shard, pid);
+                        return;
+                    }
+                    try {
+                        // appended before the page looks clean to a commit
+                        logged = logUpdate(page, dirtier);
+                    } catch (IOException e) {
+                        // the policy has let go of the page, which stays
+                        shard.policy.admit(pid);
+                        throw new DbException("could not log page " + pid + ": " + e.getMessage());
+                    }
+                    shard.writing.put(pid, dirtier);
+                    // a transaction still changing a stolen page marks it dirty again
+                    page.markDirty(false,null);
+                }
+                writeEvicted(shard, pid, page, dirtier, logged, logFile);
                 return;
             }
-//            if(page.isDirty() != null) {
-//                try {
-//                    flushPage(pid);
-//                } catch (IOException e) {
-//                    e.printStackTrace();
-//                }
-//            } else {
-//                discardPage(pid);
-//            }
-        }
-        throw new DbException("no clean page to evict");
+        }
+        throw new DbException("no page to evict: the dirty pages belong to transactions that have not begun in the log");
+    }
+
+    /**
+     * Writes a dirty page chosen for eviction, forcing the log first if the
+     * page was logged, without its shard's latch, then drops the page unless
+     * it was dirtied again meanwhile. The transactions keep their locks, so
+     * no other sees a stolen page before its own completes.
+     */
+    private void writeEvicted(Shard shard, PageId pid, Page page, TransactionId dirtier, boolean logged,
+                              LogFile logFile) throws DbException {
+        IOException failed = null;
+        try {
+            if(logged) {
+                logFile.force();
+            }
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+        } catch (IOException e) {
+            failed = e;
+        }
+        synchronized (shard) {
+            shard.writing.remove(pid);
+            shard.notifyAll();
+            if(failed != null && page.isDirty() == null) {
+                page.markDirty(true, dirtier);
+            }
+            if(failed != null || page.isDirty() != null || shard.pages.get(pid) != page) {
+                // the policy has let go of the page, which stays
+                if(shard.pages.get(pid) == page) {
+                    shard.policy.admit(pid);
+                }
+            } else {
+                // the policy has already let go of the page, and may remember it
+                dropPage(shard, pid);
+            }
+        }
+        if(failed != null) {
+            throw new DbException("could not write page " + pid + ": " + failed.getMessage());
+        }
+        // the cleaner has fallen behind if eviction has to write
+        PageCleaner c = cleaner;
+        if(c != null) {
+            c.wake();
+        }
+    }
+
+    /**
+     * @param pass 0 to evict clean pages only, 1 to also write back pages
+     *             committed without being written, 2 to also steal the
+     *             pages of transactions that have begun in the log
+     * @return which pages of the shard may be evicted in the pass
+     */
+    private Predicate<PageId> evictable(Shard shard, int pass, LogFile logFile) {
+        return pid -> {
+            Page page = shard.pages.get(pid);
+            if(page == null || shard.writing.containsKey(pid)) {
+                return false;
+            }
+            TransactionId dirtier = page.isDirty();
+            return dirtier == null
+                    || pass >= 1 && dirtier.equals(unwritten.get(pid))
+                    || pass >= 2 && logFile.isLive(dirtier) && !aborting.contains(dirtier);
+        };
+    }
+
+    /**
+     * Stops stealing the pages of a transaction, so that a rollback can
+     * install its before images without a stolen page being written over
+     * them. Returns once no shard is writing a page of the transaction.
+     *
+     * @see #allowSteals
+     */
+    void preventSteals(TransactionId tid) {
+        aborting.add(tid);
+        // a steal that chose a page before the transaction was added is
+        // over once the page has left its shard's writing set
+        boolean interrupted = false;
+        for(Shard shard : shards) {
+            synchronized (shard) {
+                while(shard.writing.containsValue(tid)) {
+                    try {
+                        shard.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Lets the pages of a transaction be stolen again, once it is no longer
+     * live in the log or its rollback is over.
+     */
+    void allowSteals(TransactionId tid) {
+        aborting.remove(tid);
     }
 
 }
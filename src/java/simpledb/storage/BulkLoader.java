@@ -0,0 +1,319 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * BulkLoader appends the tuples of a delimited text file to a HeapFile,
+ * writing whole pages straight to the file instead of inserting each tuple
+ * through the BufferPool. It accepts the same input as HeapFileEncoder,
+ * one tuple per line with fields separated by a separator character.
+ * <p>
+ * The load is a pipeline. The calling thread cuts the input into chunks of
+ * whole lines; worker threads parse the lines of each chunk and pack them
+ * into pages in the table's page format; and the calling thread writes the
+ * pages of each chunk, in input order, after the last page of the file. Each
+ * chunk starts a new page, so the last page of a chunk may not be full.
+ * <p>
+ * The table must not be written by transactions during a load. Pages already
+ * in the file are left untouched, so the BufferPool can keep its copies of
+ * them. If the load fails part way, the pages written so far stay in the file.
+ *
+ * @see HeapFileEncoder
+ * @see simpledb.SimpleDb
+ */
+public class BulkLoader {
+
+    /** Default number of bytes of input in a chunk. */
+    public static final int DEFAULT_CHUNK_BYTES = 4 << 20;
+
+    private final HeapFile file;
+    private final TupleDesc td;
+    private final int threads;
+    private final int chunkBytes;
+
+    /**
+     * Creates a loader for the specified table, parsing on one thread per
+     * processor.
+     *
+     * @param file the table to append tuples to
+     */
+    public BulkLoader(HeapFile file) {
+        this(file, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * Creates a loader for the specified table.
+     *
+     * @param file the table to append tuples to
+     * @param threads the number of threads parsing input and building pages
+     * @param chunkBytes the number of bytes of input each thread works on at a time
+     */
+    public BulkLoader(HeapFile file, int threads, int chunkBytes) {
+        this.file = file;
+        this.td = file.getTupleDesc();
+        this.threads = Math.max(1, threads);
+        this.chunkBytes = Math.max(1, chunkBytes);
+    }
+
+    /**
+     * The pages built from a chunk of input, in the table's page format.
+     */
+    private static class Chunk {
+        final List<byte[]> pages = new ArrayList<>();
+        final List<Boolean> hasRoom = new ArrayList<>();
+        final List<int[]> ranges = new ArrayList<>();
+        long tuples = 0;
+    }
+
+    /**
+     * Appends the tuples in a text file to the table. Lines that do not hold
+     * a valid tuple are reported and skipped.
+     *
+     * @param inFile the file to read, one tuple per line
+     * @param fieldSeparator the character separating the fields on a line
+     * @return the number of tuples loaded
+     * @throws IOException if the input can't be read or the table can't be written
+     */
+    public long load(File inFile, char fieldSeparator) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        Deque<Future<Chunk>> pending = new ArrayDeque<>();
+        int nextPage = file.numPages();
+        long tuples = 0;
+        try (InputStream in = new FileInputStream(inFile)) {
+            byte[] carry = new byte[0];
+            while (true) {
+                byte[] buf = Arrays.copyOf(carry, carry.length + chunkBytes);
+                int len = carry.length + readFully(in, buf, carry.length);
+                if (len == carry.length) {
+                    // end of input; the last line need not end with a newline
+                    if (len > 0)
+                        pending.add(submit(workers, buf, len, fieldSeparator));
+                    break;
+                }
+                int end = len;
+                while (end > 0 && buf[end - 1] != '\n')
+                    end--;
+                if (end == 0) {
+                    // no whole line yet, read on
+                    carry = Arrays.copyOf(buf, len);
+                    continue;
+                }
+                carry = Arrays.copyOfRange(buf, end, len);
+                pending.add(submit(workers, buf, end, fieldSeparator));
+
+                // write finished chunks in order, keeping a bounded number in flight
+                while (pending.size() >= 2 * threads) {
+                    Chunk chunk = await(pending.poll());
+                    nextPage = write(chunk, nextPage);
+                    tuples += chunk.tuples;
+                }
+            }
+            while (!pending.isEmpty()) {
+                Chunk chunk = await(pending.poll());
+                nextPage = write(chunk, nextPage);
+                tuples += chunk.tuples;
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        return tuples;
+    }
+
+    private static int readFully(InputStream in, byte[] buf, int off) throws IOException {
+        int n = 0;
+        while (off + n < buf.length) {
+            int r = in.read(buf, off + n, buf.length - off - n);
+            if (r < 0)
+                break;
+            n += r;
+        }
+        return n;
+    }
+
+    private Future<Chunk> submit(ExecutorService workers, byte[] buf, int len, char fieldSeparator) {
+        return workers.submit(() -> parse(buf, len, fieldSeparator));
+    }
+
+    private static Chunk await(Future<Chunk> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("bulk load interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("bulk load failed", e.getCause());
+        }
+    }
+
+    private int write(Chunk chunk, int pageNo) throws IOException {
+        for (int i = 0; i < chunk.pages.size(); i++) {
+            file.writePageData(pageNo++, chunk.pages.get(i), chunk.hasRoom.get(i), chunk.ranges.get(i), true);
+        }
+        file.tuplesLoaded(chunk.tuples);
+        return pageNo;
+    }
+
+    /**
+     * Parses the lines of a chunk of input and packs them into pages.
+     */
+    private Chunk parse(byte[] buf, int len, char fieldSeparator) throws IOException {
+        Chunk chunk = new Chunk();
+        PageBuilder pages = td.isFixedLength() ? new RowPageBuilder(chunk) : new SlottedPageBuilder(chunk);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(record);
+        String text = new String(buf, 0, len);
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0)
+                end = text.length();
+            String line = text.substring(start, end);
+            start = end + 1;
+            if (line.endsWith("\r"))
+                line = line.substring(0, line.length() - 1);
+            if (line.isEmpty())
+                continue;
+            record.reset();
+            Tuple t = encode(line, fieldSeparator, dos);
+            if (t != null) {
+                dos.flush();
+                pages.add(record.toByteArray(), t);
+                chunk.tuples++;
+            } else {
+                System.out.println("BAD LINE : " + line);
+            }
+        }
+        pages.finish();
+        return chunk;
+    }
+
+    /**
+     * Parses and serializes the tuple on a line of input.
+     *
+     * @return the tuple, or null if the line does not hold a valid tuple
+     */
+    private Tuple encode(String line, char fieldSeparator, DataOutputStream dos) throws IOException {
+        String[] values = line.split(java.util.regex.Pattern.quote(String.valueOf(fieldSeparator)), -1);
+        if (values.length != td.numFields())
+            return null;
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < values.length; i++) {
+            String s = values[i].trim();
+            Type type = td.getFieldType(i);
+            Field f;
+            if (type == Type.INT_TYPE) {
+                try {
+                    f = new IntField(Integer.parseInt(s));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            } else {
+                f = new StringField(s, Type.STRING_LEN, type);
+            }
+            f.serialize(dos);
+            t.setField(i, f);
+        }
+        return t;
+    }
+
+    /**
+     * Packs serialized tuples into pages, adding each full page to a chunk
+     * along with the zone map ranges of its tuples.
+     */
+    private interface PageBuilder {
+        void add(byte[] record, Tuple t);
+
+        /** Adds the last page, if it holds any tuples. */
+        void finish();
+    }
+
+    /**
+     * Builds pages for tables of fixed-length tuples, in the HeapPage format
+     * rearranged into the table's page format.
+     */
+    private class RowPageBuilder implements PageBuilder {
+        private final Chunk chunk;
+        private final int pageSize = file.getPageSize();
+        private final int tupleSize = td.getSize();
+        private final int numSlots = (pageSize * 8) / (tupleSize * 8 + 1);
+        private final int headerSize = (numSlots + 7) / 8;
+        private byte[] page = new byte[pageSize];
+        private final List<Tuple> tuples = new ArrayList<>();
+        private int used = 0;
+
+        RowPageBuilder(Chunk chunk) {
+            this.chunk = chunk;
+        }
+
+        public void add(byte[] record, Tuple t) {
+            System.arraycopy(record, 0, page, headerSize + used * tupleSize, tupleSize);
+            page[used >>> 3] |= 1 << (used & 7);
+            tuples.add(t);
+            if (++used == numSlots)
+                flush();
+        }
+
+        public void finish() {
+            if (used > 0)
+                flush();
+        }
+
+        private void flush() {
+            chunk.pages.add(file.fromHeapPageData(page));
+            chunk.hasRoom.add(used < numSlots);
+            chunk.ranges.add(file.pageRanges(tuples.iterator()));
+            tuples.clear();
+            page = new byte[pageSize];
+            used = 0;
+        }
+    }
+
+    /**
+     * Builds SlottedHeapPages, for tables with variable-length fields.
+     */
+    private class SlottedPageBuilder implements PageBuilder {
+        private final Chunk chunk;
+        private final int pageSize = file.getPageSize();
+        private final List<byte[]> records = new ArrayList<>();
+        private final List<Tuple> tuples = new ArrayList<>();
+        private int recordBytes = 0;
+
+        SlottedPageBuilder(Chunk chunk) {
+            this.chunk = chunk;
+        }
+
+        public void add(byte[] record, Tuple t) {
+            if (!SlottedHeapPage.fits(records.size() + 1, recordBytes + record.length, pageSize))
+                flush();
+            records.add(record);
+            tuples.add(t);
+            recordBytes += record.length;
+        }
+
+        public void finish() {
+            if (!records.isEmpty())
+                flush();
+        }
+
+        private void flush() {
+            chunk.pages.add(SlottedHeapPage.createPageData(records, pageSize));
+            // whether a tuple of the largest size still fits
+            chunk.hasRoom.add(SlottedHeapPage.fits(records.size() + 1, recordBytes + td.getSize(), pageSize));
+            chunk.ranges.add(file.pageRanges(tuples.iterator()));
+            tuples.clear();
+            records.clear();
+            recordBytes = 0;
+        }
+    }
+}
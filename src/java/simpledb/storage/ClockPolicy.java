@@ -0,0 +1,96 @@
+package simpledb.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * ClockPolicy approximates LRU with a reference bit per page. The pages sit
+ * on a circular list with a hand; a reference sets the page's bit, and to
+ * find a victim the hand sweeps the list, clearing bits, until it reaches a
+ * page whose bit is clear. A reference only sets a bit, so unlike LRU it
+ * does not reorder a list on every hit.
+ * <p>
+ * A page enters the list just behind the hand, with its bit clear, so a
+ * page read ahead and never asked for is among the first to go.
+ *
+ * @see ReplacementPolicy.Kind#CLOCK
+ * @Threadsafe
+ */
+class ClockPolicy implements ReplacementPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        boolean referenced;
+        Frame prev, next;
+
+        Frame(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private final Map<PageId,Frame> frames = new HashMap<>();
+    /** the frame the sweep looks at next, or null if there are none */
+    private Frame hand;
+
+    @Override
+    public synchronized void admit(PageId pid) {
+        if (frames.containsKey(pid))
+            return;
+        Frame f = new Frame(pid);
+        frames.put(pid, f);
+        if (hand == null) {
+            f.prev = f.next = f;
+            hand = f;
+        } else {
+            f.next = hand;
+            f.prev = hand.prev;
+            hand.prev.next = f;
+            hand.prev = f;
+        }
+    }
+
+    @Override
+    public synchronized void access(PageId pid) {
+        Frame f = frames.get(pid);
+        if (f != null)
+            f.referenced = true;
+    }
+
+    @Override
+    public synchronized void remove(PageId pid) {
+        Frame f = frames.remove(pid);
+        if (f != null)
+            unlink(f);
+    }
+
+    private void unlink(Frame f) {
+        if (f.next == f) {
+            hand = null;
+            return;
+        }
+        f.prev.next = f.next;
+        f.next.prev = f.prev;
+        if (hand == f)
+            hand = f.next;
+    }
+
+    @Override
+    public synchronized PageId victim(Predicate<PageId> evictable) {
+        // two turns clear every bit, so a third finds no victim either
+        for (int i = 2 * frames.size(); i > 0; i--) {
+            Frame f = hand;
+            hand = f.next;
+            if (!evictable.test(f.pid))
+                continue;
+            if (f.referenced) {
+                f.referenced = false;
+            } else {
+                frames.remove(f.pid);
+                unlink(f);
+                return f.pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,226 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+
+/**
+ * CompressedPageStore keeps the pages of a DbFile compressed with a
+ * {@link PageCodec}. Compressed pages vary in size, so they are not found by
+ * multiplying the page number by the page size: a page map in a sidecar file
+ * (the table's file name with ".pmap" appended) records where each page is
+ * stored in the table's file, and how many bytes it takes.
+ * <p>
+ * Each page is given a region of the file rounded up to a multiple of
+ * {@link #ALIGNMENT} bytes. A rewritten page that still fits in its region is
+ * written in place; one that has grown past it is moved to the end of the
+ * file, and its old region is left unused. A page that does not compress is
+ * stored as is, which the map records by giving it the page's full length.
+ * <p>
+ * The page map holds the number of pages as an int, followed by one entry
+ * per page: the offset of its region as a long, then the number of bytes
+ * stored and the size of the region as ints. Entries are written after the
+ * page they describe.
+ *
+ * @see HeapFile#HeapFile(File, TupleDesc, boolean, PageCodec)
+ * @Threadsafe
+ */
+public class CompressedPageStore {
+
+    private static final int HEADER_SIZE = 4;
+    private static final int ENTRY_SIZE = 16;
+    /** regions are allocated in multiples of this many bytes, leaving pages room to grow */
+    public static final int ALIGNMENT = 64;
+
+    private final File file;
+    private final PageCodec codec;
+    private final DbFileChannel data;
+    private final DbFileChannel map;
+
+    private long[] offsets = new long[0];
+    private int[] lengths = new int[0];
+    private int[] capacities = new int[0];
+    private int numPages;
+    /** end of the last allocated region; new regions start here */
+    private long end;
+    private boolean loaded = false;
+
+    /**
+     * Creates a store for the pages in the specified file. Neither the file
+     * nor its page map is opened until first use.
+     *
+     * @param f the file holding the compressed pages
+     * @param codec the codec the pages are compressed with
+     */
+    public CompressedPageStore(File f, PageCodec codec) {
+        this.file = f;
+        this.codec = codec;
+        this.data = new DbFileChannel(f);
+        this.map = new DbFileChannel(new File(f.getPath() + ".pmap"));
+    }
+
+    /**
+     * Deletes the page map of a table file that is being rewritten from
+     * scratch.
+     *
+     * @param f the file holding the compressed pages
+     */
+    public static void discard(File f) {
+        new File(f.getPath() + ".pmap").delete();
+    }
+
+    /**
+     * Reads the page map on first use.
+     *
+     * @throws IOException if the map cannot be read, or is missing while
+     *         the file is not empty (so the file was not written by a store)
+     */
+    private void load() throws IOException {
+        if (loaded)
+            return;
+        byte[] head = new byte[HEADER_SIZE];
+        int read;
+        try {
+            read = map.read(head, 0);
+        } catch (NoSuchFileException e) {
+            // a store that has never been written has no map
+            read = 0;
+        }
+        if (read < HEADER_SIZE) {
+            if (file.length() > 0)
+                throw new IOException(file + " has no page map; it is not a compressed table");
+            loaded = true;
+            return;
+        }
+        int pages = ByteBuffer.wrap(head).getInt();
+        byte[] entries = new byte[pages * ENTRY_SIZE];
+        if (map.read(entries, HEADER_SIZE) < entries.length)
+            throw new IOException("page map of " + file + " is truncated");
+        ensureCapacity(pages);
+        ByteBuffer bb = ByteBuffer.wrap(entries);
+        for (int i = 0; i < pages; i++) {
+            offsets[i] = bb.getLong();
+            lengths[i] = bb.getInt();
+            capacities[i] = bb.getInt();
+            end = Math.max(end, offsets[i] + capacities[i]);
+        }
+        numPages = pages;
+        loaded = true;
+    }
+
+    private void ensureCapacity(int pages) {
+        if (pages <= offsets.length)
+            return;
+        int n = Math.max(pages, offsets.length * 2);
+        offsets = Arrays.copyOf(offsets, n);
+        lengths = Arrays.copyOf(lengths, n);
+        capacities = Arrays.copyOf(capacities, n);
+    }
+
+    /**
+     * @return the number of pages in the store.
+     */
+    public synchronized int numPages() {
+        try {
+            load();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return numPages;
+    }
+
+    /**
+     * Reads and decompresses a page. A page past the end of the store reads
+     * as all zeros.
+     *
+     * @param pageNo the page to read
+     * @param page the buffer to read the page into; its length is the page size
+     */
+    public void read(int pageNo, byte[] page) throws IOException {
+        long offset;
+        byte[] stored;
+        synchronized (this) {
+            load();
+            if (pageNo >= numPages) {
+                Arrays.fill(page, (byte) 0);
+                return;
+            }
+            offset = offsets[pageNo];
+            stored = new byte[lengths[pageNo]];
+        }
+        if (data.read(stored, offset) < stored.length)
+            throw new IOException("page " + pageNo + " of " + file + " is truncated");
+        if (stored.length == page.length)
+            System.arraycopy(stored, 0, page, 0, page.length);
+        else
+            codec.decompress(stored, page);
+    }
+
+    /**
+     * Compresses and writes a page, which is either an existing page or the
+     * page just past the end of the store.
+     *
+     * @param pageNo the page to write
+     * @param page the bytes of the page
+     * @throws IllegalArgumentException if pageNo is past the end of the store
+     */
+    public void write(int pageNo, byte[] page) throws IOException {
+        byte[] stored = codec.compress(page);
+        if (stored.length >= page.length)
+            stored = page;
+        synchronized (this) {
+            load();
+            if (pageNo > numPages)
+                throw new IllegalArgumentException("page " + pageNo + " is past the end of " + file);
+            if (pageNo == numPages || stored.length > capacities[pageNo]) {
+                // allocate a new region at the end of the file
+                int capacity = (stored.length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+                ensureCapacity(pageNo + 1);
+                offsets[pageNo] = end;
+                capacities[pageNo] = capacity;
+                end += capacity;
+            }
+            lengths[pageNo] = stored.length;
+            data.write(stored, offsets[pageNo]);
+
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+            entry.putLong(offsets[pageNo]).putInt(lengths[pageNo]).putInt(capacities[pageNo]);
+            map.write(entry.array(), HEADER_SIZE + (long) pageNo * ENTRY_SIZE);
+            if (pageNo == numPages) {
+                numPages++;
+                map.write(ByteBuffer.allocate(HEADER_SIZE).putInt(numPages).array(), 0);
+            }
+        }
+    }
+
+    /**
+     * Cuts the pages at and after the specified page off the end of the
+     * store, and gives back the space of the regions past the last region
+     * still in use. Regions of dropped pages that lie between regions in
+     * use stay allocated.
+     *
+     * @param pages the number of pages left in the store
+     */
+    public synchronized void truncate(int pages) throws IOException {
+        load();
+        if (pages >= numPages)
+            return;
+        numPages = pages;
+        map.write(ByteBuffer.allocate(HEADER_SIZE).putInt(numPages).array(), 0);
+        map.truncate(HEADER_SIZE + (long) numPages * ENTRY_SIZE);
+        end = 0;
+        for (int i = 0; i < numPages; i++)
+            end = Math.max(end, offsets[i] + capacities[i]);
+        data.truncate(end);
+    }
+
+    /**
+     * Closes the file and its page map; they are reopened on demand.
+     */
+    public void close() {
+        data.close();
+        map.close();
+    }
+}
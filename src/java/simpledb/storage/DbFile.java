@@ -8,6 +8,7 @@ import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -33,6 +34,60 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Reads the specified pages in the background, for callers that want
+     * many pages and can wait on each as it arrives, such as read-ahead.
+     * Failures, such as a page that does not exist, complete the page's
+     * future exceptionally. The default reads each page with readPage on
+     * the {@link IoEngine}'s threads.
+     *
+     * @param ids the pages to read
+     * @return a future of each page, in the order of ids
+     */
+    default List<CompletableFuture<Page>> readPagesAsync(List<PageId> ids) {
+        List<CompletableFuture<Page>> pages = new ArrayList<>(ids.size());
+        for (PageId id : ids)
+            pages.add(IoEngine.getDefault().call(() -> readPage(id)));
+        return pages;
+    }
+
+    /**
+     * Pushes the specified pages to disk, returning once all of them are
+     * written. The default writes them one by one with writePage.
+     *
+     * @param pages the pages to write
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages)
+            writePage(p);
+    }
+
+    /**
+     * Writes an image of a page installed from the log, by rollback or
+     * recovery, over the page on disk. An image may hold tuples the file has
+     * not seen inserted, so files that keep facts about their pages learn
+     * them again from the image. The default writes it with writePage.
+     *
+     * @param page the image of the page
+     * @throws IOException if the write fails
+     */
+    default void writeImage(Page page) throws IOException {
+        writePage(page);
+    }
+
+    /**
+     * Tells this file that a transaction has committed or aborted, after
+     * the BufferPool has flushed or discarded the transaction's pages and
+     * before it releases the transaction's locks. The default does nothing.
+     *
+     * @param tid the transaction
+     * @param commit whether the transaction committed
+     * @throws IOException if the file fails to record the outcome
+     */
+    default void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -93,4 +148,23 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Returns the size of the pages of this DbFile, in bytes. Each table
+     * can choose the page size that suits it; the BufferPool budgets its
+     * memory in bytes, so pages of different sizes share it.
+     *
+     * @return the page size of this DbFile, by default
+     *         {@link BufferPool#getPageSize()}
+     */
+    default int getPageSize() {
+        return BufferPool.getPageSize();
+    }
+
+    /**
+     * Releases any file handles held open by this DbFile. Called by the
+     * {@link Catalog} when the table is replaced or the catalog is cleared.
+     * A DbFile should still be usable afterwards, reopening handles on demand.
+     */
+    void close();
 }
@@ -0,0 +1,174 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * DbFileChannel is a long-lived handle on the file backing a DbFile. Pages are
+ * read and written with positional I/O on a single FileChannel, so a buffer
+ * pool miss does not pay for opening and closing the file, and concurrent
+ * readers never contend on a shared file pointer.
+ * <p>
+ * The channel is opened lazily on first use, and reopened if it has been
+ * closed since (by {@link #close} when the owning table leaves the Catalog,
+ * or by the JVM when a thread blocked in I/O is interrupted). It is opened
+ * for reading only, so that a missing file fails to read rather than being
+ * created empty, and read-only files can be scanned; the first write or
+ * truncation reopens it for writing, creating the file if it is missing.
+ *
+ * @see simpledb.common.Catalog
+ * @Threadsafe
+ */
+public class DbFileChannel {
+
+    private final File file;
+    private volatile FileChannel channel;
+    /** whether the file has been opened for writing; once set, it stays set */
+    private volatile boolean writable;
+    /** the read-only channel replaced by a writable one, left open for reads still using it */
+    private FileChannel retired;
+
+    /**
+     * Creates a handle on the specified file. The file is not opened until
+     * the first read or write.
+     *
+     * @param f the file backing a DbFile
+     */
+    public DbFileChannel(File f) {
+        this.file = f;
+    }
+
+    /**
+     * @param write whether the channel must allow writes
+     * @return the open channel, (re)opening the underlying file if needed.
+     */
+    private FileChannel channel(boolean write) throws IOException {
+        // read writable first: a channel published before it was set is never writable
+        boolean w = writable;
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen() || (write && !w)) {
+            synchronized (this) {
+                ch = channel;
+                boolean closed = ch == null || !ch.isOpen();
+                if (closed || (write && !writable)) {
+                    FileChannel opened = open(write || writable, write);
+                    if (!closed)
+                        retired = ch;
+                    channel = ch = opened;
+                    if (write)
+                        writable = true;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Opens the file, for reading and possibly writing.
+     *
+     * @param forWrite whether to open the file for writing too
+     * @param create whether to create the file if it does not exist
+     */
+    private FileChannel open(boolean forWrite, boolean create) throws IOException {
+        if (create)
+            return FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        if (forWrite)
+            return FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Reads bytes starting at the given file offset until buf is full or the
+     * end of the file is reached. Bytes past the end of the file are left
+     * untouched.
+     *
+     * @param buf the buffer to fill
+     * @param position the file offset to read from
+     * @return the number of bytes read
+     * @throws java.nio.file.NoSuchFileException if the file does not exist
+     */
+    public int read(byte[] buf, long position) throws IOException {
+        FileChannel ch = channel(false);
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        while (bb.hasRemaining()) {
+            if (ch.read(bb, position + bb.position()) < 0)
+                break;
+        }
+        return bb.position();
+    }
+
+    /**
+     * Writes all of data at the given file offset, extending the file if
+     * needed, and creating it if it does not exist.
+     *
+     * @param data the bytes to write
+     * @param position the file offset to write at
+     */
+    public void write(byte[] data, long position) throws IOException {
+        FileChannel ch = channel(true);
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        while (bb.hasRemaining()) {
+            ch.write(bb, position + bb.position());
+        }
+    }
+
+    /**
+     * Maps the first size bytes of the file into memory, read-only. The
+     * mapping stays valid after this channel is closed.
+     *
+     * @param size the number of bytes to map, at most Integer.MAX_VALUE
+     * @return the mapped region
+     */
+    public MappedByteBuffer map(long size) throws IOException {
+        return channel(false).map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    /**
+     * @return the current size of the file in bytes.
+     */
+    public long size() throws IOException {
+        return channel(false).size();
+    }
+
+    /**
+     * Cuts the file down to the given size; a file no larger is left as is.
+     *
+     * @param size the new size of the file in bytes
+     */
+    public void truncate(long size) throws IOException {
+        channel(true).truncate(size);
+    }
+
+    /**
+     * Forces any written bytes to the storage device. A file never written
+     * through this handle is left alone.
+     */
+    public void force() throws IOException {
+        if (!writable)
+            return;
+        channel(true).force(false);
+    }
+
+    /**
+     * Closes the underlying file. A later read or write reopens it, for
+     * writing if it has been written before.
+     */
+    public synchronized void close() {
+        for (FileChannel ch : new FileChannel[] { channel, retired }) {
+            if (ch != null) {
+                try {
+                    ch.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        channel = null;
+        retired = null;
+    }
+}
@@ -30,6 +30,26 @@ public interface DbFileIterator{
     Tuple next()
         throws DbException, TransactionAbortedException, NoSuchElementException;
 
+    /**
+     * Gets up to max of the next tuples at once, saving the per-tuple calls
+     * to hasNext and next. Batches pick up where next left off, and the
+     * other way round.
+     * <p>
+     * The returned batch may be reused by the next call to nextBatch, so
+     * the caller must be done with it by then. This default implementation
+     * fills a new batch with hasNext and next.
+     *
+     * @param max the maximum number of tuples to return, at least 1
+     * @return the next tuples, or an empty batch if there are no more tuples
+     */
+    default TupleBatch nextBatch(int max)
+        throws DbException, TransactionAbortedException {
+        TupleBatch batch = new TupleBatch(max);
+        while (batch.size() < max && hasNext())
+            batch.add(next());
+        return batch;
+    }
+
     /**
      * Resets the iterator to the start.
      * @throws DbException When rewind is unsupported.
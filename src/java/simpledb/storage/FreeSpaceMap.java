@@ -0,0 +1,162 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records which pages of a HeapFile have at least one empty
+ * slot, so that inserts can go straight to a page with room instead of
+ * scanning, and locking, every page from page 0.
+ * <p>
+ * The map is a hint. It follows the pages in the buffer pool as tuples are
+ * inserted and deleted, but an aborted transaction can leave it stale, so
+ * HeapFile re-checks a page once it holds the page's lock. Pages the map
+ * knows nothing about, such as those written by HeapFileEncoder, are assumed
+ * to have room until visited.
+ * <p>
+ * The map is persisted in a sidecar file next to the table (the table's file
+ * name with ".fsm" appended) as the table's pages are written. The sidecar
+ * holds the number of pages it covers as an int, followed by one bit per
+ * page, set if the page had room when it was last written.
+ *
+ * @see HeapFile#insertTuple
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+
+    private static final int HEADER_SIZE = 4;
+
+    private final DbFileChannel sidecar;
+    /** pages with room, among the first known pages; later pages are assumed to have room */
+    private final BitSet hasRoom = new BitSet();
+    /** number of pages the map has information about */
+    private int known;
+    /** bits as recorded in the sidecar, which can lag behind those in memory */
+    private final BitSet persistedRoom = new BitSet();
+    /** number of pages covered by the sidecar on disk */
+    private int persisted;
+    private boolean loaded = false;
+
+    /**
+     * @param f the file backing the HeapFile this map describes
+     */
+    FreeSpaceMap(File f) {
+        this.sidecar = new DbFileChannel(new File(f.getPath() + ".fsm"));
+    }
+
+    /**
+     * Deletes the sidecar of a table file that is being rewritten from
+     * scratch, so that the new pages are not judged by the old file's map.
+     *
+     * @param f the file backing a HeapFile
+     */
+    static void discard(File f) {
+        new File(f.getPath() + ".fsm").delete();
+    }
+
+    /**
+     * Reads the sidecar on first use. The map is only a hint, so a sidecar
+     * that is missing or unreadable leaves every page unknown.
+     */
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        try {
+            byte[] head = new byte[HEADER_SIZE];
+            if (sidecar.read(head, 0) < HEADER_SIZE)
+                return;
+            int pages = ByteBuffer.wrap(head).getInt();
+            byte[] bits = new byte[(Math.max(0, pages) + 7) / 8];
+            int read = sidecar.read(bits, HEADER_SIZE);
+            // a truncated sidecar only covers the pages it has bits for
+            known = Math.max(0, Math.min(pages, read * 8));
+            persisted = known;
+            hasRoom.or(BitSet.valueOf(bits));
+            hasRoom.clear(known, bits.length * 8);
+            persistedRoom.or(hasRoom);
+        } catch (NoSuchFileException e) {
+            // a table that has never been written has no sidecar
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the first page at or after from that may have an empty slot.
+     *
+     * @param from the first page number to consider
+     * @param numPages the number of pages in the file
+     * @return a page number, or -1 if no page in [from, numPages) has room
+     */
+    synchronized int pageWithRoom(int from, int numPages) {
+        load();
+        int pageNo = hasRoom.nextSetBit(from);
+        if (pageNo == -1 || pageNo >= known)
+            pageNo = Math.max(from, known);
+        return pageNo < numPages ? pageNo : -1;
+    }
+
+    /**
+     * Records whether a page has room, without persisting it.
+     */
+    synchronized void update(int pageNo, boolean room) {
+        load();
+        if (pageNo > known)
+            hasRoom.set(known, pageNo); // pages skipped over are still unknown
+        hasRoom.set(pageNo, room);
+        known = Math.max(known, pageNo + 1);
+    }
+
+    /**
+     * Records whether a page that is being written to disk has room, and
+     * persists its bit in the sidecar file, unless the sidecar already has
+     * it. Bits of pages between the end of the sidecar and the page are
+     * persisted with it.
+     */
+    synchronized void persist(int pageNo, boolean room) throws IOException {
+        update(pageNo, room);
+        if (pageNo < persisted && persistedRoom.get(pageNo) == room)
+            return;
+        int first = Math.min(persisted, pageNo) & ~7;
+        byte[] bytes = new byte[pageNo / 8 + 1 - first / 8];
+        for (int p = first; p < first + bytes.length * 8; p++) {
+            if (hasRoom.get(p))
+                bytes[(p - first) / 8] |= 1 << (p % 8);
+            persistedRoom.set(p, hasRoom.get(p));
+        }
+        sidecar.write(bytes, HEADER_SIZE + first / 8);
+        if (persisted < known) {
+            persisted = known;
+            sidecar.write(ByteBuffer.allocate(HEADER_SIZE).putInt(persisted).array(), 0);
+        }
+    }
+
+    /**
+     * Forgets the pages at and after the specified page, which have been cut
+     * off the end of the file, and cuts them off the sidecar.
+     *
+     * @param numPages the number of pages left in the file
+     */
+    synchronized void truncate(int numPages) throws IOException {
+        load();
+        hasRoom.clear(numPages, Math.max(numPages, known));
+        known = Math.min(known, numPages);
+        if (persisted > known) {
+            persistedRoom.clear(known, persisted);
+            persisted = known;
+            sidecar.write(ByteBuffer.allocate(HEADER_SIZE).putInt(persisted).array(), 0);
+            sidecar.truncate(HEADER_SIZE + (persisted + 7) / 8);
+        }
+    }
+
+    /**
+     * Closes the sidecar file; it is reopened on demand.
+     */
+    void close() {
+        sidecar.close();
+    }
+}
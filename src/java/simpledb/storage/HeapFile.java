@@ -3,33 +3,73 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.index.BTreeLeafPage;
 import simpledb.index.BTreePageId;
+import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import sun.security.krb5.internal.PAData;
 
 import javax.xml.crypto.Data;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. Tables with variable-length fields are stored on
+ * SlottedHeapPages instead, whose format is described in the SlottedHeapPage
+ * constructor. A HeapFile opened with a PageCodec keeps its pages compressed
+ * in a CompressedPageStore.
  * 
  * @see HeapPage#HeapPage
+ * @see SlottedHeapPage#SlottedHeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
+    /** Default number of pages a HeapFile grows by when it runs out of room. */
+    public static final int DEFAULT_EXTENT_PAGES = 16;
+
+    private static volatile int extentPages = DEFAULT_EXTENT_PAGES;
+
     /** backing store binary File */
     private File file;
     /** each table has one HeapFile, TupleDesc determines size of HeapPage*/
     private TupleDesc schema;
     /** unique id */
     private int tableid;
+    /** long-lived positional I/O handle on file, shared by all page reads and writes */
+    private final DbFileChannel channel;
+    /** whether readPage decodes pages from a memory mapping of file */
+    private final boolean memoryMapped;
+    /** read-only mapping of file, replaced when the file grows past it; guarded by this */
+    private MappedByteBuffer mapping;
+    /** which pages have room for another tuple, consulted by insertTuple */
+    private final FreeSpaceMap freeSpace;
+    /** whether tuples vary in size and are stored on SlottedHeapPages rather than HeapPages */
+    private final boolean slotted;
+    /** where pages are kept if the table is compressed, or null if they are stored as is */
+    private final CompressedPageStore compressed;
+    /** ranges of the INT fields on each page, consulted by scans with a predicate; null if there are none */
+    private final ZoneMap zones;
+    /** size of the pages of this file, in bytes */
+    private final int pageSize;
+    /** held while the file grows by a page or is truncated */
+    private final Object growLock = new Object();
+    /** how many of the pages of file are in use, the rest being preallocated, and how many tuples they hold */
+    private final HeapFileHeader header;
+    /** tuples inserted less tuples deleted by each transaction that has yet to complete, if not zero */
+    private final Map<TransactionId,Long> pendingTuples = new ConcurrentHashMap<>();
+    /** reads started by readPagesAsync whose bytes readPage has yet to take, by page number */
+    private final Map<Integer,CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -39,10 +79,103 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
-        // some code goes here
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally reading
+     * its pages through a memory mapping. In memory-mapped mode readPage
+     * decodes each HeapPage straight from the mapped region instead of
+     * copying it out with a read call, and the OS page cache acts as a second
+     * level below the BufferPool. This suits read-mostly tables; writes still
+     * go through the file channel and are seen by the mapping.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            whether to read pages through a memory mapping
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        this(f, td, memoryMapped, null);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally keeping
+     * its pages compressed with the given codec. A compressed table reads
+     * fewer bytes from disk for each page, at the cost of compressing pages
+     * as they are written and decompressing them as they are read; the
+     * BufferPool holds uncompressed pages either way. The pages of a
+     * compressed table are located through a page map (see
+     * {@link CompressedPageStore}), so its file cannot be opened without
+     * the codec, and a file of uncompressed pages cannot be opened with one
+     * (see {@link HeapFileEncoder#convertToCompressed}). Compressed pages are
+     * always read through the file channel, so memoryMapped has no effect
+     * when codec is given.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            whether to read pages through a memory mapping
+     * @param codec
+     *            the codec to compress pages with, or null to store them as is
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped, PageCodec codec) {
+        this(f, td, memoryMapped, codec, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * pageSize bytes rather than {@link BufferPool#getPageSize()}. Wide
+     * tables scanned in bulk fit more tuples on larger pages and read the
+     * file in fewer, larger requests; tables updated a few tuples at a time
+     * write less with smaller pages. The file does not record its page
+     * size, so it must always be opened with the size it was written with
+     * (see {@link simpledb.common.Catalog#loadSchema}).
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            whether to read pages through a memory mapping
+     * @param codec
+     *            the codec to compress pages with, or null to store them as is
+     * @param pageSize
+     *            the size of the pages of this file, in bytes
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped, PageCodec codec, int pageSize) {
+        if(pageSize <= 0) {
+            throw new IllegalArgumentException("page size must be positive: " + pageSize);
+        }
         this.file = f;
         this.schema = td;
         this.tableid = f.getAbsolutePath().hashCode();
+        this.channel = new DbFileChannel(f);
+        this.memoryMapped = memoryMapped;
+        this.freeSpace = new FreeSpaceMap(f);
+        this.slotted = !td.isFixedLength();
+        this.compressed = codec == null ? null : new CompressedPageStore(f, codec);
+        ZoneMap zoneMap = new ZoneMap(f, td);
+        this.zones = zoneMap.isEmpty() ? null : zoneMap;
+        this.pageSize = pageSize;
+        this.header = new HeapFileHeader(f, td, pageSize);
+    }
+
+    /**
+     * Sets the number of pages a HeapFile grows by when an insert finds no
+     * page with room. The pages are written to disk as zeroes in one write,
+     * which reads as empty pages, and inserts then use them one by one
+     * without growing the file again. Compressed files grow a page at a
+     * time.
+     *
+     * @param pages the number of pages of an extent, at least 1
+     */
+    public static void setExtentPages(int pages) {
+        if(pages < 1) {
+            throw new IllegalArgumentException("an extent holds at least one page: " + pages);
+        }
+        HeapFile.extentPages = pages;
     }
 
     /**
@@ -55,6 +188,20 @@ public class HeapFile implements DbFile {
         return file;
     }
 
+    /**
+     * @return whether pages of this HeapFile are read through a memory mapping.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * @return whether pages of this HeapFile are stored compressed.
+     */
+    public boolean isCompressed() {
+        return compressed != null;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -82,8 +229,18 @@ public class HeapFile implements DbFile {
     }
 
     // see DbFile.java for javadocs
-    public Page readPage(PageId pid) {
-        // some code goes here
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Checks that a page belongs to this file and is at most one past its
+     * last page.
+     *
+     * @return the offset of the page in the file
+     * @throws IllegalArgumentException if it is not
+     */
+    private long checkPage(PageId pid) {
         if(!(pid instanceof HeapPageId)) {
             throw new IllegalArgumentException();
         }
@@ -92,37 +249,188 @@ public class HeapFile implements DbFile {
         }
         // calculate offset of file
         int pageNo = pid.getPageNumber();
-        long byteOffset = pageNo * BufferPool.getPageSize();
+        long byteOffset = (long) pageNo * pageSize;
         // if offset overflow
-        if(byteOffset > file.length()) {
+        if(pageNo > pagesInUse()) {
             throw new IllegalArgumentException();
-//            return null;
         }
-        // random access by offset
-        RandomAccessFile ra = null;
-        byte[] pageData = HeapPage.createEmptyPageData();
+        return byteOffset;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        // some code goes here
+        long byteOffset = checkPage(pid);
+        int pageNo = pid.getPageNumber();
+        HeapPageId hpid = (HeapPageId)pid;
+        HeapFilePage page = null;
         try {
-            ra = new RandomAccessFile(file,"r");
-            ra.seek(byteOffset);
-            ra.read(pageData);
+            ByteBuffer mapped = memoryMapped && compressed == null ? mappedPage(byteOffset) : null;
+            if(compressed != null) {
+                // look the page up in the page map and decompress it
+                byte[] pageData = HeapPage.createEmptyPageData(pageSize);
+                compressed.read(pageNo, pageData);
+                page = createPage(hpid,pageData);
+            } else if(mapped != null) {
+                // one bulk copy out of the mapped region
+                byte[] pageData = new byte[mapped.remaining()];
+                mapped.get(pageData);
+                page = createPage(hpid,pageData);
+            } else {
+                byte[] pageData = takeInFlight(pageNo);
+                if(pageData == null) {
+                    // positional read on the shared channel, short reads past EOF stay zero
+                    pageData = HeapPage.createEmptyPageData(pageSize);
+                    channel.read(pageData, byteOffset);
+                }
+                page = createPage(hpid,pageData);
+            }
+            pageRead(page);
         } catch (IOException e) {
-            e.printStackTrace();
-        }finally {
+            throw new RuntimeException(e);
+        }
+        return page;
+    }
+
+    /**
+     * Takes the bytes of a page from a read started by readPagesAsync,
+     * waiting for the read to finish.
+     *
+     * @return the bytes, or null if no read of the page is in flight or it failed
+     */
+    private byte[] takeInFlight(int pageNo) {
+        CompletableFuture<byte[]> read = inFlight.remove(pageNo);
+        if(read == null) {
+            return null;
+        }
+        try {
+            return read.join();
+        } catch (CompletionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Updates the maps of this file from a page just read from disk.
+     */
+    private void pageRead(HeapFilePage page) throws IOException {
+        int pageNo = page.getId().getPageNumber();
+        // a page read from disk is an exact answer for the free space map
+        freeSpace.update(pageNo, page.getNumEmptySlots() > 0);
+        // and for the zone map, which learns the ranges of pages it did not know
+        if(zones != null && !zones.isKnown(pageNo)) {
+            // through reused tuples, which the page does not keep decoded
+            zones.update(pageNo, zones.rangesOf(page.iterator(new TupleRing(schema))));
+        }
+    }
+
+    /**
+     * Reads the specified pages in the background. The bytes of runs of
+     * adjacent pages are read with one request on the {@link IoEngine},
+     * and each page is then built by readPage, which takes its bytes from
+     * that read rather than reading them again. Pages of compressed or
+     * memory-mapped files are read one by one with readPage.
+     */
+    public List<CompletableFuture<Page>> readPagesAsync(List<PageId> pids) {
+        if(compressed != null || memoryMapped) {
+            return DbFile.super.readPagesAsync(pids);
+        }
+        List<PageId> valid = new ArrayList<>(pids.size());
+        long[] positions = new long[pids.size()];
+        for(PageId pid : pids) {
             try {
-                ra.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+                positions[valid.size()] = checkPage(pid);
+                valid.add(pid);
+            } catch (IllegalArgumentException e) {
+                // readPage reports it below
             }
         }
-        // construct HeapPage
-        HeapPageId hpid = (HeapPageId)pid;
-        HeapPage page = null;
-        try {
-            page = new HeapPage(hpid,pageData);
-        } catch (IOException e) {
-            e.printStackTrace();
+        List<CompletableFuture<byte[]>> reads = IoEngine.getDefault().read(channel,
+                Arrays.copyOf(positions, valid.size()), pageSize);
+        Map<PageId,CompletableFuture<byte[]>> readOf = new HashMap<>();
+        for(int i = 0; i < valid.size(); i++) {
+            CompletableFuture<byte[]> earlier = inFlight.putIfAbsent(valid.get(i).getPageNumber(), reads.get(i));
+            // a page already being read is built once that read finishes, never blocking an I/O thread
+            readOf.put(valid.get(i), earlier == null ? reads.get(i) : earlier);
         }
-        return page;
+        List<CompletableFuture<Page>> pages = new ArrayList<>(pids.size());
+        for(PageId pid : pids) {
+            CompletableFuture<byte[]> read = readOf.get(pid);
+            if(read == null) {
+                // readPage reports why the page can't be read
+                pages.add(IoEngine.getDefault().call(() -> readPage(pid)));
+            } else {
+                // a failed read leaves readPage to read the page itself; the page is
+                // built on an I/O thread even if the read has already finished
+                pages.add(read.handleAsync((data, e) -> readPage(pid), IoEngine.getDefault()));
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Creates a page of this file from its bytes, in the page format that
+     * suits the table's tuples.
+     */
+    HeapFilePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return slotted ? new SlottedHeapPage(pid,data) : new HeapPage(pid,data);
+    }
+
+    /**
+     * Rearranges the bytes of a HeapPage holding tuples of this file into
+     * this file's page format, for pages built outside the BufferPool.
+     * Only called for tables of fixed-length tuples.
+     *
+     * @see BulkLoader
+     */
+    byte[] fromHeapPageData(byte[] data) {
+        return data;
+    }
+
+    /**
+     * Computes the ranges of the INT fields of a page of this file for the
+     * zone map, for pages built outside the BufferPool.
+     *
+     * @param tuples the tuples on the page
+     * @return the ranges, or null if the table has no INT fields
+     * @see BulkLoader
+     */
+    int[] pageRanges(Iterator<Tuple> tuples) {
+        return zones == null ? null : zones.rangesOf(tuples);
+    }
+
+    /**
+     * Returns an iterator over the tuples of a page of this file for a scan
+     * that only reads the specified fields. Page formats that store fields
+     * apart can use the hint to decode just those fields.
+     *
+     * @param fields the fields the scan reads, or null if it may read any
+     * @param ring the ring to refill tuples from in reusable-row mode, or null
+     */
+    Iterator<Tuple> pageIterator(HeapFilePage page, int[] fields, TupleRing ring) {
+        return ring == null ? page.iterator() : page.iterator(ring);
+    }
+
+    /**
+     * Returns a view of the page starting at byteOffset in the memory mapping
+     * of this file, remapping the file if it has grown since it was mapped.
+     *
+     * @return the page's bytes, or null if the page is not entirely within the
+     *         file or lies beyond what a single mapping can address
+     */
+    private synchronized ByteBuffer mappedPage(long byteOffset) throws IOException {
+        long end = byteOffset + pageSize;
+        if(mapping == null || mapping.capacity() < end) {
+            long size = channel.size();
+            if(end > size || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            mapping = channel.map(size);
+        }
+        ByteBuffer view = mapping.duplicate();
+        view.limit((int) end);
+        view.position((int) byteOffset);
+        return view;
     }
 
     // see DbFile.java for javadocs
@@ -131,42 +439,247 @@ public class HeapFile implements DbFile {
         // not necessary for lab1
 
         // append it to File
+        HeapFilePage heapPage = (HeapFilePage) page;
+        writePageData(page.getId().getPageNumber(), page.getPageData(),
+                heapPage.getNumEmptySlots() > 0,
+                rangesToWrite(heapPage),
+                keepsTupleCount(heapPage));
+    }
+
+    // see DbFile.java for javadocs
+    public void writeImage(Page page) throws IOException {
+        if(zones != null) {
+            zones.invalidate(page.getId().getPageNumber());
+        }
+        writePage(page);
+    }
+
+    /**
+     * Returns the ranges of the INT fields of a page about to be written, for
+     * the zone map. The map follows inserts, so only the pages it has not
+     * followed since their ranges were last exact, such as pages with
+     * deletes, are decoded to compute them.
+     *
+     * @return the ranges, or null if the table has no INT fields
+     */
+    private int[] rangesToWrite(HeapFilePage page) {
+        if(zones == null) {
+            return null;
+        }
+        int[] ranges = zones.startWrite(page.getId().getPageNumber());
+        // through reused tuples, which the page does not keep decoded
+        return ranges != null ? ranges : zones.rangesOf(page.iterator(new TupleRing(schema)));
+    }
+
+    /**
+     * Returns whether writing a page keeps the number of tuples in the
+     * header right: the changes of a transaction to the page are counted as
+     * it commits, and a new empty page holds no tuples, but the tuples of a
+     * page built outside the BufferPool are not known to the header.
+     */
+    private boolean keepsTupleCount(HeapFilePage page) {
+        return page.isDirty() != null
+                || page.getId().getPageNumber() >= pagesInUse() && !page.iterator().hasNext();
+    }
+
+    /**
+     * Writes the specified pages through the {@link IoEngine}, which writes
+     * runs of adjacent pages with one request. Pages of compressed files
+     * are written one by one, as by writePage.
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        if(compressed != null || pages.size() < 2) {
+            DbFile.super.writePages(pages);
+            return;
+        }
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+        long[] positions = new long[sorted.size()];
+        List<byte[]> data = new ArrayList<>(sorted.size());
+        boolean[] hasRoom = new boolean[sorted.size()];
+        int[][] ranges = new int[sorted.size()][];
+        // pages may extend the file, as long as each follows the one before
+        long end = (long) pagesInUse() * pageSize;
+        boolean keepsTupleCount = true;
+        for(int i = 0; i < sorted.size(); i++) {
+            HeapFilePage page = (HeapFilePage) sorted.get(i);
+            positions[i] = (long) page.getId().getPageNumber() * pageSize;
+            if(positions[i] > end) {
+                throw new IllegalArgumentException();
+            }
+            end = Math.max(end, positions[i] + pageSize);
+            data.add(page.getPageData());
+            keepsTupleCount &= keepsTupleCount(page);
+            hasRoom[i] = page.getNumEmptySlots() > 0;
+            ranges[i] = rangesToWrite(page);
+            if(zones != null) {
+                zones.prepare(page.getId().getPageNumber(), ranges[i]);
+            }
+            // a read started before this write may return the old bytes
+            inFlight.remove(page.getId().getPageNumber());
+        }
+        try {
+            IoEngine.getDefault().write(channel, positions, data).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        header.written(sorted.get(sorted.size() - 1).getId().getPageNumber(), end, keepsTupleCount);
+        for(int i = 0; i < sorted.size(); i++) {
+            int pageNo = sorted.get(i).getId().getPageNumber();
+            freeSpace.persist(pageNo, hasRoom[i]);
+            if(zones != null) {
+                zones.persist(pageNo, ranges[i]);
+            }
+        }
+    }
+
+    /**
+     * Writes the bytes of a page to disk, over an existing page or just
+     * past the end of the file, and records in the free space map whether
+     * it has room for another tuple and in the zone map the ranges of its
+     * INT fields.
+     *
+     * @param pageNo the number of the page
+     * @param data the bytes of the page, in this file's page format
+     * @param hasRoom whether the page has an empty slot
+     * @param ranges the ranges of the page's INT fields, as computed by
+     *            {@link #pageRanges}, or null if the table has none
+     * @param keepsTupleCount whether the number of tuples in the header
+     *            stays right, as it does if the caller accounts for the
+     *            page's tuples
+     */
+    void writePageData(int pageNo, byte[] data, boolean hasRoom, int[] ranges, boolean keepsTupleCount)
+            throws IOException {
         // calculate offset of file
-        int pageNo = page.getId().getPageNumber();
-        long byteOffset = pageNo * BufferPool.getPageSize();
+        long byteOffset = (long) pageNo * pageSize;
         // if offset overflow
-        if(byteOffset > file.length()) {
+        if(pageNo > pagesInUse()) {
             throw new IllegalArgumentException();
         }
-        // random access by offset, write page into File
-        RandomAccessFile ra = null;
-        try {
-            ra = new RandomAccessFile(file,"rw");
-            ra.seek(byteOffset);
-            ra.write(page.getPageData());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }finally {
-            try {
-                ra.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        if(zones != null) {
+            zones.prepare(pageNo, ranges);
+        }
+        // a read started before this write may return the old bytes
+        inFlight.remove(pageNo);
+        if(compressed != null) {
+            compressed.write(pageNo, data);
+        } else {
+            // positional write on the shared channel, write page into File
+            channel.write(data, byteOffset);
+            header.written(pageNo, byteOffset + data.length, keepsTupleCount);
+        }
+        freeSpace.persist(pageNo, hasRoom);
+        if(zones != null) {
+            zones.persist(pageNo, ranges);
         }
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Closes the channel backing this HeapFile. Called by the Catalog when
+     * the table is removed; a later page read or write reopens the file.
+     */
+    public void close() {
+        channel.close();
+        header.close();
+        freeSpace.close();
+        if(zones != null) {
+            zones.close();
+        }
+        if(compressed != null) {
+            compressed.close();
+        }
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile. Pages preallocated at
+     * the end of the file that no insert has used yet are not counted.
+     * The count is kept in memory, without a file system call; pages
+     * written to the file behind this HeapFile's back are only counted
+     * after {@link #refresh}.
      */
     public int numPages() {
         // some code goes here
-        int pageSize = BufferPool.getPageSize();
-        long totalSize = file.length();
-        int num = (int) (totalSize / pageSize);
-        if(totalSize != 0 && totalSize % pageSize != 0) {
-            num++;
+        return pagesInUse();
+    }
+
+    /**
+     * Picks up changes made to the file behind this HeapFile's back, such as
+     * pages appended to it directly, by checking its length, which costs a
+     * file system call.
+     *
+     * @return the number of pages in this HeapFile
+     */
+    public int refresh() {
+        if(compressed != null) {
+            return compressed.numPages();
         }
-        return num;
+        return header.refresh();
+    }
+
+    /**
+     * @return the number of pages in this HeapFile, as kept in memory
+     */
+    private int pagesInUse() {
+        return compressed != null ? compressed.numPages() : header.numPages();
+    }
+
+    /**
+     * Returns the number of tuples in this HeapFile as the specified
+     * transaction sees them, without reading the file: the tuples committed
+     * to it, as kept in its header, and the changes of the transaction.
+     * The number isn't known if another transaction has changed the table
+     * and not yet completed, as the transaction would then have to wait for
+     * the other's locks to read the changed pages; nor is it known for
+     * compressed files, or after pages were written to the file by other
+     * means than transactions and the {@link BulkLoader}.
+     *
+     * @param tid the transaction asking, or null
+     * @return the number of tuples, or -1 if it isn't known
+     */
+    public long tupleCount(TransactionId tid) {
+        long committed = compressed == null ? header.tuples() : -1;
+        if(committed < 0) {
+            return -1;
+        }
+        long own = 0;
+        for(Map.Entry<TransactionId,Long> pending : pendingTuples.entrySet()) {
+            if(!pending.getKey().equals(tid)) {
+                return -1;
+            }
+            own = pending.getValue();
+        }
+        return committed + own;
+    }
+
+    /**
+     * Counts a tuple a transaction inserted or deleted, until the
+     * transaction completes.
+     */
+    private void changeTuples(TransactionId tid, long delta) {
+        if(tid != null) {
+            pendingTuples.merge(tid, delta, (a, b) -> a + b == 0 ? null : a + b);
+        }
+    }
+
+    /**
+     * Adds tuples appended to the file outside of transactions to the
+     * number of tuples in the header.
+     */
+    void tuplesLoaded(long tuples) throws IOException {
+        header.addTuples(tuples);
+    }
+
+    // see DbFile.java for javadocs
+    public void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+        Long delta = pendingTuples.get(tid);
+        if(delta == null) {
+            return;
+        }
+        // the count changes before the transaction stops looking pending, so it's never seen half done
+        if(commit) {
+            header.addTuples(delta);
+        }
+        pendingTuples.remove(tid);
     }
 
     // see DbFile.java for javadocs
@@ -175,35 +688,89 @@ public class HeapFile implements DbFile {
         // some code goes here
         // not necessary for lab1
         List<Page> affectedPages = new ArrayList<>();
-        // find a page with an empty slot
-        for(int i = 0;i < numPages(); i++) {
-            PageId pid = new HeapPageId(tableid,i);
-            // when finding page to insert, READ_ONLY permission is ok
-            HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);
-            // has an empty slot, insert and marked dirty
-            if(heapPage.getNumEmptySlots() > 0) {
+        // find a page with an empty slot, skipping pages the free space map knows are full
+        int pageNo = freeSpace.pageWithRoom(0, pagesInUse());
+        while(pageNo != -1) {
+            PageId pid = new HeapPageId(tableid,pageNo);
+            boolean held = Database.getBufferPool().holdsLock(tid,pid);
+            HeapFilePage heapPage;
+            try {
+                heapPage = (HeapFilePage) Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);
+            } catch (IllegalArgumentException e) {
+                heapPage = null;
+            }
+            if(heapPage == null || pageNo >= pagesInUse()) {
+                // vacuum cut the page off the end of the file while we waited for its lock
+                if(!held) {
+                    Database.getBufferPool().unsafeReleasePage(tid,pid);
+                }
+                break;
+            }
+            // the map is only a hint, check the page itself now that it is locked
+            if(heapPage.hasRoomFor(t)) {
                 heapPage.insertTuple(t);
                 heapPage.markDirty(true,tid);
+                changeTuples(tid, 1);
+                freeSpace.update(pageNo, heapPage.getNumEmptySlots() > 0);
+                if(zones != null) {
+                    zones.widen(pageNo, t);
+                }
                 affectedPages.add(heapPage);
                 break;
-            } else {
+            }
+            freeSpace.update(pageNo, heapPage.getNumEmptySlots() > 0);
+            // don't give up a lock this transaction took for an earlier operation
+            if(!held) {
                 Database.getBufferPool().unsafeReleasePage(tid,pid);
             }
+            pageNo = freeSpace.pageWithRoom(pageNo + 1, pagesInUse());
         }
-        // not found, create a new page and append it to the physical file
+        // not found, take the next page of the file, growing it if it has none left
         if(affectedPages.size() == 0) {
-            HeapPageId pid = new HeapPageId(tableid,numPages());
-            // TODO when physically write the page to disk
-            writePage(new HeapPage(pid,HeapPage.createEmptyPageData()));
-            // fetch new page by BufferPool
-            HeapPage newPage = (HeapPage) Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);
+            HeapFilePage newPage;
+            // the file does not grow while vacuum truncates it
+            synchronized (growLock) {
+                newPage = appendPage();
+            }
+            // the page is empty, so it is built in memory rather than read back
+            newPage = (HeapFilePage) Database.getBufferPool().newPage(tid,newPage);
+            HeapPageId pid = newPage.getId();
             newPage.insertTuple(t);
             newPage.markDirty(true,tid);
+            changeTuples(tid, 1);
+            freeSpace.update(pid.getPageNumber(), newPage.getNumEmptySlots() > 0);
+            if(zones != null) {
+                zones.widen(pid.getPageNumber(), t);
+            }
             affectedPages.add(newPage);
         }
         return affectedPages;
     }
 
+    /**
+     * Puts the page after the last page in use into use, preallocating an
+     * extent of pages if the file has no more room. Called with growLock
+     * held.
+     *
+     * @return the new page, which is empty
+     */
+    private HeapFilePage appendPage() throws IOException {
+        int pageNo = pagesInUse();
+        HeapFilePage page = createPage(new HeapPageId(tableid,pageNo),HeapPage.createEmptyPageData(pageSize));
+        if(compressed != null) {
+            // the page map only knows of pages that have been written
+            writePage(page);
+        } else if(pageNo < header.allocatedPages()) {
+            header.use(pageNo);
+        } else {
+            // zeroes read as empty pages, so the extent can be written in one go
+            int extent = extentPages;
+            channel.write(new byte[extent * pageSize], (long) pageNo * pageSize);
+            header.resized(pageNo + 1, (long) (pageNo + extent) * pageSize);
+        }
+        return page;
+    }
+
     // see DbFile.java for javadocs
     public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -216,26 +783,274 @@ public class HeapFile implements DbFile {
         if(tableId != tableid) {
             throw new DbException("deleteTuple: tableid mismatch");
         }
-        if(pid.getPageNumber() > numPages() - 1) {
+        if(pid.getPageNumber() > pagesInUse() - 1) {
             throw new DbException("deleteTuple: page not exist");
         }
-        HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);
+        HeapFilePage heapPage = (HeapFilePage) Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);
         heapPage.deleteTuple(t);
         heapPage.markDirty(true,tid);
+        changeTuples(tid, -1);
+        freeSpace.update(pid.getPageNumber(), true);
+        if(zones != null) {
+            zones.invalidate(pid.getPageNumber());
+        }
         affectedPage.add(heapPage);
         return affectedPage;
     }
 
+    /**
+     * Compacts this file online, so that it takes about as many pages as its
+     * live tuples need. Deleting tuples only empties slots, so a table that
+     * churns keeps the pages of its largest size, and scans read them all.
+     * <p>
+     * Vacuum moves the tuples of the last pages of the file into empty slots
+     * of earlier pages, and truncates the file after the last page that
+     * still holds tuples. It works in rounds, each a transaction of its own
+     * that locks the pages it changes like any other writer, so the table
+     * stays available: readers and writers of other pages go on, and those
+     * of the pages involved wait for the round to commit. A round begins in
+     * the log, so the pages it writes are logged first, and recovery undoes
+     * a round that a crash cuts short between the writes of the pages that
+     * took tuples and those that gave them. A round changes at most half the
+     * pages the BufferPool holds. Moved tuples get new RecordIds.
+     * <p>
+     * A scan that skips pages by the zone map takes no lock on the pages it
+     * skips, so a round could otherwise move tuples into pages the scan has
+     * passed. Such scans hold a shared lock on the whole table instead (see
+     * {@link #tableLockId}), which each round takes exclusively before any
+     * page, so rounds and skipping scans wait for each other.
+     * <p>
+     * The file is only truncated if no page was appended during a round, as
+     * truncating would then drop the new page; the emptied pages then stay
+     * in the file, and are filled by later inserts.
+     *
+     * @return the number of pages cut off the end of the file
+     * @throws TransactionAbortedException if a round could not lock a page;
+     *         the rounds committed before it keep their work
+     */
+    public int vacuum() throws DbException, IOException, TransactionAbortedException {
+        int maxPages = Math.max(2, Database.getBufferPool().getNumPages() / 2);
+        int removed = 0;
+        while(true) {
+            Transaction round = new Transaction();
+            round.start();
+            int before = numPages();
+            boolean moved;
+            try {
+                moved = vacuumRound(round.getId(), maxPages);
+            } catch (DbException | IOException | TransactionAbortedException | RuntimeException e) {
+                round.abort();
+                throw e;
+            }
+            round.commit();
+            removed += Math.max(0, before - numPages());
+            if(!moved) {
+                return removed;
+            }
+        }
+    }
+
+    /**
+     * Empties pages from the end of the file into earlier pages with room,
+     * until a page can't be emptied or maxPages pages have been changed,
+     * then writes the changed pages and truncates the emptied pages off the
+     * file while their locks are still held. A round that fills the last
+     * page with room may move only part of a page; the next round goes on
+     * from there.
+     *
+     * @return true if the round moved tuples or cut pages off the file
+     */
+    private boolean vacuumRound(TransactionId tid, int maxPages)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        // wait for the scans that skip pages without locking them
+        bufferPool.lockPage(tid, tableLockId(), Permissions.READ_WRITE);
+        int end = numPages();
+        int tail = end - 1;
+        Set<Integer> changed = new HashSet<>();
+        // the page tuples are moved into, which is always before tail
+        int target = freeSpace.pageWithRoom(0, tail);
+        HeapFilePage targetPage = null;
+        empty:
+        while(tail > 0 && changed.size() + 2 <= maxPages) {
+            if(target >= tail) {
+                // the pages before the tail are full, only empty tail pages can go
+                if(targetPage != null && !changed.contains(target)) {
+                    bufferPool.unsafeReleasePage(tid, targetPage.getId());
+                }
+                target = -1;
+                targetPage = null;
+            }
+            HeapFilePage tailPage = (HeapFilePage) bufferPool.getPage(tid,
+                    new HeapPageId(tableid,tail), Permissions.READ_WRITE);
+            List<Tuple> live = new ArrayList<>();
+            tailPage.iterator().forEachRemaining(live::add);
+            for(Tuple t : live) {
+                // find a page with room before the tail page
+                while(targetPage == null || !targetPage.hasRoomFor(t)) {
+                    if(targetPage != null) {
+                        // the page is full, move on to the next one with room
+                        freeSpace.update(target, targetPage.getNumEmptySlots() > 0);
+                        if(!changed.contains(target)) {
+                            bufferPool.unsafeReleasePage(tid, targetPage.getId());
+                        }
+                        target = freeSpace.pageWithRoom(target + 1, tail);
+                        targetPage = null;
+                    }
+                    if(target == -1 || changed.size() + 2 > maxPages) {
+                        // the tail page keeps its remaining tuples
+                        break empty;
+                    }
+                    targetPage = (HeapFilePage) bufferPool.getPage(tid,
+                            new HeapPageId(tableid,target), Permissions.READ_WRITE);
+                }
+                tailPage.deleteTuple(t);
+                tailPage.markDirty(true,tid);
+                changed.add(tail);
+                if(zones != null) {
+                    zones.invalidate(tail);
+                }
+                targetPage.insertTuple(t);
+                targetPage.markDirty(true,tid);
+                changed.add(target);
+                if(zones != null) {
+                    zones.widen(target, t);
+                }
+            }
+            tail--;
+        }
+        if(targetPage != null) {
+            freeSpace.update(target, targetPage.getNumEmptySlots() > 0);
+        }
+        // the pages from tail + 1 on are empty, write them and the pages that took their tuples
+        bufferPool.flushPages(tid);
+        int numPages = tail + 1;
+        if(numPages == end) {
+            return !changed.isEmpty();
+        }
+        synchronized (growLock) {
+            if(numPages() != end) {
+                // a page was appended after the emptied pages
+                return false;
+            }
+            truncate(numPages);
+        }
+        for(int pageNo = numPages; pageNo < end; pageNo++) {
+            bufferPool.discardPage(new HeapPageId(tableid,pageNo));
+        }
+        return true;
+    }
+
+    /**
+     * @return the ID that vacuum rounds lock exclusively, and scans that
+     *         skip pages by the zone map lock shared, to stand for the whole
+     *         table; no page of the file has it
+     */
+    private HeapPageId tableLockId() {
+        return new HeapPageId(tableid, -1);
+    }
+
+    /**
+     * Cuts the pages at and after the specified page off the file and its
+     * maps. Called with growLock held.
+     */
+    private void truncate(int numPages) throws IOException {
+        if(compressed != null) {
+            compressed.truncate(numPages);
+        } else {
+            synchronized (this) {
+                // a mapping past the end of the file must not be read
+                mapping = null;
+                channel.truncate((long) numPages * pageSize);
+            }
+            header.resized(numPages, (long) numPages * pageSize);
+        }
+        freeSpace.truncate(numPages);
+        if(zones != null) {
+            zones.truncate(numPages);
+        }
+        for(int pageNo : new ArrayList<>(inFlight.keySet())) {
+            if(pageNo >= numPages) {
+                inFlight.remove(pageNo);
+            }
+        }
+    }
+
+    /** number of pages a scan first reads ahead; the window then doubles up to the pool's limit */
+    private static final int INITIAL_READ_AHEAD = 4;
+
     class HeapFileIterator extends AbstractDbFileIterator {
         Iterator<Tuple> it = null;
-        HeapPage curPage = null;
+        HeapFilePage curPage = null;
+        /** pages before this one have been read ahead */
+        int readAheadEnd;
+        /** number of pages the next read-ahead covers */
+        int readAheadWindow;
 
         final TransactionId tid;
         final HeapFile hf;
+        /** the fields the scan reads, or null */
+        final int[] fields;
+        /** the predicate returned tuples satisfy, or null */
+        final Predicate predicate;
+        /** the tuples refilled for each row in reusable-row mode, or null */
+        final TupleRing ring;
 
         public HeapFileIterator(TransactionId tid, HeapFile hf) {
+            this(tid, hf, null, null, false);
+        }
+
+        public HeapFileIterator(TransactionId tid, HeapFile hf, int[] fields, Predicate predicate,
+                                boolean reuseTuples) {
             this.tid = tid;
             this.hf = hf;
+            this.fields = fields;
+            this.predicate = predicate;
+            this.ring = reuseTuples ? new TupleRing(schema) : null;
+        }
+
+        @Override
+        public TupleBatch nextBatch(int max) throws DbException, TransactionAbortedException {
+            // a batch, and the tuple read ahead of it, each need a tuple of their own
+            if (ring != null)
+                ring.ensureCapacity(max + 2);
+            return super.nextBatch(max);
+        }
+
+        /**
+         * Returns whether the scan has to read a page, which it does unless
+         * the zone map rules out the predicate on all of the page's tuples.
+         */
+        private boolean mayMatch(int pageNo) {
+            return predicate == null || zones == null || zones.mayMatch(pageNo, predicate);
+        }
+
+        /**
+         * Gets a page for the scan.
+         *
+         * @return the page, or null if vacuum cut it off the end of the file
+         *         while the scan waited for its lock
+         */
+        private HeapFilePage scanPage(int pageNo) throws DbException, TransactionAbortedException {
+            HeapFilePage page;
+            try {
+                page = (HeapFilePage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(tableid,pageNo), Permissions.READ_ONLY);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            return pageNo < pagesInUse() ? page : null;
+        }
+
+        /**
+         * @return the first page at or after pageNo the scan has to read, or
+         *         the number of pages if there is none.
+         */
+        private int nextPageToRead(int pageNo) {
+            int n = pagesInUse();
+            while (pageNo < n && !mayMatch(pageNo))
+                pageNo++;
+            return pageNo;
         }
 
         /**
@@ -245,18 +1060,72 @@ public class HeapFile implements DbFile {
          */
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            HeapPageId firstPageId = new HeapPageId(tableid,0);
-            curPage = (HeapPage) Database.getBufferPool().getPage(tid,firstPageId, Permissions.READ_ONLY);
-            it = curPage.iterator();
+            if (predicate != null && zones != null) {
+                // the pages the scan skips are not locked, so keep vacuum out of the table
+                Database.getBufferPool().lockPage(tid, tableLockId(), Permissions.READ_ONLY);
+            }
+            int first = nextPageToRead(0);
+            readAheadWindow = Math.min(INITIAL_READ_AHEAD, Database.getBufferPool().getMaxReadAhead());
+            if (first > 0 && first == pagesInUse()) {
+                // the zone map rules out every page
+                curPage = null;
+                it = null;
+                return;
+            }
+            curPage = scanPage(first);
+            if (curPage == null) {
+                it = null;
+                return;
+            }
+            it = pageIterator(curPage, fields, ring);
+            readAheadEnd = first + 1;
+            readAhead(first);
+        }
+
+        /**
+         * Asks the BufferPool to read the pages following pageNo in the
+         * background, so that their I/O overlaps with processing the tuples
+         * before them. Pages are requested a window at a time, once the
+         * scan has used up half of the previous window, and each window is
+         * twice the previous one up to the BufferPool's read-ahead limit.
+         * Pages the scan will skip are not read ahead.
+         *
+         * @param pageNo the page the scan has just moved to
+         */
+        private void readAhead(int pageNo) {
+            if (readAheadWindow == 0 || pageNo + readAheadWindow / 2 < readAheadEnd)
+                return;
+            int from = Math.max(readAheadEnd, pageNo + 1);
+            int to = Math.min(pageNo + 1 + readAheadWindow, pagesInUse());
+            List<PageId> pids = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                if (mayMatch(i))
+                    pids.add(new HeapPageId(tableid, i));
+            }
+            Database.getBufferPool().prefetchPages(pids);
+            readAheadEnd = Math.max(readAheadEnd, to);
+            readAheadWindow = Math.min(readAheadWindow * 2, Database.getBufferPool().getMaxReadAhead());
         }
 
         /**
          * 	Read the next tuple either from the current page if it has more tuples or
-         * 	from the next page by following the right sibling pointer.
+         * 	from the next page by following the right sibling pointer, skipping
+         * 	tuples that do not satisfy the predicate.
          * @return
          */
         @Override
         protected Tuple readNext() throws DbException, TransactionAbortedException {
+            Tuple t = readNextOnPage();
+            while (t != null && predicate != null && !predicate.filter(t)) {
+                // a rejected row does not use up a tuple of the ring
+                if (t.isReused())
+                    ring.putBack();
+                t = readNextOnPage();
+            }
+            return t;
+        }
+
+        private Tuple readNextOnPage() throws DbException, TransactionAbortedException {
             // curPage has no more page to iterate, set null
             if (it != null && !it.hasNext()){
                 it = null;
@@ -264,19 +1133,17 @@ public class HeapFile implements DbFile {
 
             while (it == null && curPage != null) {
                 // whether reach the end page of DbFile
-                HeapPageId nextp = null;
-                HeapPageId curp = curPage.pid;
-                if(curp.getPageNumber() < numPages() - 1) {
-                    nextp = new HeapPageId(tableid,curp.getPageNumber() + 1);
-                }
-                if(nextp == null) {
+                int nextPageNo = nextPageToRead(curPage.getId().getPageNumber() + 1);
+                if(nextPageNo >= pagesInUse()) {
                     curPage = null;
                 }
                 else {
-                    // fetch next page
-                    curPage = (HeapPage) Database.getBufferPool().getPage(tid,
-                            nextp, Permissions.READ_ONLY);
-                    it = curPage.iterator();
+                    // fetch next page, unless vacuum has cut it off meanwhile
+                    curPage = scanPage(nextPageNo);
+                    if (curPage == null)
+                        break;
+                    readAhead(nextPageNo);
+                    it = pageIterator(curPage, fields, ring);
                     // page has not tuple
                     if (!it.hasNext())
                         it = null;
@@ -316,5 +1183,50 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid, this);
     }
 
+    /**
+     * Returns an iterator over all the tuples stored in this HeapFile, for a
+     * scan that only reads the specified fields of each tuple. The other
+     * fields can still be read, but may cost more to decode.
+     *
+     * @param fields the fields the scan reads
+     * @see simpledb.execution.SeqScan#setRequiredFields
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields) {
+        return new HeapFileIterator(tid, this, fields, null, false);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored in this HeapFile that
+     * satisfy a predicate. If the predicate is on an INT field, the iterator
+     * skips the pages whose range of values for the field, as recorded in
+     * the table's zone map, rules it out, without reading them.
+     *
+     * @param fields the fields the scan reads, or null if it may read any
+     * @param predicate the predicate the returned tuples satisfy
+     * @see simpledb.execution.SeqScan#setPredicate
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields, Predicate predicate) {
+        return new HeapFileIterator(tid, this, fields, predicate, false);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored in this HeapFile, as by
+     * {@link #iterator(TransactionId, int[], Predicate)}, optionally in
+     * reusable-row mode. In that mode the iterator refills a few tuples in
+     * place rather than creating a tuple per row, and decodes their INT
+     * fields into reused IntFields, so a scan allocates next to nothing per
+     * row. A returned tuple is only valid until the next call to the
+     * iterator; consumers that keep tuples must {@link Tuple#retain} them.
+     *
+     * @param fields the fields the scan reads, or null if it may read any
+     * @param predicate the predicate the returned tuples satisfy, or null
+     * @param reuseTuples whether to refill tuples in place
+     * @see simpledb.execution.SeqScan#setReuseTuples
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields, Predicate predicate,
+                                   boolean reuseTuples) {
+        return new HeapFileIterator(tid, this, fields, predicate, reuseTuples);
+    }
+
 }
 
@@ -4,8 +4,10 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -93,6 +95,13 @@ public class HeapFileEncoder {
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
 
+      for (int i = 0; i < numFields; i++) {
+          if (!typeAr[i].isFixedLength()) {
+              convertSlotted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+              return;
+          }
+      }
+
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
@@ -108,6 +117,11 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // the free space and page maps of any previous file at this path no longer apply
+    FreeSpaceMap.discard(outFile);
+    HeapFileHeader.discard(outFile);
+    ZoneMap.discard(outFile);
+    CompressedPageStore.discard(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
     char[] buf = new char[1024];
@@ -115,6 +129,7 @@ public class HeapFileEncoder {
     int curpos = 0;
     int recordcount = 0;
     int npages = 0;
+    long ntuples = 0;
     int fieldNo = 0;
 
     ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
@@ -217,11 +232,149 @@ public class HeapFileEncoder {
             pageBAOS = new ByteArrayOutputStream(npagebytes);
             pageStream = new DataOutputStream(pageBAOS);
             
+            ntuples += recordcount;
             recordcount = 0;
             npages++;
         }
     }
     br.close();
     os.close();
+    HeapFileHeader.create(outFile, ntuples, typeAr, npagebytes);
+  }
+
+  /** Convert the specified input text file into a binary page file of
+   * SlottedHeapPages, for tables with variable-length fields. The input
+   * format is the same as for {@link #convert(File, File, int, int, Type[], char)};
+   * records are packed onto each page until the next one does not fit.
+   *
+   * @see SlottedHeapPage
+   */
+  private static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    FileOutputStream os = new FileOutputStream(outFile);
+    // the free space and page maps of any previous file at this path no longer apply
+    FreeSpaceMap.discard(outFile);
+    HeapFileHeader.discard(outFile);
+    ZoneMap.discard(outFile);
+    CompressedPageStore.discard(outFile);
+
+    List<byte[]> records = new ArrayList<>();
+    int recordBytes = 0;
+    int npages = 0;
+    long ntuples = 0;
+    ByteArrayOutputStream recordBAOS = new ByteArrayOutputStream();
+    DataOutputStream recordStream = new DataOutputStream(recordBAOS);
+
+    String line;
+    while ((line = br.readLine()) != null) {
+        if (line.isEmpty())
+            continue;
+        String[] fields = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+        if (fields.length > numFields) {
+            throw new RuntimeException("Tuple has more than " + numFields + " fields: (" + line + ")");
+        }
+        recordBAOS.reset();
+        for (int fieldNo = 0; fieldNo < fields.length; fieldNo++) {
+            String s = fields[fieldNo].trim();
+            if (typeAr[fieldNo] == Type.INT_TYPE) {
+                try {
+                    recordStream.writeInt(Integer.parseInt(s));
+                } catch (NumberFormatException e) {
+                    System.out.println ("BAD LINE : " + s);
+                }
+            } else {
+                new StringField(s, Type.STRING_LEN, typeAr[fieldNo]).serialize(recordStream);
+            }
+        }
+        recordStream.flush();
+        byte[] record = recordBAOS.toByteArray();
+
+        // start a new page once this record does not fit on the current one
+        if (!SlottedHeapPage.fits(records.size() + 1, recordBytes + record.length, npagebytes)) {
+            os.write(SlottedHeapPage.createPageData(records, npagebytes));
+            npages++;
+            records.clear();
+            recordBytes = 0;
+        }
+        records.add(record);
+        recordBytes += record.length;
+        ntuples++;
+    }
+
+    // flush the last page, or an empty page if this file is empty
+    if (!records.isEmpty() || npages == 0)
+        os.write(SlottedHeapPage.createPageData(records, npagebytes));
+    br.close();
+    os.close();
+    HeapFileHeader.create(outFile, ntuples, typeAr, npagebytes);
+  }
+
+  /** Rewrite a file of HeapPages, such as one written by convert, as a file
+   * of PaxPages holding the same tuples in the same slots, for use as a
+   * {@link PaxFile}.
+   *
+   * @see PaxPage
+   * @param inFile The file of HeapPages to read
+   * @param outFile The file of PaxPages to write
+   * @param npagebytes The number of bytes per page in both files
+   * @param typeAr the type of each field; all must be fixed-length
+   * @throws IOException if the input/output file can't be read/written
+   */
+  public static void convertToPax(File inFile, File outFile, int npagebytes, Type[] typeAr)
+      throws IOException {
+    TupleDesc td = new TupleDesc(typeAr);
+    if (!td.isFixedLength())
+        throw new IllegalArgumentException("PAX files only store fixed-length tuples: " + td);
+    try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile)));
+         FileOutputStream os = new FileOutputStream(outFile)) {
+        FreeSpaceMap.discard(outFile);
+        HeapFileHeader.discard(outFile);
+        ZoneMap.discard(outFile);
+        CompressedPageStore.discard(outFile);
+        byte[] page = new byte[npagebytes];
+        long pages = inFile.length() / npagebytes;
+        for (long i = 0; i < pages; i++) {
+            is.readFully(page);
+            os.write(PaxPage.fromHeapPageData(page, td));
+        }
+    }
+    // the same tuples, if the input's header knows how many
+    long tuples = HeapFileHeader.tuples(inFile, typeAr, npagebytes);
+    if (tuples >= 0)
+        HeapFileHeader.create(outFile, tuples, typeAr, npagebytes);
+  }
+
+  /** Rewrite a file of uncompressed pages, such as one written by convert or
+   * convertToPax, as a compressed file holding the same pages, for use as a
+   * HeapFile or PaxFile opened with the same codec.
+   *
+   * @see HeapFile#HeapFile(File, TupleDesc, boolean, PageCodec)
+   * @param inFile The file of uncompressed pages to read
+   * @param outFile The compressed file to write; its page map is written
+   *   next to it
+   * @param npagebytes The number of bytes per page
+   * @param codec The codec to compress the pages with
+   * @throws IOException if the input/output file can't be read/written
+   */
+  public static void convertToCompressed(File inFile, File outFile, int npagebytes, PageCodec codec)
+      throws IOException {
+    outFile.delete();
+    FreeSpaceMap.discard(outFile);
+    HeapFileHeader.discard(outFile);
+    ZoneMap.discard(outFile);
+    CompressedPageStore.discard(outFile);
+    CompressedPageStore store = new CompressedPageStore(outFile, codec);
+    try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile)))) {
+        byte[] page = new byte[npagebytes];
+        long pages = inFile.length() / npagebytes;
+        for (int i = 0; i < pages; i++) {
+            is.readFully(page);
+            store.write(i, page);
+        }
+    } finally {
+        store.close();
+    }
   }
 }
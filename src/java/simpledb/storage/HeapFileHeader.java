@@ -0,0 +1,269 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+
+/**
+ * HeapFileHeader holds the metadata of a HeapFile: the number of pages in
+ * use, the number of tuples, and a fingerprint of the table's layout. It is
+ * cached in memory, so that HeapFile can answer numPages, and the optimizer
+ * and COUNT(*) can learn the size of a table, without file system calls.
+ * <p>
+ * A HeapFile grows in extents of several pages at a time, so the file may
+ * end with pages that have been allocated but not used yet; the header
+ * records the number of pages in use, and the length of the file that
+ * number was recorded for. The tuple count is that of committed
+ * transactions; HeapFile adds the changes of a transaction to it as the
+ * transaction commits.
+ * <p>
+ * The header is kept in a sidecar file next to the table (the table's file
+ * name with ".hdr" appended), as the heap file format has no room for one.
+ * It holds the number of pages in use as an int, the length of the file as a
+ * long, the number of tuples as a long (-1 if unknown) and the fingerprint
+ * as an int. A header recorded for a different length than the file has,
+ * such as one left behind by a crash between growing the file and writing
+ * the header or by another writer appending to the file, or for a different
+ * layout, is ignored: every page of the file is taken to be in use, which
+ * is always safe as a preallocated page is all zeroes and reads as an empty
+ * page, and the number of tuples is unknown.
+ *
+ * @see HeapFile#numPages
+ * @see HeapFile#tupleCount
+ * @Threadsafe
+ */
+class HeapFileHeader {
+
+    private static final int HEADER_SIZE = 4 + 8 + 8 + 4;
+
+    private final File file;
+    private final DbFileChannel sidecar;
+    private final int pageSize;
+    private final int fingerprint;
+    /** number of pages in use */
+    private int used;
+    /** length of the file used was recorded for, or -1 before the header is loaded */
+    private long length = -1;
+    /** number of tuples committed to the file, or -1 if unknown */
+    private long tuples = -1;
+
+    /**
+     * @param f the file backing the HeapFile this header describes
+     * @param td the schema of the table
+     * @param pageSize the size of the pages of the file, in bytes
+     */
+    HeapFileHeader(File f, TupleDesc td, int pageSize) {
+        this.file = f;
+        this.sidecar = new DbFileChannel(sidecarOf(f));
+        this.pageSize = pageSize;
+        this.fingerprint = fingerprint(typesOf(td), pageSize);
+    }
+
+    private static File sidecarOf(File f) {
+        return new File(f.getPath() + ".hdr");
+    }
+
+    private static Type[] typesOf(TupleDesc td) {
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; i++)
+            types[i] = td.getFieldType(i);
+        return types;
+    }
+
+    /**
+     * Deletes the sidecar of a table file that is being rewritten from
+     * scratch.
+     *
+     * @param f the file backing a HeapFile
+     */
+    static void discard(File f) {
+        sidecarOf(f).delete();
+    }
+
+    /**
+     * Writes the header of a table file that has just been written from
+     * scratch, with every page in use.
+     *
+     * @param f the file backing a HeapFile
+     * @param tuples the number of tuples in the file
+     * @param types the type of each field of the table
+     * @param pageSize the size of the pages of the file, in bytes
+     */
+    static void create(File f, long tuples, Type[] types, int pageSize) throws IOException {
+        long length = f.length();
+        DbFileChannel channel = new DbFileChannel(sidecarOf(f));
+        try {
+            channel.write(encode((int) ((length + pageSize - 1) / pageSize), length, tuples,
+                    fingerprint(types, pageSize)), 0);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads the number of tuples from the header of a table file.
+     *
+     * @return the number of tuples, or -1 if the file has no header that
+     *         applies to it
+     */
+    static long tuples(File f, Type[] types, int pageSize) {
+        DbFileChannel channel = new DbFileChannel(sidecarOf(f));
+        try {
+            byte[] head = new byte[HEADER_SIZE];
+            if (channel.read(head, 0) < HEADER_SIZE)
+                return -1;
+            ByteBuffer b = ByteBuffer.wrap(head);
+            b.getInt();
+            long length = b.getLong();
+            long tuples = b.getLong();
+            return length == f.length() && b.getInt() == fingerprint(types, pageSize) ? tuples : -1;
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * A hash of the field types and page size of a table, so that a header
+     * is not taken for that of a file laid out differently.
+     */
+    private static int fingerprint(Type[] types, int pageSize) {
+        int h = pageSize;
+        for (Type t : types)
+            h = 31 * h + t.name().hashCode();
+        return h;
+    }
+
+    private static byte[] encode(int used, long length, long tuples, int fingerprint) {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(used).putLong(length).putLong(tuples)
+                .putInt(fingerprint).array();
+    }
+
+    /**
+     * @return the number of pages in use, as cached in memory
+     */
+    synchronized int numPages() {
+        if (length == -1)
+            load(file.length());
+        return used;
+    }
+
+    /**
+     * Returns the number of pages in use, reading the sidecar again if the
+     * file is no longer the length the header was recorded for.
+     */
+    synchronized int refresh() {
+        long fileLength = file.length();
+        if (fileLength != length)
+            load(fileLength);
+        return used;
+    }
+
+    /**
+     * @return the number of pages the file has room for, in use or not
+     */
+    synchronized int allocatedPages() {
+        numPages();
+        return (int) (length / pageSize);
+    }
+
+    /**
+     * @return the number of tuples committed to the file, or -1 if unknown
+     */
+    synchronized long tuples() {
+        numPages();
+        return tuples;
+    }
+
+    private void load(long fileLength) {
+        length = fileLength;
+        used = (int) ((fileLength + pageSize - 1) / pageSize);
+        // an empty file holds no tuples
+        tuples = fileLength == 0 ? 0 : -1;
+        try {
+            byte[] head = new byte[HEADER_SIZE];
+            if (sidecar.read(head, 0) < HEADER_SIZE)
+                return;
+            ByteBuffer b = ByteBuffer.wrap(head);
+            int pages = b.getInt();
+            long recordedLength = b.getLong();
+            long recordedTuples = b.getLong();
+            if (recordedLength == fileLength && b.getInt() == fingerprint && pages >= 0 && pages <= used) {
+                used = pages;
+                tuples = recordedTuples;
+            }
+        } catch (NoSuchFileException e) {
+            // a table that has never been written has no sidecar
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Records that the file has been grown or truncated to fileLength bytes
+     * and that its first numPages pages are in use, and persists the header.
+     */
+    synchronized void resized(int numPages, long fileLength) throws IOException {
+        numPages();
+        length = fileLength;
+        used = numPages;
+        persist();
+    }
+
+    /**
+     * Puts a preallocated page, and the pages before it, in use, and
+     * persists the header.
+     */
+    synchronized void use(int pageNo) throws IOException {
+        numPages();
+        used = Math.max(used, pageNo + 1);
+        persist();
+    }
+
+    /**
+     * Records that a page has been written, which puts it and the pages
+     * before it in use; persists the header if that changed it.
+     *
+     * @param pageNo the page that was written
+     * @param end the offset of the end of the write
+     * @param tuplesKnown false if the write may have changed the number of
+     *            tuples behind the header's back, making it unknown
+     */
+    synchronized void written(int pageNo, long end, boolean tuplesKnown) throws IOException {
+        numPages();
+        if (pageNo < used && end <= length && (tuplesKnown || tuples == -1))
+            return;
+        used = Math.max(used, pageNo + 1);
+        length = Math.max(length, end);
+        if (!tuplesKnown)
+            tuples = -1;
+        persist();
+    }
+
+    /**
+     * Adds the tuples a transaction inserted, less those it deleted, to the
+     * number of tuples, and persists the header.
+     */
+    synchronized void addTuples(long delta) throws IOException {
+        numPages();
+        if (tuples == -1 || delta == 0)
+            return;
+        tuples += delta;
+        persist();
+    }
+
+    private void persist() throws IOException {
+        sidecar.write(encode(used, length, tuples, fingerprint), 0);
+    }
+
+    /**
+     * Closes the sidecar file; it is reopened on demand.
+     */
+    void close() {
+        sidecar.close();
+    }
+}
@@ -0,0 +1,60 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.util.Iterator;
+
+/**
+ * HeapFilePage is the interface HeapFile uses for the pages it stores tuples
+ * on, whatever their on-disk format: {@link HeapPage} for tables whose tuples
+ * have a fixed size, and {@link SlottedHeapPage} for tables with
+ * variable-length fields.
+ *
+ * @see HeapFile
+ */
+interface HeapFilePage extends Page {
+
+    HeapPageId getId();
+
+    /**
+     * Returns the number of tuples that can still be added to this page. For
+     * pages with variable-length tuples this counts tuples of the largest
+     * size.
+     */
+    int getNumEmptySlots();
+
+    /**
+     * Returns whether the specified tuple can be added to this page.
+     */
+    boolean hasRoomFor(Tuple t);
+
+    /**
+     * Adds the specified tuple to the page, updating its RecordId.
+     * @throws DbException if the page has no room for the tuple
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     * @throws DbException if this tuple is not on this page
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return an iterator over all tuples on this page
+     */
+    Iterator<Tuple> iterator();
+
+    /**
+     * Returns an iterator over the tuples on this page that refills tuples
+     * from the ring rather than creating one per tuple, for scans in
+     * reusable-row mode. Tuples inserted or changed on this page since it was
+     * read are returned as they are. Page formats that cannot refill tuples
+     * return {@link #iterator()}.
+     *
+     * @see Tuple#retain
+     */
+    default Iterator<Tuple> iterator(TupleRing ring) {
+        return iterator();
+    }
+}
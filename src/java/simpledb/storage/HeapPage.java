@@ -7,6 +7,7 @@ import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -16,16 +17,39 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements HeapFilePage {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
+    /** slot bitmap, slot i is bit i % 64 of word i / 64; serialized as the header bytes */
+    final long[] header;
+    /** size of this page in bytes, that of the pages of its table */
+    final int pageSize;
+    /** tuples of used slots, created on first access unless inserted on this page */
     final Tuple[] tuples;
     final int numSlots;
+    /** size of the serialized header and of one tuple, in bytes */
+    final int headerSize;
+    final int tupleSize;
+    /**
+     * The bytes this page was read from, never modified. A used slot whose
+     * tuples entry is null still holds its record here, and tuples are
+     * decoded from it lazily, one field at a time.
+     */
+    final byte[] data;
+    /**
+     * slots inserted into or deleted from since the page was read, in the
+     * layout of header; the other slots still hold their bytes in data
+     */
+    final long[] modified;
 
+    /**
+     * The page as of the last call to setBeforeImage, or null if there has
+     * been none since the page was read; the before image is then data,
+     * which is never modified, so reading a page takes no copy of it.
+     */
     byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    final Byte oldDataLock= (byte) 0;
 
     // for dirty page
     private TransactionId tid;
@@ -35,39 +59,56 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the size of the table's pages, which can be
+     * determined via {@link Catalog#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see Catalog#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.headerSize = getHeaderSize();
+        this.tupleSize = td.getSize();
+
+        if (data.length < headerSize)
+            throw new EOFException("page too short for header");
+        // short pages read as if padded with empty slots
+        this.data = data.length < pageSize ? Arrays.copyOf(data, pageSize) : data;
+
+        // read the header slots of this page; the records stay in data until asked for
+        header = new long[(numSlots + 63) >>> 6];
+        for (int i=0; i<headerSize; i++)
+            header[i >>> 3] |= (data[i] & 0xffL) << ((i & 7) << 3);
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        modified = new long[header.length];
+    }
 
-        setBeforeImage();
+    /**
+     * Create a HeapPage from a buffer, such as a slice of a memory-mapped
+     * HeapFile. The page is read from the buffer's current position, in the
+     * format described in {@link #HeapPage(HeapPageId, byte[])}, with a
+     * single bulk copy; its tuples are then decoded lazily from that copy.
+     * The buffer is not retained.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, copyPage(data, Database.getCatalog().getPageSize(id.getTableId())));
+    }
+
+    private static byte[] copyPage(ByteBuffer data, int pageSize) {
+        byte[] page = new byte[Math.min(data.remaining(), pageSize)];
+        data.get(page);
+        return page;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -75,7 +116,7 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
-        int tuples = Math.floorDiv(BufferPool.getPageSize() * 8, td.getSize() * 8 + 1);
+        int tuples = Math.floorDiv(pageSize * 8, td.getSize() * 8 + 1);
         return tuples;
 
     }
@@ -97,12 +138,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid,getBeforeImageData());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -111,10 +147,20 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * @return the bytes of the before image of this page.
+     */
+    byte[] getBeforeImageData() {
+        synchronized(oldDataLock)
+        {
+            return oldData != null ? oldData : data;
+        }
+    }
+
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = getPageData();
         }
     }
 
@@ -128,42 +174,25 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in a used slot, creating it on first access as a
+     * tuple whose fields are decoded on demand from the page data.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    Tuple getTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, data, headerSize + slotId * tupleSize);
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
         }
-
         return t;
     }
 
     /**
      * Generates a byte array representing the contents of this page.
-     * Used to serialize this page to disk.
+     * Used to serialize this page to disk. The array starts as a copy of
+     * the bytes the page was read from, and only the header and the slots
+     * modified since are written over, so serializing a page costs little
+     * more than a copy. Tuples on a page are never changed in place.
      * <p>
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
@@ -173,64 +202,33 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] page = Arrays.copyOf(data, pageSize);
 
         // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+        for (int i=0; i<headerSize; i++) {
+            page[i] = (byte) (header[i >>> 3] >>> ((i & 7) << 3));
         }
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        // patch the modified slots: empty slots are zeroed
+        for (int w = 0; w < modified.length; w++) {
+            for (long bits = modified[w] & slotMask(w); bits != 0; bits &= bits - 1) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                writeSlot(page, i);
             }
         }
+        return page;
+    }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+    /**
+     * Writes the record of a modified slot into page data, or zeroes if
+     * the slot is empty.
+     */
+    void writeSlot(byte[] page, int i) {
+        int off = headerSize + i * tupleSize;
+        if (isSlotUsed(i))
+            tuples[i].serialize(page, off);
+        else
+            Arrays.fill(page, off, off + tupleSize, (byte) 0);
     }
 
     /**
@@ -243,8 +241,21 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Generates a byte array corresponding to an empty HeapPage of a table
+     * whose pages are the specified size.
+     *
+     * @see #createEmptyPageData()
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
+    }
+
+    public int getSizeInBytes() {
+        return pageSize;
     }
 
     /**
@@ -290,18 +301,14 @@ public class HeapPage implements Page {
         if(!td.equals(t.getTupleDesc())) {
             throw new DbException("TupleDesc mismatch while inserting tuple");
         }
-        // search for empty slot and insert tuple
-        for(int i = 0;i < numSlots; i++) {
-            if(!isSlotUsed(i)) {
-                // set RecordId
-                RecordId rid = new RecordId(pid,i);
-                t.setRecordId(rid);
-                // insert
-                tuples[i] = t;
-                markSlotUsed(i,true);
-                break;
-            }
-        }
+        // take the first empty slot and insert tuple
+        int i = nextSlot(0, false);
+        // set RecordId
+        RecordId rid = new RecordId(pid,i);
+        t.setRecordId(rid);
+        // insert
+        tuples[i] = t;
+        markSlotUsed(i,true);
     }
 
     /**
@@ -332,17 +339,19 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int count = 0;
-        for(byte b : header) {
-            // count number of '0' in this byte
-            for(int i=0;i<8;i++){
-                if((b & 0x01) == 0x00){
-                    count++;
-                }
-                b >>= 1;
-            }
+        int used = 0;
+        for (int w = 0; w < header.length; w++) {
+            used += Long.bitCount(header[w] & slotMask(w));
         }
-        return count;
+        return numSlots - used;
+    }
+
+    /**
+     * Returns whether the specified tuple fits on this page, which for
+     * fixed-size tuples is whether any slot is empty.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
     }
 
     /**
@@ -350,17 +359,8 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        // header: 1000 1110 1 1 0 0
-        // slotNo: 7654 3210 11109 8 big endian!!!
-        int byteNo = i >> 3;
-        int bitNo = i % 8;
-        byte b = header[byteNo];
-//        for(int j = 0;j < bitNo;j++){
-//            b >>= 1;
-//        }
-//        int isUsed = b & 0x01;
-        int isUsed = (b >> bitNo) & 0x01;
-        return isUsed == 1;
+        // slot i is bit i % 64 of word i / 64 (shifts are mod 64)
+        return ((header[i >>> 6] >>> i) & 1L) != 0;
     }
 
     /**
@@ -369,39 +369,73 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
-        int byteNo = i >> 3;
-        int bitNo = i % 8;
-        byte b = header[byteNo];
-        int update;
         if(value) {
-            update = b | (0x01 << bitNo); // set bit to 1, marked used
+            header[i >>> 6] |= 1L << i; // set bit to 1, marked used
         } else {
-            // 10001110 & 11110111
-            update = b & (~(0x01 << bitNo)); // set bit to 0, marked empty
+            header[i >>> 6] &= ~(1L << i); // set bit to 0, marked empty
+        }
+        modified[i >>> 6] |= 1L << i;
+    }
+
+    /**
+     * @return the mask of bits in header word w that belong to real slots,
+     *         excluding the padding bits after the last slot.
+     */
+    private long slotMask(int w) {
+        int valid = numSlots - (w << 6);
+        return valid >= 64 ? -1L : (1L << valid) - 1;
+    }
+
+    /**
+     * Finds the first slot at or after from that is used (or empty), scanning
+     * the header a 64-bit word at a time.
+     *
+     * @return the slot number, or numSlots if there is no such slot.
+     */
+    int nextSlot(int from, boolean used) {
+        if (from >= numSlots)
+            return numSlots;
+        int w = from >>> 6;
+        long bits = (used ? header[w] : ~header[w]) & (-1L << from);
+        while (true) {
+            bits &= slotMask(w);
+            if (bits != 0)
+                return (w << 6) + Long.numberOfTrailingZeros(bits);
+            if (++w == header.length)
+                return numSlots;
+            bits = used ? header[w] : ~header[w];
         }
-        header[byteNo] = (byte) update;
     }
 
-    //TODO optimize?
     public class TupleIterator implements Iterator<Tuple> {
         private int currentIdx = -1;
+        /** the ring tuples are refilled from in reusable-row mode, or null */
+        private final TupleRing ring;
+
+        TupleIterator() {
+            this(null);
+        }
+
+        TupleIterator(TupleRing ring) {
+            this.ring = ring;
+        }
 
         @Override
         public boolean hasNext() {
-            int nextIndex = currentIdx + 1;
-            while(nextIndex < numSlots) {
-                if(isSlotUsed(nextIndex)) {
-                    currentIdx = nextIndex;
-                    return true;
-                }
-                nextIndex++;
-            }
-            return false;
+            return nextSlot(currentIdx + 1, true) < numSlots;
         }
 
         @Override
         public Tuple next() {
-            return tuples[currentIdx];
+            int nextIndex = nextSlot(currentIdx + 1, true);
+            if (nextIndex == numSlots)
+                throw new NoSuchElementException();
+            currentIdx = nextIndex;
+            if (ring == null || tuples[currentIdx] != null)
+                return getTuple(currentIdx);
+            Tuple t = ring.next();
+            t.bind(data, headerSize + currentIdx * tupleSize, pid, currentIdx);
+            return t;
         }
     }
     /**
@@ -421,5 +455,9 @@ public class HeapPage implements Page {
         return new TupleIterator();
     }
 
+    public Iterator<Tuple> iterator(TupleRing ring) {
+        return new TupleIterator(ring);
+    }
+
 }
 
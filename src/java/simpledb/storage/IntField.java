@@ -12,7 +12,12 @@ public class IntField implements Field {
 
     private static final long serialVersionUID = 1L;
 
-    private final int value;
+    private int value;
+    /**
+     * whether this field belongs to a reused tuple and is overwritten when
+     * the tuple is refilled; see {@link Tuple#retain}
+     */
+    final boolean shared;
 
     public int getValue() {
         return value;
@@ -25,6 +30,22 @@ public class IntField implements Field {
      */
     public IntField(int i) {
         value = i;
+        shared = false;
+    }
+
+    /**
+     * Creates a field of a reused tuple, whose value is set in place as the
+     * tuple is refilled.
+     */
+    IntField() {
+        shared = true;
+    }
+
+    /**
+     * Sets the value of a field of a reused tuple.
+     */
+    void setValue(int i) {
+        value = i;
     }
 
     public String toString() {
@@ -44,6 +65,22 @@ public class IntField implements Field {
         dos.writeInt(value);
     }
 
+    /**
+     * Write the bytes of this field, as by {@link #serialize(DataOutputStream)},
+     * straight into a byte array.
+     *
+     * @param dst the array to write to
+     * @param off the offset in dst to write the field at
+     * @return the offset in dst just past the field
+     */
+    int serialize(byte[] dst, int off) {
+        dst[off] = (byte) (value >>> 24);
+        dst[off + 1] = (byte) (value >>> 16);
+        dst[off + 2] = (byte) (value >>> 8);
+        dst[off + 3] = (byte) value;
+        return off + 4;
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
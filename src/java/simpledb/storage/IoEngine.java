@@ -0,0 +1,260 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * IoEngine performs page reads and writes on a pool of I/O threads, so that
+ * callers can issue many requests at once and wait on them as futures. Each
+ * thread works on one request at a time, so up to as many requests as there
+ * are threads are outstanding on the device at once.
+ * <p>
+ * Requests wait in a queue until a thread is free. A thread that takes a
+ * request also takes the queued requests of the same kind on the same file
+ * that extend it into one contiguous range, and issues that range as a
+ * single read or write. Read-ahead windows and the pages a transaction
+ * commits are usually runs of adjacent pages, which then cost a few large
+ * I/Os rather than one per page.
+ * <p>
+ * Reads and writes of the same bytes that are queued at the same time may
+ * be performed in either order; callers order them by waiting on futures.
+ *
+ * @see DbFileChannel
+ * @Threadsafe
+ */
+public class IoEngine implements Executor {
+
+    /** Default number of I/O threads. */
+    public static final int DEFAULT_THREADS = 8;
+
+    /** Default largest number of bytes in a merged read or write. */
+    public static final int DEFAULT_MAX_MERGE_BYTES = 1 << 20;
+
+    private static final IoEngine DEFAULT = new IoEngine(DEFAULT_THREADS, DEFAULT_MAX_MERGE_BYTES);
+
+    /**
+     * @return the engine shared by all files.
+     */
+    public static IoEngine getDefault() {
+        return DEFAULT;
+    }
+
+    private enum Kind { READ, WRITE, TASK }
+
+    /** A queued request, waiting for a thread. */
+    private static class Request {
+        final Kind kind;
+        final DbFileChannel channel;
+        final long position;
+        final int length;
+        /** the bytes to write */
+        final byte[] data;
+        final Supplier<?> task;
+        final CompletableFuture<Object> done = new CompletableFuture<>();
+
+        Request(Kind kind, DbFileChannel channel, long position, int length, byte[] data, Supplier<?> task) {
+            this.kind = kind;
+            this.channel = channel;
+            this.position = position;
+            this.length = length;
+            this.data = data;
+            this.task = task;
+        }
+
+        long end() {
+            return position + length;
+        }
+    }
+
+    private final int maxMergeBytes;
+    /** requests not yet taken by a thread; guarded by itself */
+    private final Deque<Request> queue = new ArrayDeque<>();
+
+    /**
+     * Starts an engine.
+     *
+     * @param threads the number of I/O threads
+     * @param maxMergeBytes the largest number of bytes in a merged read or write
+     */
+    public IoEngine(int threads, int maxMergeBytes) {
+        this.maxMergeBytes = maxMergeBytes;
+        for (int i = 0; i < Math.max(1, threads); i++) {
+            Thread t = new Thread(this::work, "IoEngine worker " + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Reads length bytes at each of the given offsets of a file. Bytes past
+     * the end of the file read as zeroes.
+     *
+     * @param channel the file to read
+     * @param positions the offset of each read
+     * @param length the number of bytes of each read
+     * @return a future of the bytes of each read, in the order of positions
+     */
+    public List<CompletableFuture<byte[]>> read(DbFileChannel channel, long[] positions, int length) {
+        List<Request> requests = new ArrayList<>(positions.length);
+        for (long position : positions)
+            requests.add(new Request(Kind.READ, channel, position, length, null, null));
+        submit(requests);
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>(requests.size());
+        for (Request r : requests)
+            futures.add(r.done.thenApply(b -> (byte[]) b));
+        return futures;
+    }
+
+    /**
+     * Writes blocks of bytes to a file, each at its own offset.
+     *
+     * @param channel the file to write
+     * @param positions the offset of each write
+     * @param data the bytes of each write
+     * @return a future completed once every write is done
+     */
+    public CompletableFuture<Void> write(DbFileChannel channel, long[] positions, List<byte[]> data) {
+        List<Request> requests = new ArrayList<>(positions.length);
+        for (int i = 0; i < positions.length; i++)
+            requests.add(new Request(Kind.WRITE, channel, positions[i], data.get(i).length, data.get(i), null));
+        submit(requests);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[requests.size()];
+        for (int i = 0; i < futures.length; i++)
+            futures[i] = requests.get(i).done;
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * Runs an I/O task that the engine cannot merge with others, such as
+     * reading a page through a codec, on one of the I/O threads.
+     *
+     * @return a future of the task's result
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> call(Supplier<T> task) {
+        Request r = new Request(Kind.TASK, null, 0, 0, null, task);
+        submit(Arrays.asList(r));
+        return r.done.thenApply(v -> (T) v);
+    }
+
+    /**
+     * Runs a task on one of the I/O threads, such as building a page from
+     * bytes a read returned, so that the caller doesn't wait for it.
+     */
+    @Override
+    public void execute(Runnable task) {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    private void submit(List<Request> requests) {
+        synchronized (queue) {
+            queue.addAll(requests);
+            queue.notifyAll();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            List<Request> run;
+            synchronized (queue) {
+                while (queue.isEmpty()) {
+                    try {
+                        queue.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                run = takeRun();
+            }
+            perform(run);
+        }
+    }
+
+    /**
+     * Takes the request at the head of the queue, along with the queued
+     * requests that extend it into a contiguous range of the same file.
+     * Called while holding the queue's lock.
+     *
+     * @return the requests of the run, in file order
+     */
+    private List<Request> takeRun() {
+        Request first = queue.poll();
+        Deque<Request> run = new ArrayDeque<>();
+        run.add(first);
+        if (first.kind == Kind.TASK)
+            return new ArrayList<>(run);
+        long start = first.position, end = first.end();
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            for (Iterator<Request> it = queue.iterator(); it.hasNext(); ) {
+                Request r = it.next();
+                if (r.kind != first.kind || r.channel != first.channel || end - start + r.length > maxMergeBytes)
+                    continue;
+                if (r.position == end) {
+                    run.addLast(r);
+                    end = r.end();
+                } else if (r.end() == start) {
+                    run.addFirst(r);
+                    start = r.position;
+                } else {
+                    continue;
+                }
+                it.remove();
+                grown = true;
+            }
+        }
+        return new ArrayList<>(run);
+    }
+
+    /**
+     * Performs a run of requests as a single I/O, and completes them.
+     */
+    private static void perform(List<Request> run) {
+        Request first = run.get(0);
+        try {
+            switch (first.kind) {
+            case TASK:
+                first.done.complete(first.task.get());
+                return;
+            case READ: {
+                Request last = run.get(run.size() - 1);
+                byte[] buf = new byte[(int) (last.end() - first.position)];
+                first.channel.read(buf, first.position);
+                for (Request r : run) {
+                    int off = (int) (r.position - first.position);
+                    r.done.complete(run.size() == 1 ? buf : Arrays.copyOfRange(buf, off, off + r.length));
+                }
+                return;
+            }
+            case WRITE: {
+                byte[] buf = first.data;
+                if (run.size() > 1) {
+                    Request last = run.get(run.size() - 1);
+                    buf = new byte[(int) (last.end() - first.position)];
+                    for (Request r : run)
+                        System.arraycopy(r.data, 0, buf, (int) (r.position - first.position), r.length);
+                }
+                first.channel.write(buf, first.position);
+                for (Request r : run)
+                    r.done.complete(null);
+                return;
+            }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Request r : run)
+                r.done.completeExceptionally(e);
+        }
+    }
+}
@@ -19,23 +19,16 @@ two-phase locking discipline are followed.  <p>
 <p>
 
 Many of the methods here are synchronized (to prevent concurrent log
-writes from happening); many of the methods in BufferPool are also
-synchronized (for similar reasons.)  Problem is that BufferPool writes
-log records (on page flushed) and the log file flushes BufferPool
-pages (on checkpoints and recovery.)  This can lead to deadlock.  For
-that reason, any LogFile operation that needs to access the BufferPool
-must not be declared synchronized and must begin with a block like:
-
-<p>
-<pre>
-    synchronized (Database.getBufferPool()) {
-       synchronized (this) {
-
-       ..
-
-       }
-    }
-</pre>
+writes from happening); the BufferPool latches its shards (for similar
+reasons.)  Problem is that BufferPool writes log records (on pages
+flushed or evicted) while holding a shard latch, and the log file
+flushes and discards BufferPool pages (on checkpoints, rollback and
+recovery.)  This can lead to deadlock.  For that reason, any LogFile
+operation that needs to access the BufferPool must not be declared
+synchronized, and must leave its synchronized (this) blocks before it
+calls into the BufferPool.  A rollback keeps the BufferPool from
+stealing the pages of the transaction while it installs their before
+images (see BufferPool#preventSteals).
 */
 
 /**
@@ -72,6 +65,14 @@ as a long integer transaction id and a long integer first record offset
 for each active transaction.
 
 </ul>
+
+<p> Transactions committing at the same time share a force of the log
+(group commit): the first to force waits, up to a maximum wait (see
+{@link #setGroupCommitWait}), while other transactions have started to
+commit (see {@link #startCommit}) but not yet appended their COMMIT
+records, so that one force covers them all. Transactions that are
+merely running are not waited for: they may be blocked on the locks
+the committing transaction still holds.
 */
 public class LogFile {
 
@@ -95,6 +96,24 @@ public class LogFile {
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    // live transactions that have started to commit and not yet appended
+    // their COMMIT record //protected by this
+    private final Set<Long> committing = new HashSet<>();
+
+    /** Default longest time, in microseconds, a commit waits for others to share its force. */
+    public static final long DEFAULT_GROUP_COMMIT_WAIT_MICROS = 1000;
+
+    private static long groupCommitWaitMicros = DEFAULT_GROUP_COMMIT_WAIT_MICROS;
+
+    int totalForces = 0; // for NoForceTest //protected by this
+
+    // guards forcedRecords and forcing; taken before this, never inside it
+    private final Object forceLock = new Object();
+    // the log is on disk up to this record, as counted by totalRecords
+    private int forcedRecords = 0;
+    // whether a committing transaction is forcing the log for the others
+    private boolean forcing = false;
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -140,25 +159,58 @@ public class LogFile {
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    public synchronized int getTotalForces() {
+        return totalForces;
+    }
+
+    /**
+     * Sets the longest time a committing transaction waits for others to
+     * commit with it, and share its force of the log.
+     *
+     * @param micros the maximum wait, or 0 to force at once
+     */
+    public static void setGroupCommitWait(long micros) {
+        LogFile.groupCommitWaitMicros = micros;
+    }
+
+    /**
+     * @return whether the specified transaction has begun and has not yet
+     *         committed or aborted, so that its updates can be rolled back
+     */
+    public synchronized boolean isLive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
     
+    /**
+     * Notes that the specified transaction has started to commit, so that
+     * a commit forcing the log meanwhile waits for its COMMIT record.
+     * Transactions that have not begun in the log are ignored.
+     */
+    public synchronized void startCommit(TransactionId tid) {
+        if (tidToFirstLogRecord.containsKey(tid.getId())) {
+            committing.add(tid.getId());
+        }
+    }
+
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
         @param tid The aborting transaction.
     */
     public void logAbort(TransactionId tid) throws IOException {
-        // must have buffer pool lock before proceeding, since this
-        // calls rollback
 
-        synchronized (Database.getBufferPool()) {
+        // the transaction is live until its ABORT record is written, so
+        // the BufferPool must not steal its pages before then
+        BufferPool bufferPool = Database.getBufferPool();
+        bufferPool.preventSteals(tid);
+        try {
+            // must do this here, since rollback only works for
+            // live transactions (needs tidToFirstLogRecord)
+            installBeforeImages(tid);
 
             synchronized(this) {
                 preAppend();
                 //Debug.log("ABORT");
-                //should we verify that this is a live transaction?
-
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
 
                 raf.writeInt(ABORT_RECORD);
                 raf.writeLong(tid.getId());
@@ -166,7 +218,10 @@ public class LogFile {
                 currentOffset = raf.getFilePointer();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                committing.remove(tid.getId());
             }
+        } finally {
+            bufferPool.allowSteals(tid);
         }
     }
 
@@ -175,17 +230,80 @@ public class LogFile {
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        int record;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            raf.writeInt(COMMIT_RECORD);
+            raf.writeLong(tid.getId());
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+            tidToFirstLogRecord.remove(tid.getId());
+            committing.remove(tid.getId());
+            record = totalRecords;
+        }
+        forceThrough(record);
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /**
+     * Forces the log to disk through the specified record, unless a force
+     * started since has done so. One committing transaction forces at a
+     * time; the others wait for it, and the first of them forces next,
+     * covering every record appended meanwhile.
+     *
+     * @param record the record, as counted by totalRecords
+     */
+    private void forceThrough(int record) throws IOException {
+        try {
+            synchronized (forceLock) {
+                if (forcing) {
+                    // the forcing transaction may be waiting for this one
+                    forceLock.notifyAll();
+                }
+                while (forcing) {
+                    forceLock.wait();
+                }
+                if (forcedRecords >= record) {
+                    return;
+                }
+                forcing = true;
+                // give the transactions already committing the chance to append first
+                long deadline = System.nanoTime() + groupCommitWaitMicros * 1000;
+                long remaining;
+                while (othersCommitting() && (remaining = deadline - System.nanoTime()) > 0) {
+                    forceLock.wait(remaining / 1000000, (int) (remaining % 1000000));
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted waiting to commit");
+        }
+        try {
+            int through;
+            synchronized (this) {
+                through = totalRecords;
+                force();
+            }
+            synchronized (forceLock) {
+                forcedRecords = Math.max(forcedRecords, through);
+            }
+        } finally {
+            synchronized (forceLock) {
+                forcing = false;
+                forceLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return whether any transaction has started to commit and not yet
+     *         appended its COMMIT record, besides those waiting in
+     *         forceThrough
+     */
+    private synchronized boolean othersCommitting() {
+        return !committing.isEmpty();
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -267,7 +385,8 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // pages may have several constructors; recovery uses Page(PageId id, byte[] data)
+            Constructor<?> pageConst = pageClass.getDeclaredConstructor(idClass, byte[].class);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -277,10 +396,10 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
+        } catch (ClassNotFoundException | NoSuchMethodException | InvocationTargetException | IllegalAccessException | InstantiationException e){
             e.printStackTrace();
             throw new IOException();
         }
@@ -311,53 +430,66 @@ public class LogFile {
 
     /** Checkpoint the log and write a checkpoint record. */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
-
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+        // pages committed without being written are flushed below, but a
+        // transaction committing meanwhile may leave its pages unwritten,
+        // so the log is kept from here
+        long flushedFrom;
+        synchronized (this) {
+            preAppend();
+            flushedFrom = currentOffset;
+        }
+        // flushing logs the pages it writes, so the log's monitor is
+        // taken after it
+        Database.getBufferPool().flushAllPages();
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            long startCpOffset, endCpOffset;
+            Set<Long> keys = tidToFirstLogRecord.keySet();
+            Iterator<Long> els = keys.iterator();
+            force();
+            startCpOffset = raf.getFilePointer();
+            raf.writeInt(CHECKPOINT_RECORD);
+            raf.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            raf.writeInt(keys.size());
+            while (els.hasNext()) {
+                Long key = els.next();
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                raf.writeLong(key);
+                //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+                raf.writeLong(tidToFirstLogRecord.get(key));
             }
+
+            //once the CP is written, make sure the CP location at the
+            // beginning of the log file is updated
+            endCpOffset = raf.getFilePointer();
+            raf.seek(0);
+            raf.writeLong(startCpOffset);
+            raf.seek(endCpOffset);
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
-        logTruncate();
+        logTruncate(flushedFrom);
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
         consumption */
     public synchronized void logTruncate() throws IOException {
+        logTruncate(Long.MAX_VALUE);
+    }
+
+    /** Truncate the log before the last checkpoint, or the first record of
+        a transaction outstanding at it, or the specified offset, whichever
+        comes first */
+    private synchronized void logTruncate(long keepFrom) throws IOException {
         preAppend();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
-        long minLogRecord = cpLoc;
+        long minLogRecord = Math.min(cpLoc, keepFrom);
 
         if (cpLoc != -1L) {
             raf.seek(cpLoc);
@@ -420,7 +552,10 @@ public class LogFile {
                     }
                     break;
                 case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
+                    // transactions that have completed stay completed
+                    if (tidToFirstLogRecord.containsKey(record_tid)) {
+                        tidToFirstLogRecord.put(record_tid,newStart);
+                    }
                     break;
                 }
 
@@ -456,22 +591,46 @@ public class LogFile {
     */
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized(this) {
-                preAppend();
-                // some code goes here
+        // a page stolen while the before images are installed would be
+        // written over them
+        BufferPool bufferPool = Database.getBufferPool();
+        bufferPool.preventSteals(tid);
+        try {
+            installBeforeImages(tid);
+        } finally {
+            bufferPool.allowSteals(tid);
+        }
+    }
+
+    /**
+     * Installs the first before image the transaction logged for each page.
+     * Called with the BufferPool kept from stealing its pages.
+     */
+    private void installBeforeImages(TransactionId tid)
+        throws NoSuchElementException, IOException {
+        Collection<Page> befores;
+        synchronized(this) {
+            preAppend();
+            // some code goes here
+            Long first = tidToFirstLogRecord.get(tid.getId());
+            if (first == null) {
+                throw new NoSuchElementException("transaction " + tid.getId() + " is not live");
             }
+            befores = readImages(first, Collections.singleton(tid.getId()), true).values();
         }
+        installImages(befores);
     }
 
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                raf.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -481,14 +640,155 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Pages are logged before they are written, whether at commit or
+        earlier, when the BufferPool steals them, so the log holds every
+        change that can have reached disk. Recovery redoes the committed
+        transactions, installing the last after image each logged for a
+        page, and then undoes the transactions that neither committed nor
+        aborted, installing the first before image each logged for a
+        page, and logs that they aborted. Transactions that aborted were
+        rolled back before their ABORT record was written.
     */
     public void recover() throws IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                recoveryUndecided = false;
-                // some code goes here
+        Collection<Page> afters, befores;
+        Set<Long> losers = new HashSet<>();
+        synchronized (this) {
+            recoveryUndecided = false;
+            // some code goes here
+            if (raf.length() < LONG_SIZE) {
+                raf.setLength(0);
+                raf.writeLong(NO_CHECKPOINT_ID);
+            }
+            Set<Long> committed = new HashSet<>();
+            Set<Long> aborted = new HashSet<>();
+            raf.seek(LONG_SIZE);
+            long end = LONG_SIZE;
+            while (true) {
+                try {
+                    int type = raf.readInt();
+                    long recordTid = raf.readLong();
+                    switch (type) {
+                    case BEGIN_RECORD:
+                        losers.add(recordTid);
+                        break;
+                    case COMMIT_RECORD:
+                        committed.add(recordTid);
+                        break;
+                    case ABORT_RECORD:
+                        aborted.add(recordTid);
+                        break;
+                    case UPDATE_RECORD:
+                        skipPageData(raf);
+                        skipPageData(raf);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        int numXactions = raf.readInt();
+                        while (numXactions-- > 0) {
+                            losers.add(raf.readLong());
+                            raf.readLong();
+                        }
+                        break;
+                    }
+                    raf.readLong();
+                    end = raf.getFilePointer();
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+            // a record cut short by the crash is dropped
+            raf.setLength(end);
+            losers.removeAll(committed);
+            losers.removeAll(aborted);
+            afters = readImages(LONG_SIZE, committed, false).values();
+            befores = readImages(LONG_SIZE, losers, true).values();
+            tidToFirstLogRecord.clear();
+            committing.clear();
+        }
+        installImages(afters);
+        installImages(befores);
+        synchronized (this) {
+            for (Long tid : losers) {
+                raf.writeInt(ABORT_RECORD);
+                raf.writeLong(tid);
+                raf.writeLong(currentOffset);
+                currentOffset = raf.getFilePointer();
+            }
+            force();
+        }
+    }
+
+    /**
+     * Reads the UPDATE records of the specified transactions, from the
+     * record at the specified offset to the end of the log, and leaves the
+     * log positioned at its end. Called holding this.
+     *
+     * @param before whether to return before images, the first logged
+     *            for each page, or after images, the last logged
+     * @return the images, by page
+     */
+    private Map<PageId,Page> readImages(long from, Set<Long> tids, boolean before) throws IOException {
+        Map<PageId,Page> images = new LinkedHashMap<>();
+        raf.seek(from);
+        while (true) {
+            try {
+                int type = raf.readInt();
+                long recordTid = raf.readLong();
+                switch (type) {
+                case UPDATE_RECORD:
+                    if (!tids.contains(recordTid)) {
+                        skipPageData(raf);
+                        skipPageData(raf);
+                    } else if (before) {
+                        Page image = readPageData(raf);
+                        skipPageData(raf);
+                        images.putIfAbsent(image.getId(), image);
+                    } else {
+                        skipPageData(raf);
+                        Page image = readPageData(raf);
+                        images.put(image.getId(), image);
+                    }
+                    break;
+                case CHECKPOINT_RECORD:
+                    raf.skipBytes(raf.readInt() * 2 * LONG_SIZE);
+                    break;
+                }
+                raf.readLong();
+            } catch (EOFException e) {
+                break;
             }
-         }
+        }
+        raf.seek(raf.length());
+        currentOffset = raf.getFilePointer();
+        return images;
+    }
+
+    /** Skips a page written by writePageData, without building it. */
+    private void skipPageData(RandomAccessFile raf) throws IOException {
+        raf.readUTF();
+        raf.readUTF();
+        raf.skipBytes(raf.readInt() * INT_SIZE);
+        raf.skipBytes(raf.readInt());
+    }
+
+    /**
+     * Writes images of pages to their files, and discards the pages from
+     * the BufferPool, which may hold them as they were before. Called
+     * without holding this.
+     * <p>
+     * The pages of each file are written in page order: a vacuum may have
+     * cut pages off the end of the file since they were logged, and a file
+     * only grows by the page just past its end.
+     */
+    private void installImages(Collection<Page> pages) throws IOException {
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingInt((Page p) -> p.getId().getTableId())
+                .thenComparingInt(p -> p.getId().getPageNumber()));
+        for (Page page : sorted) {
+            PageId pid = page.getId();
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writeImage(page);
+            Database.getBufferPool().discardPage(pid);
+        }
     }
 
     /** Print out a human readable represenation of the log */
@@ -568,6 +868,7 @@ public class LogFile {
     }
 
     public  synchronized void force() throws IOException {
+        totalForces++;
         raf.getChannel().force(true);
     }
 
@@ -0,0 +1,125 @@
+package simpledb.storage;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * LruKPolicy is LRU-K (O'Neil, O'Neil and Weikum, SIGMOD '93): it evicts the
+ * page whose K-th most recent reference is oldest. Pages referenced fewer
+ * than K times go first, least recently referenced first, so a page a
+ * sequential scan reads once is evicted before any page referenced K times.
+ * <p>
+ * The history of a page outlives its eviction for as long as the pool
+ * holds as many other pages, so that a page evicted and read again soon
+ * after keeps its earlier references. The pages in the pool are kept in a
+ * tree ordered by their K-th most recent reference, which makes a call take
+ * time logarithmic in the number of pages rather than constant.
+ *
+ * @see ReplacementPolicy.Kind#LRU_K
+ * @Threadsafe
+ */
+class LruKPolicy implements ReplacementPolicy {
+
+    private static class History {
+        final PageId pid;
+        /** the times of the last K references, most recent first; 0 for none */
+        final long[] times;
+        /** when the page last entered the pool, which orders pages never referenced */
+        long admitted;
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.times = new long[k];
+        }
+
+        long kth() {
+            return times[times.length - 1];
+        }
+
+        long last() {
+            return times[0];
+        }
+    }
+
+    private static final Comparator<History> ORDER = Comparator.comparingLong(History::kth)
+            .thenComparingLong(History::last)
+            .thenComparingLong(h -> h.admitted);
+
+    private final int k;
+    private final int retained;
+    /** logical clock, advanced by every admission and reference */
+    private long now = 0;
+    private final Map<PageId,History> resident = new HashMap<>();
+    /** the pages in the pool, in eviction order */
+    private final TreeSet<History> order = new TreeSet<>(ORDER);
+    /** histories of evicted pages, oldest first */
+    private final LinkedHashMap<PageId,History> evicted = new LinkedHashMap<>();
+
+    /**
+     * @param k the number of references to remember per page, at least 1
+     * @param numPages the number of pages of the default size the pool holds,
+     *            which is also the number of evicted pages whose history is
+     *            retained
+     */
+    LruKPolicy(int k, int numPages) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        this.retained = Math.max(1, numPages);
+    }
+
+    @Override
+    public synchronized void admit(PageId pid) {
+        if (resident.containsKey(pid))
+            return;
+        History h = evicted.remove(pid);
+        if (h == null)
+            h = new History(pid, k);
+        h.admitted = ++now;
+        resident.put(pid, h);
+        order.add(h);
+    }
+
+    @Override
+    public synchronized void access(PageId pid) {
+        History h = resident.get(pid);
+        if (h == null)
+            return;
+        order.remove(h);
+        System.arraycopy(h.times, 0, h.times, 1, k - 1);
+        h.times[0] = ++now;
+        order.add(h);
+    }
+
+    @Override
+    public synchronized void remove(PageId pid) {
+        History h = resident.remove(pid);
+        if (h != null)
+            order.remove(h);
+        evicted.remove(pid);
+    }
+
+    @Override
+    public synchronized PageId victim(Predicate<PageId> evictable) {
+        for (Iterator<History> it = order.iterator(); it.hasNext(); ) {
+            History h = it.next();
+            if (evictable.test(h.pid)) {
+                it.remove();
+                resident.remove(h.pid);
+                evicted.put(h.pid, h);
+                if (evicted.size() > retained) {
+                    Iterator<PageId> oldest = evicted.keySet().iterator();
+                    oldest.next();
+                    oldest.remove();
+                }
+                return h.pid;
+            }
+        }
+        return null;
+    }
+}
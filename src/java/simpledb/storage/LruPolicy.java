@@ -0,0 +1,48 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * LruPolicy evicts the page that was referenced least recently. The pages
+ * are kept in a linked hash set in order of their last reference, so that
+ * every call takes constant time, apart from skipping pages that may not be
+ * evicted.
+ *
+ * @see ReplacementPolicy.Kind#LRU
+ * @Threadsafe
+ */
+class LruPolicy implements ReplacementPolicy {
+
+    /** the pages, least recently referenced first */
+    private final LinkedHashSet<PageId> pages = new LinkedHashSet<>();
+
+    @Override
+    public synchronized void admit(PageId pid) {
+        pages.add(pid);
+    }
+
+    @Override
+    public synchronized void access(PageId pid) {
+        if (pages.remove(pid))
+            pages.add(pid);
+    }
+
+    @Override
+    public synchronized void remove(PageId pid) {
+        pages.remove(pid);
+    }
+
+    @Override
+    public synchronized PageId victim(Predicate<PageId> evictable) {
+        for (Iterator<PageId> it = pages.iterator(); it.hasNext(); ) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+}
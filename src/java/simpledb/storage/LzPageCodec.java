@@ -0,0 +1,148 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * LzPageCodec is a fast LZ77-style page codec in the spirit of LZ4. It
+ * replaces repeated byte sequences of at least four bytes with a back
+ * reference to their previous occurrence on the page, which suits pages full
+ * of small ints, zero-padded strings and runs of empty slots.
+ * <p>
+ * A compressed page is a series of sequences, each made of a token byte,
+ * a run of literal bytes and a match. The high nibble of the token is the
+ * number of literals and the low nibble is the match length minus four;
+ * a nibble of 15 is followed by extra length bytes, added up until one is
+ * less than 255. The literals come next, then the match as a two byte
+ * (big-endian) distance back from the current position. The last sequence
+ * has no match; it ends where the compressed data ends.
+ *
+ * @Threadsafe
+ */
+public class LzPageCodec implements PageCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 12;
+
+    public byte[] compress(byte[] page) {
+        int n = page.length;
+        // worst case: all literals, plus their length bytes and the token
+        byte[] out = new byte[n + n / 255 + 16];
+        // most recent position of each hashed four byte sequence
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+
+        int op = 0;
+        int anchor = 0;
+        int ip = 0;
+        while (ip + MIN_MATCH <= n) {
+            int seq = readInt(page, ip);
+            int h = (seq * -1640531535) >>> (32 - HASH_BITS);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(page, ref) != seq) {
+                ip++;
+                continue;
+            }
+            int len = MIN_MATCH;
+            while (ip + len < n && page[ref + len] == page[ip + len])
+                len++;
+            op = writeSequence(out, op, page, anchor, ip - anchor, ip - ref, len);
+            ip += len;
+            anchor = ip;
+        }
+        op = writeSequence(out, op, page, anchor, n - anchor, 0, 0);
+        return Arrays.copyOf(out, op);
+    }
+
+    public void decompress(byte[] data, byte[] page) throws IOException {
+        int ip = 0;
+        int op = 0;
+        try {
+            while (true) {
+                int token = data[ip++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = data[ip++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(data, ip, page, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip == data.length)
+                    break;
+
+                int offset = ((data[ip++] & 0xFF) << 8) | (data[ip++] & 0xFF);
+                int len = token & 0x0F;
+                if (len == 15) {
+                    int b;
+                    do {
+                        b = data[ip++] & 0xFF;
+                        len += b;
+                    } while (b == 255);
+                }
+                len += MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < 0 || op + len > page.length)
+                    throw new IOException("corrupt compressed page: bad match at " + ip);
+                if (offset >= len) {
+                    System.arraycopy(page, ref, page, op, len);
+                } else {
+                    // the match overlaps the bytes it produces, e.g. a run of one byte
+                    for (int i = 0; i < len; i++)
+                        page[op + i] = page[ref + i];
+                }
+                op += len;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("corrupt compressed page", e);
+        }
+        if (op != page.length)
+            throw new IOException("corrupt compressed page: " + op + " bytes, expected " + page.length);
+    }
+
+    /**
+     * Appends a sequence to out.
+     *
+     * @param literals the number of literal bytes, starting at anchor in src
+     * @param offset the distance back to the match, or 0 for the last sequence
+     * @param matchLen the length of the match
+     * @return the position in out after the sequence
+     */
+    private static int writeSequence(byte[] out, int op, byte[] src, int anchor,
+                                     int literals, int offset, int matchLen) {
+        int tokenPos = op++;
+        int token = Math.min(literals, 15) << 4;
+        if (literals >= 15)
+            op = writeLength(out, op, literals - 15);
+        System.arraycopy(src, anchor, out, op, literals);
+        op += literals;
+        if (offset != 0) {
+            out[op++] = (byte) (offset >>> 8);
+            out[op++] = (byte) offset;
+            int extra = matchLen - MIN_MATCH;
+            token |= Math.min(extra, 15);
+            if (extra >= 15)
+                op = writeLength(out, op, extra - 15);
+        }
+        out[tokenPos] = (byte) token;
+        return op;
+    }
+
+    private static int writeLength(byte[] out, int op, int len) {
+        while (len >= 255) {
+            out[op++] = (byte) 255;
+            len -= 255;
+        }
+        out[op++] = (byte) len;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) << 24 | (b[i + 1] & 0xFF) << 16 | (b[i + 2] & 0xFF) << 8 | (b[i + 3] & 0xFF);
+    }
+}
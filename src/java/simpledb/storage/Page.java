@@ -48,6 +48,14 @@ public interface Page {
 
   byte[] getPageData();
 
+  /**
+   * @return the size of this page in bytes, that of the pages of its
+   *         DbFile; the BufferPool charges this much of its budget for it.
+   */
+  default int getSizeInBytes() {
+    return BufferPool.getPageSize();
+  }
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
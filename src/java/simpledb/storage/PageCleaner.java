@@ -0,0 +1,159 @@
+package simpledb.storage;
+
+import java.io.IOException;
+
+/**
+ * PageCleaner is a background thread that writes the dirty pages of a
+ * {@link BufferPool} back to disk ahead of eviction, so that a page needing
+ * a frame finds a clean page to evict instead of waiting for a write.
+ * <p>
+ * The cleaner idles while dirty pages take less than the high watermark of
+ * the pool's bytes. Once they reach it, it writes pages until they are down
+ * to the low watermark, at most pagesPerSecond pages a second, so that it
+ * does not crowd out the I/O of transactions. It only writes the pages the
+ * pool may write without a transaction asking: pages whose changes
+ * committed without being written (NO-FORCE) first, then pages of
+ * transactions that have begun in the log (STEAL), once their updates are
+ * logged and forced.
+ * <p>
+ * The pool wakes the cleaner when eviction has had to write a page, which
+ * means the cleaner has fallen behind; otherwise it checks the pool a few
+ * times a second.
+ *
+ * @see BufferPool#startPageCleaner
+ * @Threadsafe
+ */
+public class PageCleaner {
+
+    /** Default fraction of the pool's bytes in dirty pages at which the cleaner starts writing. */
+    public static final double DEFAULT_HIGH_WATERMARK = 0.5;
+
+    /** Default fraction of the pool's bytes in dirty pages at which the cleaner stops writing. */
+    public static final double DEFAULT_LOW_WATERMARK = 0.25;
+
+    /** Default largest number of pages the cleaner writes a second. */
+    public static final int DEFAULT_PAGES_PER_SECOND = 1000;
+
+    /** milliseconds between checks of the pool when the cleaner is idle */
+    private static final long INTERVAL_MILLIS = 50;
+
+    /** largest number of pages written at once, however long the cleaner has been idle */
+    private static final int MAX_BATCH_PAGES = 32;
+
+    private final BufferPool pool;
+    private final int pagesPerSecond;
+    private final double lowWatermark;
+    private final double highWatermark;
+    private final Thread thread;
+
+    /** guarded by this */
+    private boolean woken;
+    /** guarded by this */
+    private boolean stopped;
+
+    /**
+     * Starts a cleaner for a buffer pool.
+     *
+     * @param pool the buffer pool to clean
+     * @param pagesPerSecond the largest number of pages to write a second
+     * @param lowWatermark the fraction of the pool's bytes in dirty pages
+     *            the cleaner writes pages down to
+     * @param highWatermark the fraction of the pool's bytes in dirty pages
+     *            at which the cleaner starts writing
+     */
+    public PageCleaner(BufferPool pool, int pagesPerSecond, double lowWatermark, double highWatermark) {
+        if (pagesPerSecond < 1) {
+            throw new IllegalArgumentException("a page cleaner must write at least one page a second");
+        }
+        if (lowWatermark < 0 || lowWatermark > highWatermark || highWatermark > 1) {
+            throw new IllegalArgumentException("watermarks must satisfy 0 <= low <= high <= 1");
+        }
+        this.pool = pool;
+        this.pagesPerSecond = pagesPerSecond;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.thread = new Thread(this::work, "PageCleaner");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Makes the cleaner check the pool now rather than at its next interval.
+     */
+    public synchronized void wake() {
+        woken = true;
+        notifyAll();
+    }
+
+    /**
+     * Stops the cleaner, and waits for the pages it is writing, if any.
+     * The pages it has not written stay dirty in the pool.
+     */
+    public void stop() {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        if (Thread.currentThread() == thread) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work() {
+        boolean cleaning = false;
+        // pages the cleaner may write before it exceeds its rate
+        double credit = 0;
+        long last = System.nanoTime();
+        while (true) {
+            long wait = INTERVAL_MILLIS;
+            if (cleaning) {
+                wait = credit >= 1 ? 0 : Math.max(1, (long) Math.ceil((1 - credit) * 1000 / pagesPerSecond));
+            }
+            synchronized (this) {
+                if (!stopped && !woken && wait > 0) {
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (stopped) {
+                    return;
+                }
+                woken = false;
+            }
+            long now = System.nanoTime();
+            credit = Math.min(MAX_BATCH_PAGES, credit + (now - last) * pagesPerSecond / 1e9);
+            last = now;
+
+            double dirty = pool.getDirtyFraction();
+            if (dirty >= highWatermark && dirty > 0) {
+                cleaning = true;
+            } else if (dirty <= lowWatermark) {
+                cleaning = false;
+            }
+            if (!cleaning || credit < 1) {
+                continue;
+            }
+            // no further below the low watermark than a page
+            int pages = (int) Math.min(credit, Math.ceil((dirty - lowWatermark) * pool.getNumPages() - 1e-9));
+            int written;
+            try {
+                written = pool.cleanPages(Math.max(1, pages));
+            } catch (IOException e) {
+                e.printStackTrace();
+                written = 0;
+            }
+            credit -= written;
+            if (written == 0) {
+                // nothing the cleaner may write yet; look again at the next interval
+                cleaning = false;
+            }
+        }
+    }
+}
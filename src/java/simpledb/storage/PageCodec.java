@@ -0,0 +1,33 @@
+package simpledb.storage;
+
+import java.io.IOException;
+
+/**
+ * A PageCodec compresses the bytes of a page on their way to disk, and
+ * restores them when the page is read back. Tables opened with a codec keep
+ * their pages in a {@link CompressedPageStore}; the BufferPool only ever sees
+ * uncompressed pages.
+ *
+ * @see LzPageCodec
+ */
+public interface PageCodec {
+
+    /**
+     * Compresses a page.
+     *
+     * @param page the bytes of the page, as returned by {@link Page#getPageData}
+     * @return the compressed bytes, which may be longer than page if it does
+     *         not compress
+     */
+    byte[] compress(byte[] page);
+
+    /**
+     * Decompresses a page that was compressed by this codec.
+     *
+     * @param data the compressed bytes
+     * @param page the buffer to restore the page into; its length is the
+     *             length of the page that was compressed
+     * @throws IOException if data is not a valid compressed page of that length
+     */
+    void decompress(byte[] data, byte[] page) throws IOException;
+}
@@ -0,0 +1,85 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * PaxFile is a HeapFile whose pages are PaxPages, which store each field of
+ * the tuples on a page in its own mini-column. It suits analytic tables that
+ * are scanned and aggregated a few columns at a time: a scan that declares
+ * the fields it reads (see {@link HeapFile#iterator(simpledb.transaction.TransactionId, int[])})
+ * decodes only those mini-columns, one at a time.
+ * <p>
+ * Apart from the page format, a PaxFile behaves exactly like a HeapFile.
+ * It holds the same number of tuples per page, and only supports tables
+ * whose fields have a fixed length.
+ *
+ * @see PaxPage
+ */
+public class PaxFile extends HeapFile {
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this file.
+     * @throws IllegalArgumentException if td has variable-length fields
+     */
+    public PaxFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a PAX file backed by the specified file, optionally reading
+     * its pages through a memory mapping.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, boolean)
+     * @throws IllegalArgumentException if td has variable-length fields
+     */
+    public PaxFile(File f, TupleDesc td, boolean memoryMapped) {
+        this(f, td, memoryMapped, null);
+    }
+
+    /**
+     * Constructs a PAX file backed by the specified file, optionally keeping
+     * its pages compressed with the given codec.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, boolean, PageCodec)
+     * @throws IllegalArgumentException if td has variable-length fields
+     */
+    public PaxFile(File f, TupleDesc td, boolean memoryMapped, PageCodec codec) {
+        this(f, td, memoryMapped, codec, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a PAX file backed by the specified file, whose pages are
+     * pageSize bytes.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, boolean, PageCodec, int)
+     * @throws IllegalArgumentException if td has variable-length fields
+     */
+    public PaxFile(File f, TupleDesc td, boolean memoryMapped, PageCodec codec, int pageSize) {
+        super(f, td, memoryMapped, codec, pageSize);
+        if (!td.isFixedLength())
+            throw new IllegalArgumentException("PAX files only store fixed-length tuples: " + td);
+    }
+
+    @Override
+    HeapFilePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+
+    @Override
+    byte[] fromHeapPageData(byte[] data) {
+        return PaxPage.fromHeapPageData(data, getTupleDesc());
+    }
+
+    @Override
+    Iterator<Tuple> pageIterator(HeapFilePage page, int[] fields, TupleRing ring) {
+        // PaxPages decode whole columns into their own tuples, so they are never refilled
+        if (fields == null)
+            return page.iterator();
+        return ((PaxPage) page).iterator(fields);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/**
+ * Each instance of PaxPage stores data for one page of a PaxFile. A PaxPage
+ * holds the same slots as a HeapPage of the same table, but lays out the
+ * tuples column by column (PAX, Partition Attributes Across): after the
+ * header, each field of the TupleDesc has a mini-column holding that field
+ * of every slot. Reading one field of every tuple on the page then touches
+ * only that field's mini-column, instead of striding over whole records.
+ *
+ * @see PaxFile
+ * @see HeapPage
+ */
+public class PaxPage extends HeapPage {
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     * The format of a PaxPage is the header of a HeapPage, with the same
+     * number of slots (see {@link HeapPage#HeapPage(HeapPageId, byte[])}),
+     * followed by one mini-column per field in TupleDesc order. The
+     * mini-column of field j holds that field of each slot in slot order, so
+     * it is the number of slots times the field's size long.
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+    }
+
+    /**
+     * @return the offset of the mini-column of the specified field.
+     */
+    private int columnStart(int field) {
+        return headerSize + numSlots * td.getFieldOffset(field);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    @Override
+    public PaxPage getBeforeImage() {
+        try {
+            return new PaxPage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the tuple in a used slot, creating it on first access as a
+     * tuple whose fields are decoded on demand from the mini-columns.
+     */
+    @Override
+    Tuple getTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            int[] starts = new int[td.numFields()];
+            for (int j = 0; j < starts.length; j++) {
+                starts[j] = columnStart(j) + slotId * td.getFieldType(j).getLen();
+            }
+            t = new Tuple(td, data, starts);
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Writes the fields of a modified slot into their mini-columns in page
+     * data, or zeroes if the slot is empty; see {@link HeapPage#getPageData}.
+     */
+    @Override
+    void writeSlot(byte[] page, int i) {
+        for (int j = 0; j < td.numFields(); j++) {
+            int len = td.getFieldType(j).getLen();
+            int pos = columnStart(j) + i * len;
+            if (isSlotUsed(i))
+                tuples[i].serializeField(j, page, pos);
+            else
+                Arrays.fill(page, pos, pos + len, (byte) 0);
+        }
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page, after decoding the
+     * specified fields of every tuple one mini-column at a time. The other
+     * fields are still decoded on demand.
+     *
+     * @param fields the fields the caller is going to read
+     */
+    public Iterator<Tuple> iterator(int[] fields) {
+        for (int j : fields) {
+            Type type = td.getFieldType(j);
+            int len = type.getLen();
+            int base = columnStart(j);
+            ByteBuffer column = ByteBuffer.wrap(data);
+            for (int i = nextSlot(0, true); i < numSlots; i = nextSlot(i + 1, true)) {
+                Tuple t = getTuple(i);
+                if (t.hasField(j))
+                    continue;
+                column.limit(base + (i + 1) * len);
+                column.position(base + i * len);
+                try {
+                    t.setField(j, type.parse(column));
+                } catch (ParseException e) {
+                    throw new NoSuchElementException("parsing error!");
+                }
+            }
+        }
+        return iterator();
+    }
+
+    /**
+     * Rearranges a page of data in the HeapPage format into the PaxPage
+     * format, holding the same tuples in the same slots.
+     *
+     * @param rowData the bytes of a HeapPage
+     * @param td the TupleDesc of the tuples on the page
+     * @return the bytes of the equivalent PaxPage
+     */
+    public static byte[] fromHeapPageData(byte[] rowData, TupleDesc td) {
+        int tupleSize = td.getSize();
+        int numSlots = (rowData.length * 8) / (tupleSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        byte[] page = new byte[rowData.length];
+        System.arraycopy(rowData, 0, page, 0, headerSize);
+        for (int j = 0; j < td.numFields(); j++) {
+            int len = td.getFieldType(j).getLen();
+            int from = headerSize + td.getFieldOffset(j);
+            int to = headerSize + numSlots * td.getFieldOffset(j);
+            for (int i = 0; i < numSlots; i++) {
+                System.arraycopy(rowData, from + i * tupleSize, page, to + i * len, len);
+            }
+        }
+        return page;
+    }
+}
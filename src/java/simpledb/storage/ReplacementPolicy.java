@@ -0,0 +1,79 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * A ReplacementPolicy chooses which page the BufferPool evicts when it needs
+ * room. The BufferPool tells it which pages enter and leave the pool, and
+ * which pages transactions ask for, and asks it for a victim.
+ * <p>
+ * A page entering the pool is not a reference to it: the BufferPool admits
+ * pages it reads ahead before any transaction asks for them, and reports
+ * the request separately with {@link #access}. A page read by a sequential
+ * scan is then referenced once, and the scan-resistant policies keep it
+ * apart from the pages referenced again, so that one large scan cannot
+ * evict the working set.
+ * <p>
+ * Policies are called both while holding the BufferPool's lock and without
+ * it, so they synchronize themselves; a call about a page the policy does
+ * not track is ignored.
+ *
+ * @see BufferPool
+ * @Threadsafe
+ */
+public interface ReplacementPolicy {
+
+    /** The policies a BufferPool can be built with. */
+    enum Kind {
+        /** least recently used; not scan-resistant */
+        LRU,
+        /** CLOCK, an approximation of LRU with a reference bit per page; not scan-resistant */
+        CLOCK,
+        /** 2Q, which keeps pages referenced once in a FIFO apart from the hot pages */
+        TWO_QUEUE,
+        /** LRU-2, which evicts the page whose second most recent reference is oldest */
+        LRU_K;
+
+        /**
+         * Creates a policy of this kind.
+         *
+         * @param numPages the number of pages of the default size the pool holds
+         */
+        public ReplacementPolicy create(int numPages) {
+            switch (this) {
+            case LRU:
+                return new LruPolicy();
+            case CLOCK:
+                return new ClockPolicy();
+            case TWO_QUEUE:
+                return new TwoQueuePolicy(numPages);
+            default:
+                return new LruKPolicy(2, numPages);
+            }
+        }
+    }
+
+    /**
+     * Starts tracking a page that has entered the pool.
+     */
+    void admit(PageId pid);
+
+    /**
+     * Records a reference to a page in the pool.
+     */
+    void access(PageId pid);
+
+    /**
+     * Stops tracking a page that has been discarded from the pool.
+     */
+    void remove(PageId pid);
+
+    /**
+     * Chooses a page to evict and stops tracking it.
+     *
+     * @param evictable whether a page may be evicted, such as whether it is
+     *            clean
+     * @return the page to evict, or null if no page may be evicted
+     */
+    PageId victim(Predicate<PageId> evictable);
+}
@@ -0,0 +1,440 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Catalog;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of SlottedHeapPage stores data for one page of a HeapFile
+ * whose tuples vary in size, because the table has variable-length fields
+ * such as {@link simpledb.common.Type#VARCHAR_TYPE}. Instead of HeapPage's
+ * fixed-size slots, a slotted page keeps a directory of slots that point at
+ * records of any length, so a tuple only takes the bytes its values need.
+ *
+ * @see HeapFile
+ * @see HeapPage
+ */
+public class SlottedHeapPage implements HeapFilePage {
+
+    /** size of the page header, which holds the number of slots */
+    static final int HEADER_SIZE = 2;
+    /** size of a slot directory entry: the record's offset and length */
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    /** size of this page in bytes, that of the pages of its table */
+    final int pageSize;
+    /** number of slots in the directory, the last of which is used */
+    int numSlots;
+    /** tuples of used slots, created on first access unless inserted on this page */
+    Tuple[] tuples;
+    /** offset in data of the record of each used slot that was read from disk, or -1 */
+    int[] offsets;
+    /** length of the record of each slot, 0 if the slot is empty */
+    int[] lengths;
+    /** total length of the records on this page */
+    int recordBytes;
+    /** the bytes this page was read from, never modified */
+    private final byte[] data;
+    /** whether tuples have been inserted or deleted since the page was read */
+    private boolean modified;
+
+    /**
+     * the page as of the last call to setBeforeImage, or null if there has
+     * been none since the page was read, in which case it is data
+     */
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    // for dirty page
+    private TransactionId tid;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     * The format of a SlottedHeapPage is a two byte count of the slots in the
+     * slot directory, followed by the directory itself, with four bytes per
+     * slot: the offset of the slot's record within the page and the length of
+     * the record, as unsigned shorts. A length of zero marks an empty slot.
+     * The records are packed at the end of the page, and the free space of
+     * the page lies between them and the directory. A page of all zeroes is
+     * an empty page.
+     * <p>
+     * Each record is the tuple's fields serialized in TupleDesc order, which
+     * can be determined via {@link Catalog#getTupleDesc}.
+     *
+     * @see Database#getCatalog
+     * @see Catalog#getTupleDesc
+     * @see Catalog#getPageSize
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        if (pageSize > 0x10000)
+            throw new IllegalArgumentException("slotted pages are at most 64KB");
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        // short pages read as if padded with free space
+        this.data = data.length < pageSize ? Arrays.copyOf(data, pageSize) : data;
+
+        numSlots = readShort(this.data, 0);
+        if (HEADER_SIZE + numSlots * SLOT_SIZE > pageSize)
+            throw new EOFException("page too short for slot directory");
+        int capacity = Math.max(numSlots, 16);
+        tuples = new Tuple[capacity];
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        for (int i = 0; i < numSlots; i++) {
+            int entry = HEADER_SIZE + i * SLOT_SIZE;
+            int offset = readShort(this.data, entry);
+            int length = readShort(this.data, entry + 2);
+            if (length > 0 && offset + length > pageSize)
+                throw new EOFException("record of slot " + i + " runs past the end of the page");
+            offsets[i] = length > 0 ? offset : -1;
+            lengths[i] = length;
+            recordBytes += length;
+        }
+    }
+
+    /**
+     * Create a SlottedHeapPage from a buffer, such as a slice of a
+     * memory-mapped HeapFile, with a single bulk copy from the buffer's
+     * current position. The buffer is not retained.
+     */
+    public SlottedHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, copyPage(data, Database.getCatalog().getPageSize(id.getTableId())));
+    }
+
+    private static byte[] copyPage(ByteBuffer data, int pageSize) {
+        byte[] page = new byte[Math.min(data.remaining(), pageSize)];
+        data.get(page);
+        return page;
+    }
+
+    private static int readShort(byte[] b, int off) {
+        return ((b[off] & 0xff) << 8) | (b[off + 1] & 0xff);
+    }
+
+    private static void writeShort(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 8);
+        b[off + 1] = (byte) v;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData != null ? oldData : data;
+            }
+            return new SlottedHeapPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns the tuple in a used slot, creating it on first access as a
+     * tuple whose fields are decoded on demand from the page data.
+     */
+    private Tuple getTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, data, offsets[slotId]);
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk. The records are packed at the end
+     * of the page in slot order, so the free space left by deleted tuples is
+     * reclaimed whenever the page is written. Records are written straight
+     * into the array, and a page no tuple has been inserted into or deleted
+     * from since it was read is a copy of the bytes it was read from.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the SlottedHeapPage constructor and
+     * have it produce an identical SlottedHeapPage object.
+     *
+     * @see #SlottedHeapPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        // an unmodified page is the bytes it was read from
+        if (!modified)
+            return Arrays.copyOf(data, pageSize);
+
+        byte[] page = new byte[pageSize];
+        int end = page.length;
+        writeShort(page, 0, numSlots);
+        for (int i = 0; i < numSlots; i++) {
+            if (lengths[i] == 0)
+                continue;
+            end -= lengths[i];
+            // a record read from disk is copied verbatim
+            if (offsets[i] >= 0)
+                System.arraycopy(data, offsets[i], page, end, lengths[i]);
+            else
+                tuples[i].serialize(page, end);
+            writeShort(page, HEADER_SIZE + i * SLOT_SIZE, end);
+            writeShort(page, HEADER_SIZE + i * SLOT_SIZE + 2, lengths[i]);
+        }
+        return page;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedHeapPage.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; //all 0
+    }
+
+    public int getSizeInBytes() {
+        return pageSize;
+    }
+
+    /**
+     * @return the number of bytes of this page not taken by the header, the
+     *         slot directory or records.
+     */
+    private int freeBytes() {
+        return pageSize - HEADER_SIZE - numSlots * SLOT_SIZE - recordBytes;
+    }
+
+    /**
+     * @return the first empty slot in the directory, or numSlots if the
+     *         directory has to grow to take another tuple.
+     */
+    private int emptySlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (lengths[i] == 0)
+                return i;
+        }
+        return numSlots;
+    }
+
+    /**
+     * Returns whether the specified tuple fits on this page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return fits(td.getSize(t));
+    }
+
+    /**
+     * Returns whether a record of the given length fits on this page,
+     * counting the directory entry it needs if no slot is empty.
+     */
+    private boolean fits(int length) {
+        int entry = emptySlot() < numSlots ? 0 : SLOT_SIZE;
+        return length + entry <= freeBytes();
+    }
+
+    /**
+     * Delete the specified tuple from the page; the slot of the tuple is
+     * marked empty and its record's space is reclaimed.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rId = t.getRecordId();
+        if (rId == null || !getId().equals(rId.getPageId())) {
+            throw new DbException("Tuple is not on this page!");
+        }
+        int slot = rId.getTupleNumber();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("Slot is empty, can't delete");
+        }
+        modified = true;
+        recordBytes -= lengths[slot];
+        lengths[slot] = 0;
+        offsets[slot] = -1;
+        tuples[slot] = null;
+        // give back the directory entries of empty slots at the end
+        while (numSlots > 0 && lengths[numSlots - 1] == 0)
+            numSlots--;
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page does not have room for the tuple or
+     *         tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("TupleDesc mismatch while inserting tuple");
+        }
+        int length = td.getSize(t);
+        if (!fits(length)) {
+            throw new DbException("Page has no room for tuple!");
+        }
+        int slot = emptySlot();
+        if (slot == numSlots) {
+            if (slot == lengths.length) {
+                int capacity = lengths.length * 2;
+                tuples = Arrays.copyOf(tuples, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+            numSlots++;
+        }
+        modified = true;
+        t.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = t;
+        offsets[slot] = -1;
+        lengths[slot] = length;
+        recordBytes += length;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.tid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return tid;
+    }
+
+    /**
+     * Returns the number of tuples of the largest size for this table that
+     * still fit on this page. Smaller tuples may fit even when this is zero;
+     * see {@link #hasRoomFor}.
+     */
+    public int getNumEmptySlots() {
+        int free = freeBytes();
+        int max = td.getSize();
+        int empty = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (lengths[i] == 0)
+                empty++;
+        }
+        // empty slots take a record without a new directory entry
+        if (free < empty * max)
+            return free / max;
+        return empty + (free - empty * max) / (max + SLOT_SIZE);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && lengths[i] > 0;
+    }
+
+    public class TupleIterator implements Iterator<Tuple> {
+        private int currentIdx = -1;
+        /** the ring tuples are refilled from in reusable-row mode, or null */
+        private final TupleRing ring;
+
+        TupleIterator() {
+            this(null);
+        }
+
+        TupleIterator(TupleRing ring) {
+            this.ring = ring;
+        }
+
+        private int nextUsed() {
+            int i = currentIdx + 1;
+            while (i < numSlots && lengths[i] == 0)
+                i++;
+            return i;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextUsed() < numSlots;
+        }
+
+        @Override
+        public Tuple next() {
+            int nextIndex = nextUsed();
+            if (nextIndex >= numSlots)
+                throw new NoSuchElementException();
+            currentIdx = nextIndex;
+            if (ring == null || tuples[currentIdx] != null)
+                return getTuple(currentIdx);
+            Tuple t = ring.next();
+            t.bind(data, offsets[currentIdx], pid, currentIdx);
+            return t;
+        }
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new TupleIterator();
+    }
+
+    public Iterator<Tuple> iterator(TupleRing ring) {
+        return new TupleIterator(ring);
+    }
+
+    /**
+     * Returns whether a page holding numRecords records with a total length
+     * of recordBytes fits in pageSize bytes. Used to fill pages when a table
+     * is written out directly, as by HeapFileEncoder.
+     */
+    static boolean fits(int numRecords, int recordBytes, int pageSize) {
+        return HEADER_SIZE + numRecords * SLOT_SIZE + recordBytes <= pageSize;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to a
+     * SlottedHeapPage holding the specified serialized records, one per slot.
+     * The records must fit on the page; see {@link #fits(int, int, int)}.
+     *
+     * @param records the serialized tuples
+     * @param pageSize the size of the page in bytes
+     * @return The returned ByteArray.
+     */
+    static byte[] createPageData(List<byte[]> records, int pageSize) {
+        byte[] page = new byte[pageSize];
+        int end = pageSize;
+        writeShort(page, 0, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            byte[] record = records.get(i);
+            end -= record.length;
+            System.arraycopy(record, 0, page, end, record.length);
+            writeShort(page, HEADER_SIZE + i * SLOT_SIZE, end);
+            writeShort(page, HEADER_SIZE + i * SLOT_SIZE + 2, record.length);
+        }
+        return page;
+    }
+}
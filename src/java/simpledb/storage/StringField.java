@@ -4,6 +4,7 @@ import simpledb.common.Type;
 import simpledb.execution.Predicate;
 
 import java.io.*;
+import java.util.Arrays;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -14,6 +15,7 @@ public class StringField implements Field {
 
 	private final String value;
 	private final int maxSize;
+	private final Type type;
 
 	public String getValue() {
 		return value;
@@ -28,7 +30,25 @@ public class StringField implements Field {
 	 *            The maximum size of this string
 	 */
 	public StringField(String s, int maxSize) {
+		this(s, maxSize, Type.STRING_TYPE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param s
+	 *            The value of this field.
+	 * @param maxSize
+	 *            The maximum size of this string
+	 * @param type
+	 *            Type.STRING_TYPE or Type.VARCHAR_TYPE, which determines how
+	 *            this field is serialized
+	 */
+	public StringField(String s, int maxSize, Type type) {
+		if (type != Type.STRING_TYPE && type != Type.VARCHAR_TYPE)
+			throw new IllegalArgumentException("not a string type: " + type);
 		this.maxSize = maxSize;
+		this.type = type;
 
 		if (s.length() > maxSize)
 			value = s.substring(0, maxSize);
@@ -50,15 +70,24 @@ public class StringField implements Field {
 	}
 
 	/**
-	 * Write this string to dos. Always writes maxSize + 4 bytes to the passed
-	 * in dos. First four bytes are string length, next bytes are string, with
-	 * remainder padded with 0 to maxSize.
+	 * Write this string to dos. For Type.STRING_TYPE, always writes
+	 * maxSize + 4 bytes to the passed in dos. First four bytes are string
+	 * length, next bytes are string, with remainder padded with 0 to maxSize.
+	 * For Type.VARCHAR_TYPE, writes the length as two bytes followed by the
+	 * string, without padding.
 	 * 
 	 * @param dos
 	 *            Where the string is written
 	 */
 	public void serialize(DataOutputStream dos) throws IOException {
 		String s = value;
+		if (type == Type.VARCHAR_TYPE) {
+			if (s.length() > Type.STRING_LEN)
+				s = s.substring(0, Type.STRING_LEN);
+			dos.writeShort(s.length());
+			dos.writeBytes(s);
+			return;
+		}
 		int overflow = maxSize - s.length();
 		if (overflow < 0) {
             s = s.substring(0, maxSize);
@@ -69,6 +98,44 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write the bytes of this field, as by {@link #serialize(DataOutputStream)},
+	 * straight into a byte array.
+	 *
+	 * @param dst the array to write to
+	 * @param off the offset in dst to write the field at
+	 * @return the offset in dst just past the field
+	 */
+	int serialize(byte[] dst, int off) {
+		String s = value;
+		if (type == Type.VARCHAR_TYPE) {
+			if (s.length() > Type.STRING_LEN)
+				s = s.substring(0, Type.STRING_LEN);
+			dst[off++] = (byte) (s.length() >>> 8);
+			dst[off++] = (byte) s.length();
+			return writeBytes(s, dst, off);
+		}
+		if (s.length() > maxSize)
+			s = s.substring(0, maxSize);
+		int len = s.length();
+		dst[off++] = (byte) (len >>> 24);
+		dst[off++] = (byte) (len >>> 16);
+		dst[off++] = (byte) (len >>> 8);
+		dst[off++] = (byte) len;
+		off = writeBytes(s, dst, off);
+		Arrays.fill(dst, off, off + maxSize - len, (byte) 0);
+		return off + maxSize - len;
+	}
+
+	/**
+	 * Writes the low byte of each char of s, as DataOutputStream.writeBytes does.
+	 */
+	private static int writeBytes(String s, byte[] dst, int off) {
+		for (int i = 0; i < s.length(); i++)
+			dst[off++] = (byte) s.charAt(i);
+		return off;
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -113,6 +180,6 @@ public class StringField implements Field {
 	 */
 	public Type getType() {
 
-		return Type.STRING_TYPE;
+		return type;
 	}
 }
@@ -3,8 +3,16 @@ package simpledb.storage;
 import simpledb.common.Type;
 
 import javax.print.DocFlavor;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
@@ -19,6 +27,25 @@ public class Tuple implements Serializable {
 //    private List<Field> _fields;
     private Field[] _fields;
     private RecordId rid;
+    /** serialized record that unset fields are decoded from on first access, or null */
+    private transient byte[] data;
+    /** offset of this tuple's record within data */
+    private transient int offset;
+    /** schema the record in data is laid out by, unaffected by resetTupleDesc */
+    private transient TupleDesc layout;
+    /**
+     * offset within data of each field, for records with variable-length
+     * fields or whose fields are not stored together; null if the fields
+     * lie at their TupleDesc offsets from offset
+     */
+    private transient int[] starts;
+    /** whether this tuple is refilled in place by the iterator that returned it; see retain */
+    private transient boolean reused;
+    /** the INT fields of a reused tuple, set in place as it is refilled; null otherwise */
+    private transient IntField[] intFields;
+    /** page and slot a reused tuple was read from, made into a RecordId on demand */
+    private transient PageId ridPage;
+    private transient int ridSlot;
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -34,6 +61,156 @@ public class Tuple implements Serializable {
         _fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are decoded lazily from a serialized
+     * record, laid out as by {@link Field#serialize} in TupleDesc order. A
+     * field is only materialized when {@link #getField} is first called for
+     * it, so operators that look at one or two columns do not pay for the
+     * rest. The record bytes must not change while this tuple is in use.
+     *
+     * @param td
+     *            the schema of this tuple.
+     * @param data
+     *            the bytes holding the record, e.g. the raw data of a page.
+     * @param offset
+     *            the offset of the record within data.
+     */
+    Tuple(TupleDesc td, byte[] data, int offset) {
+        this(td);
+        this.data = data;
+        this.offset = offset;
+        this.layout = td;
+        locateFields();
+    }
+
+    /**
+     * Finds the field boundaries of a record with variable-length fields
+     * from the length of each field.
+     */
+    private void locateFields() {
+        if(layout.isFixedLength()) {
+            starts = null;
+            return;
+        }
+        if(starts == null) {
+            starts = new int[layout.numFields()];
+        }
+        starts[0] = offset;
+        for (int i = 1; i < layout.numFields(); i++) {
+            starts[i] = starts[i - 1] + layout.getFieldType(i - 1).getLen(data, starts[i - 1]);
+        }
+    }
+
+    /**
+     * Create a tuple that an iterator refills in place for every row it
+     * returns, rather than creating a tuple per row. Its INT fields are
+     * also set in place.
+     *
+     * @see TupleRing
+     */
+    static Tuple reusable(TupleDesc td) {
+        Tuple t = new Tuple(td);
+        t.reused = true;
+        t.layout = td;
+        t.intFields = new IntField[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            if(td.getFieldType(i) == Type.INT_TYPE) {
+                t.intFields[i] = new IntField();
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Refill a reused tuple with the record at offset in data, laid out as
+     * by {@link Field#serialize} in TupleDesc order. Its fields are decoded
+     * lazily, as for {@link #Tuple(TupleDesc, byte[], int)}.
+     *
+     * @param pid the page the record is on
+     * @param slot the slot of the record on that page
+     */
+    void bind(byte[] data, int offset, PageId pid, int slot) {
+        Arrays.fill(_fields, null);
+        this.data = data;
+        this.offset = offset;
+        locateFields();
+        this.rid = null;
+        this.ridPage = pid;
+        this.ridSlot = slot;
+    }
+
+    /**
+     * @return whether this tuple is refilled in place by the iterator that
+     *         returned it, so that it has to be retained to be kept.
+     */
+    public boolean isReused() {
+        return reused;
+    }
+
+    /**
+     * Returns a tuple with the contents of this one that can be kept after
+     * the iterator that returned this one moves on. Tuples returned by an
+     * iterator in reusable-row mode, such as a {@link
+     * simpledb.execution.SeqScan#setReuseTuples reusing SeqScan}, are
+     * refilled in place with the next row, and so are their INT fields,
+     * which can also end up in tuples built from them. Operators that keep
+     * tuples or fields across rows, such as OrderBy, the build side of
+     * HashEquiJoin and the aggregators, keep the result of retain (or of
+     * {@link #retainField}) instead; this tuple is returned as is if it is
+     * safe to keep.
+     *
+     * @return this tuple, or a copy of it that owns its fields
+     */
+    public Tuple retain() {
+        boolean shared = reused;
+        for (int i = 0; !shared && i < _fields.length; i++) {
+            shared = _fields[i] instanceof IntField && ((IntField) _fields[i]).shared;
+        }
+        if(!shared) {
+            return this;
+        }
+        Tuple copy = new Tuple(_schema);
+        for (int i = 0; i < _fields.length; i++) {
+            copy._fields[i] = retainField(i);
+        }
+        copy.rid = getRecordId();
+        return copy;
+    }
+
+    /**
+     * Returns the ith field in a form that can be kept after this tuple, or
+     * the tuple it came from, is refilled; see {@link #retain}.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public Field retainField(int i) {
+        Field f = getField(i);
+        if(f instanceof IntField && ((IntField) f).shared) {
+            return new IntField(((IntField) f).getValue());
+        }
+        return f;
+    }
+
+    /**
+     * Create a tuple whose fields are decoded lazily, as by
+     * {@link #Tuple(TupleDesc, byte[], int)}, from serialized fields that are
+     * not stored next to each other, such as the columns of a PaxPage.
+     *
+     * @param td
+     *            the schema of this tuple.
+     * @param data
+     *            the bytes holding the fields, e.g. the raw data of a page.
+     * @param starts
+     *            the offset of each field within data.
+     */
+    Tuple(TupleDesc td, byte[] data, int[] starts) {
+        this(td);
+        this.data = data;
+        this.layout = td;
+        this.starts = starts;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -48,6 +225,9 @@ public class Tuple implements Serializable {
      */
     public RecordId getRecordId() {
         // some code goes here
+        if(rid == null && ridPage != null) {
+            rid = new RecordId(ridPage, ridSlot);
+        }
         return rid;
     }
 
@@ -60,6 +240,7 @@ public class Tuple implements Serializable {
     public void setRecordId(RecordId rid) {
         // some code goes here
         this.rid = rid;
+        this.ridPage = null;
     }
 
     /**
@@ -83,7 +264,108 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return _fields[i];
+        Field f = _fields[i];
+        if(f == null && data != null) {
+            f = decodeField(i);
+            _fields[i] = f;
+        }
+        return f;
+    }
+
+    /**
+     * Decode the ith field from the serialized record backing this tuple.
+     */
+    private Field decodeField(int i) {
+        Type type = layout.getFieldType(i);
+        if(type == Type.INT_TYPE) {
+            // straight from the bytes, without wrapping them in a buffer
+            int p = fieldStart(i);
+            int v = (data[p] & 0xff) << 24 | (data[p + 1] & 0xff) << 16
+                    | (data[p + 2] & 0xff) << 8 | (data[p + 3] & 0xff);
+            if(intFields != null) {
+                intFields[i].setValue(v);
+                return intFields[i];
+            }
+            return new IntField(v);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data, fieldStart(i), fieldLen(i));
+        try {
+            return layout.getFieldType(i).parse(buf);
+        } catch (ParseException e) {
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * @return the offset of the ith field of the record in data.
+     */
+    private int fieldStart(int i) {
+        return starts != null ? starts[i] : offset + layout.getFieldOffset(i);
+    }
+
+    /**
+     * @return the number of bytes the ith field takes in the record in data.
+     */
+    private int fieldLen(int i) {
+        return layout.getFieldType(i).getLen(data, fieldStart(i));
+    }
+
+    /**
+     * @return whether the ith field has been set or decoded, so that
+     *         {@link #getField} returns it without touching the record.
+     */
+    boolean hasField(int i) {
+        return _fields[i] != null;
+    }
+
+    /**
+     * Write this tuple in its serialized form straight into a byte array.
+     * Fields that have not been materialized are copied straight from the
+     * record backing this tuple.
+     *
+     * @param dst the array to write to
+     * @param off the offset in dst to write the tuple at
+     * @return the offset in dst just past the tuple
+     */
+    int serialize(byte[] dst, int off) {
+        for(int i = 0; i < _fields.length; i++) {
+            off = serializeField(i, dst, off);
+        }
+        return off;
+    }
+
+    /**
+     * Write the ith field of this tuple in its serialized form straight
+     * into a byte array, copied from the record backing this tuple if it is
+     * not materialized.
+     *
+     * @param i index of the field to write
+     * @param dst the array to write to
+     * @param off the offset in dst to write the field at
+     * @return the offset in dst just past the field
+     */
+    int serializeField(int i, byte[] dst, int off) {
+        Field f = _fields[i];
+        if(f == null && data != null) {
+            int len = fieldLen(i);
+            System.arraycopy(data, fieldStart(i), dst, off, len);
+            return off + len;
+        }
+        if(f instanceof IntField) {
+            return ((IntField) f).serialize(dst, off);
+        }
+        if(f instanceof StringField) {
+            return ((StringField) f).serialize(dst, off);
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            f.serialize(new DataOutputStream(baos));
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new RuntimeException(e);
+        }
+        System.arraycopy(baos.toByteArray(), 0, dst, off, baos.size());
+        return off + baos.size();
     }
 
     /**
@@ -98,12 +380,12 @@ public class Tuple implements Serializable {
         // some code goes here
 //        throw new UnsupportedOperationException("Implement this");
         StringBuilder res = new StringBuilder();
-        for(Field field : _fields) {
-            Type type = field.getType();
-            if("INT_TYPE".equals(type.name())){
+        for(int i = 0; i < _fields.length; i++) {
+            Field field = getField(i);
+            if(field instanceof IntField){
                 IntField intField = (IntField)field;
                 res.append(intField.getValue()).append("\t");
-            }else if("STRING_TYPE".equals(type.name())){
+            }else if(field instanceof StringField){
                 StringField stringField = (StringField)field;
                 res.append(stringField.getValue()).append("\t");
             }
@@ -125,7 +407,7 @@ public class Tuple implements Serializable {
 
         @Override
         public Field next() {
-            return _fields[curIdx++];
+            return getField(curIdx++);
         }
     }
     /**
@@ -140,6 +422,17 @@ public class Tuple implements Serializable {
         return new FieldIterator();
     }
 
+    /**
+     * Materialize any lazily decoded fields before Java serialization, since
+     * the backing record is not serialized with the tuple.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        for(int i = 0; _fields != null && i < _fields.length; i++) {
+            getField(i);
+        }
+        out.defaultWriteObject();
+    }
+
     /**
      * reset the TupleDesc of this tuple (only affecting the TupleDesc)
      * */
@@ -0,0 +1,103 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * TupleBatch is a reusable, growable array of tuples, passed between
+ * iterators that produce tuples a batch at a time. An iterator keeps one
+ * batch and refills it on every call to nextBatch, so a consumer must be
+ * done with a batch (but not with the tuples in it) before asking for the
+ * next one.
+ *
+ * @see DbFileIterator#nextBatch
+ * @see simpledb.execution.OpIterator#nextBatch
+ */
+public class TupleBatch implements Iterable<Tuple> {
+
+    /** Number of tuples consumers ask for when they have no better idea. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private Tuple[] tuples;
+    private int size;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param capacity the number of tuples the batch holds before it grows
+     */
+    public TupleBatch(int capacity) {
+        this.tuples = new Tuple[Math.max(1, capacity)];
+    }
+
+    /**
+     * @return the number of tuples in the batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the batch holds no tuples.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param i the index of the tuple, from 0 to size() - 1
+     * @return the i-th tuple in the batch
+     */
+    public Tuple get(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+        return tuples[i];
+    }
+
+    /**
+     * @return whether the batch holds reused tuples (see {@link Tuple#isReused}),
+     *         which the iterator that returned them refills as it reads on.
+     *         Operators filling a batch from their child's batches return it
+     *         before reading the child again if it does.
+     */
+    public boolean isReused() {
+        return size > 0 && tuples[size - 1].isReused();
+    }
+
+    /**
+     * Appends a tuple to the batch, growing it if it is full.
+     */
+    public void add(Tuple t) {
+        if (size == tuples.length)
+            tuples = Arrays.copyOf(tuples, size * 2);
+        tuples[size++] = t;
+    }
+
+    /**
+     * Empties the batch, for reuse.
+     */
+    public void clear() {
+        Arrays.fill(tuples, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * @return an iterator over the tuples in the batch.
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int i = 0;
+
+            public boolean hasNext() {
+                return i < size;
+            }
+
+            public Tuple next() {
+                if (i >= size)
+                    throw new NoSuchElementException();
+                return tuples[i++];
+            }
+        };
+    }
+}
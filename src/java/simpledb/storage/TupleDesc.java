@@ -12,6 +12,8 @@ public class TupleDesc implements Serializable {
 
     private List<TDItem> _items;
     private int _numFields;
+    /** byte offset of each field in a serialized tuple, followed by the tuple size; computed on first use */
+    private transient int[] _offsets;
 
     /**
      * A help class to facilitate organizing the information of each field
@@ -161,20 +163,74 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Note that tuples from a given TupleDesc are of a fixed size,
+     *         unless it has variable-length fields, in which case this is
+     *         the size of the largest tuple.
      */
     public int getSize() {
         // some code goes here
-        int size = 0;
+        return offsets()[_numFields];
+    }
+
+    /**
+     * @return whether all fields of this TupleDesc have a fixed-length type,
+     *         so that every tuple takes exactly {@link #getSize()} bytes.
+     */
+    public boolean isFixedLength() {
         for (TDItem item : _items) {
-            Type fieldType = item.fieldType;
-//            String fieldName = item.fieldName;
-            size += fieldType.getLen();
-//            size += fieldName.length();
+            if (!item.fieldType.isFixedLength())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The size (in bytes) of the specified tuple of this TupleDesc
+     *         when serialized, which is less than {@link #getSize()} if it
+     *         has variable-length fields that are not at their largest.
+     * @param t a tuple with this TupleDesc
+     */
+    public int getSize(Tuple t) {
+        if (isFixedLength())
+            return getSize();
+        int size = 0;
+        for (int i = 0; i < _numFields; i++) {
+            size += _items.get(i).fieldType.getLen(t.getField(i));
         }
         return size;
     }
 
+    /**
+     * Gets the byte offset of the ith field within a serialized tuple of
+     * this TupleDesc, i.e. the total size of the fields before it. With
+     * variable-length fields this is the offset when all earlier fields are
+     * at their largest.
+     *
+     * @param i
+     *            index of the field. It must be a valid index.
+     * @return the offset of the ith field in bytes
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        if(i >= numFields()){
+            throw new NoSuchElementException();
+        }
+        return offsets()[i];
+    }
+
+    private int[] offsets() {
+        int[] offsets = _offsets;
+        if(offsets == null) {
+            offsets = new int[_numFields + 1];
+            for (int i = 0; i < _numFields; i++) {
+                offsets[i + 1] = offsets[i] + _items.get(i).fieldType.getLen();
+            }
+            _offsets = offsets;
+        }
+        return offsets;
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
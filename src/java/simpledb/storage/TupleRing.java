@@ -0,0 +1,69 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+
+/**
+ * TupleRing is a schema-bound buffer of reusable tuples, for iterators that
+ * refill tuples in place instead of creating one per row. The tuples are
+ * handed out in turn, so a tuple is only refilled once every other tuple in
+ * the ring has been handed out since; an iterator returning batches of up
+ * to n tuples makes sure the ring holds more than n.
+ * <p>
+ * Consumers of reused tuples must not keep them, or their INT fields, past
+ * the next call to the iterator that returned them; see {@link Tuple#retain}.
+ *
+ * @see simpledb.execution.SeqScan#setReuseTuples
+ */
+public class TupleRing {
+
+    private final TupleDesc td;
+    private Tuple[] tuples;
+    /** the index of the tuple handed out next */
+    private int next = 0;
+
+    /**
+     * Creates a ring of two tuples, enough for an iterator that looks one
+     * tuple ahead.
+     *
+     * @param td the schema of the tuples
+     */
+    public TupleRing(TupleDesc td) {
+        this.td = td;
+        this.tuples = new Tuple[0];
+        ensureCapacity(2);
+    }
+
+    /**
+     * Grows the ring to hold at least n tuples. The tuples handed out most
+     * recently are still the last to be handed out again.
+     */
+    public void ensureCapacity(int n) {
+        if (n <= tuples.length)
+            return;
+        int old = tuples.length;
+        // the new tuples go first, before the ones handed out from next on
+        Tuple[] grown = Arrays.copyOf(tuples, n);
+        System.arraycopy(tuples, next, grown, n - (old - next), old - next);
+        for (int i = next; i < next + n - old; i++)
+            grown[i] = Tuple.reusable(td);
+        tuples = grown;
+    }
+
+    /**
+     * Returns the next tuple in the ring to refill. It still holds the row
+     * it was last filled with, which the caller overwrites.
+     */
+    public Tuple next() {
+        Tuple t = tuples[next];
+        next = (next + 1) % tuples.length;
+        return t;
+    }
+
+    /**
+     * Gives back the tuple last returned by {@link #next}, which the caller
+     * has no use for, so that it is the next one refilled.
+     */
+    public void putBack() {
+        next = (next + tuples.length - 1) % tuples.length;
+    }
+}
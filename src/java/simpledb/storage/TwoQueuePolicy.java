@@ -0,0 +1,114 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * TwoQueuePolicy is the full version of 2Q (Johnson and Shasha, VLDB '94).
+ * A page entering the pool goes to A1in, a FIFO of pages seen once. When it
+ * is evicted from A1in its id is remembered in A1out, and if it enters the
+ * pool again while still remembered it has proven itself, and goes to Am,
+ * an LRU list of the hot pages. A sequential scan only ever cycles its
+ * pages through A1in, so it cannot evict the pages of Am.
+ * <p>
+ * The paper leaves a page in A1in however often it is referenced there, so
+ * that the burst of references a scan makes to each page does not make it
+ * hot. Scans here ask the BufferPool for each page once, so a page
+ * referenced a second time while in A1in goes to Am straight away; that
+ * way a small table used over and over becomes hot even when the pool is
+ * never full enough to push it out of A1in first.
+ * <p>
+ * A1in is kept to a quarter of the pool and A1out remembers as many pages
+ * as half the pool holds, the sizes the paper recommends. Every list is a
+ * linked hash set or map, so every call takes constant time, apart from
+ * skipping pages that may not be evicted.
+ *
+ * @see ReplacementPolicy.Kind#TWO_QUEUE
+ * @Threadsafe
+ */
+class TwoQueuePolicy implements ReplacementPolicy {
+
+    private final int maxIn;
+    private final int maxOut;
+    /** pages in the pool seen once recently, oldest first, and whether they were referenced */
+    private final LinkedHashMap<PageId,Boolean> in = new LinkedHashMap<>();
+    /** pages evicted from in, which are no longer in the pool, oldest first */
+    private final LinkedHashSet<PageId> out = new LinkedHashSet<>();
+    /** hot pages in the pool, least recently referenced first */
+    private final LinkedHashSet<PageId> hot = new LinkedHashSet<>();
+
+    /**
+     * @param numPages the number of pages of the default size the pool holds
+     */
+    TwoQueuePolicy(int numPages) {
+        this.maxIn = Math.max(1, numPages / 4);
+        this.maxOut = Math.max(1, numPages / 2);
+    }
+
+    @Override
+    public synchronized void admit(PageId pid) {
+        if (in.containsKey(pid) || hot.contains(pid))
+            return;
+        if (out.remove(pid))
+            hot.add(pid);
+        else
+            in.put(pid, false);
+    }
+
+    @Override
+    public synchronized void access(PageId pid) {
+        if (hot.remove(pid)) {
+            hot.add(pid);
+        } else if (in.containsKey(pid)) {
+            if (in.put(pid, true)) {
+                in.remove(pid);
+                hot.add(pid);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void remove(PageId pid) {
+        in.remove(pid);
+        hot.remove(pid);
+        out.remove(pid);
+    }
+
+    @Override
+    public synchronized PageId victim(Predicate<PageId> evictable) {
+        PageId pid = null;
+        // A1in gives up its pages once it is over its share, or if it has
+        // to; Am gives up its pages otherwise
+        if (in.size() > maxIn || hot.isEmpty())
+            pid = take(in.keySet(), evictable);
+        if (pid == null) {
+            pid = take(hot, evictable);
+            if (pid != null)
+                return pid;
+            pid = take(in.keySet(), evictable);
+        }
+        if (pid != null) {
+            out.add(pid);
+            if (out.size() > maxOut) {
+                Iterator<PageId> oldest = out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        return pid;
+    }
+
+    private static PageId take(Set<PageId> pages, Predicate<PageId> evictable) {
+        for (Iterator<PageId> it = pages.iterator(); it.hasNext(); ) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+}
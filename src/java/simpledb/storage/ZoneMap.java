@@ -0,0 +1,389 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+
+/**
+ * ZoneMap keeps the smallest and largest value of each INT field on each
+ * page of a HeapFile, so that a scan with a predicate on an INT field can
+ * skip the pages whose range of values cannot satisfy it without reading
+ * them. This pays off on fields whose values are clustered by page, such as
+ * timestamps or keys of a table that is appended to in order.
+ * <p>
+ * Unlike the free space map, the zone map is not a hint: a page must never
+ * hold a value outside its recorded range. The range of a page follows the
+ * pages in the buffer pool, widening as tuples are inserted, and is written
+ * as it stands when the page is written, without decoding the page again.
+ * Deleting tuples leaves the range wider than it needs to be, so a page with
+ * deletes is marked stale, and its range is made exact from its tuples when
+ * it is next written; so is the range of a page whose image is installed
+ * from the log, which may hold tuples the map never saw inserted. Pages the
+ * map knows nothing about, such as those written by HeapFileEncoder, are
+ * never skipped; their range is learned the first time they are read or
+ * written.
+ * <p>
+ * The map is persisted in a sidecar file next to the table (the table's file
+ * name with ".zmap" appended). The sidecar holds the number of pages it
+ * covers as an int, followed by one entry per page: the smallest and the
+ * largest value of each INT field, in field order, as pairs of ints. A page
+ * with no tuples has a smallest value greater than its largest, and a page
+ * whose range is not known has the range of all ints. The entry of a page
+ * that is rewritten with values outside its recorded range is widened before
+ * the page is written, so the sidecar covers the page on disk at all times.
+ *
+ * @see HeapFile.HeapFileIterator
+ * @Threadsafe
+ */
+class ZoneMap {
+
+    private static final int HEADER_SIZE = 4;
+
+    private final DbFileChannel sidecar;
+    /** the INT fields the map keeps ranges for */
+    private final int[] fields;
+
+    /** ranges of the first known pages, as (min, max) pairs per field and page */
+    private int[] ranges = new int[0];
+    /** number of pages the map has ranges for */
+    private int known;
+    /** ranges as recorded in the sidecar, which can be narrower than those in memory */
+    private int[] persistedRanges = new int[0];
+    /** number of pages covered by the sidecar on disk */
+    private int persisted;
+    /** pages whose ranges must be computed from their tuples when they are next written */
+    private final BitSet stale = new BitSet();
+    /** pages widened since a write of theirs started */
+    private final BitSet grown = new BitSet();
+    private boolean loaded = false;
+
+    /**
+     * @param f the file backing the HeapFile this map describes
+     * @param td the schema of the HeapFile
+     */
+    ZoneMap(File f, TupleDesc td) {
+        this.sidecar = new DbFileChannel(new File(f.getPath() + ".zmap"));
+        int n = 0;
+        int[] ints = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[n++] = i;
+        }
+        this.fields = Arrays.copyOf(ints, n);
+    }
+
+    /**
+     * Deletes the sidecar of a table file that is being rewritten from
+     * scratch, so that the new pages are not judged by the old file's map.
+     *
+     * @param f the file backing a HeapFile
+     */
+    static void discard(File f) {
+        new File(f.getPath() + ".zmap").delete();
+    }
+
+    /**
+     * @return whether the table has INT fields to keep ranges for.
+     */
+    boolean isEmpty() {
+        return fields.length == 0;
+    }
+
+    private int entrySize() {
+        return fields.length * 2;
+    }
+
+    /**
+     * Reads the sidecar on first use. A sidecar that is missing or
+     * unreadable leaves every page unknown.
+     */
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        try {
+            byte[] head = new byte[HEADER_SIZE];
+            if (sidecar.read(head, 0) < HEADER_SIZE)
+                return;
+            int pages = Math.max(0, ByteBuffer.wrap(head).getInt());
+            byte[] entries = new byte[pages * entrySize() * 4];
+            int read = sidecar.read(entries, HEADER_SIZE);
+            // a truncated sidecar only covers the pages it has entries for
+            pages = Math.min(pages, read / (entrySize() * 4));
+            ensureCapacity(pages);
+            ByteBuffer.wrap(entries).asIntBuffer().get(ranges, 0, pages * entrySize());
+            System.arraycopy(ranges, 0, persistedRanges, 0, pages * entrySize());
+            known = pages;
+            persisted = pages;
+        } catch (NoSuchFileException e) {
+            // a table that has never been written has no sidecar
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void ensureCapacity(int pages) {
+        int n = pages * entrySize();
+        if (n <= ranges.length)
+            return;
+        n = Math.max(n, ranges.length * 2);
+        ranges = Arrays.copyOf(ranges, n);
+        persistedRanges = Arrays.copyOf(persistedRanges, n);
+    }
+
+    /**
+     * Marks the pages from known up to pageNo as having unknown ranges.
+     */
+    private void extendTo(int pageNo) {
+        if (pageNo < known)
+            return;
+        ensureCapacity(pageNo + 1);
+        for (int i = known * entrySize(); i < (pageNo + 1) * entrySize(); i += 2) {
+            ranges[i] = Integer.MIN_VALUE;
+            ranges[i + 1] = Integer.MAX_VALUE;
+        }
+        known = pageNo + 1;
+    }
+
+    /**
+     * Computes the exact ranges of the INT fields of a page's tuples, in the
+     * form taken by {@link #update} and {@link #persist}.
+     *
+     * @param tuples the tuples of the page
+     */
+    int[] rangesOf(Iterator<Tuple> tuples) {
+        int[] r = new int[entrySize()];
+        for (int i = 0; i < r.length; i += 2) {
+            r[i] = Integer.MAX_VALUE;
+            r[i + 1] = Integer.MIN_VALUE;
+        }
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            for (int i = 0; i < fields.length; i++) {
+                int v = ((IntField) t.getField(fields[i])).getValue();
+                r[2 * i] = Math.min(r[2 * i], v);
+                r[2 * i + 1] = Math.max(r[2 * i + 1], v);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * @return whether the map has ranges for the specified page.
+     */
+    synchronized boolean isKnown(int pageNo) {
+        load();
+        return pageNo < known && !isUnknown(ranges, pageNo);
+    }
+
+    /**
+     * Widens the ranges of a page to cover a tuple inserted into it.
+     */
+    synchronized void widen(int pageNo, Tuple t) {
+        load();
+        grown.set(pageNo);
+        if (pageNo >= known)
+            return; // unknown pages already cover every value
+        int base = pageNo * entrySize();
+        for (int i = 0; i < fields.length; i++) {
+            int v = ((IntField) t.getField(fields[i])).getValue();
+            ranges[base + 2 * i] = Math.min(ranges[base + 2 * i], v);
+            ranges[base + 2 * i + 1] = Math.max(ranges[base + 2 * i + 1], v);
+        }
+    }
+
+    /**
+     * Marks a page stale, as one that had tuples deleted or was overwritten
+     * by an image from the log, so that its ranges are computed from its
+     * tuples when it is next written.
+     */
+    synchronized void invalidate(int pageNo) {
+        stale.set(pageNo);
+    }
+
+    /**
+     * Starts the write of a page, returning its ranges as the map has
+     * followed them if they need not be computed from its tuples.
+     *
+     * @return a copy of the ranges, or null if they are unknown or stale
+     */
+    synchronized int[] startWrite(int pageNo) {
+        load();
+        grown.clear(pageNo);
+        if (pageNo >= known || stale.get(pageNo) || isUnknown(ranges, pageNo))
+            return null;
+        int base = pageNo * entrySize();
+        return Arrays.copyOfRange(ranges, base, base + entrySize());
+    }
+
+    /**
+     * Records the exact ranges of a page that has been read from disk, and
+     * persists them if the sidecar does not know the page's ranges yet.
+     */
+    synchronized void update(int pageNo, int[] pageRanges) throws IOException {
+        load();
+        extendTo(pageNo);
+        System.arraycopy(pageRanges, 0, ranges, pageNo * entrySize(), entrySize());
+        stale.clear(pageNo);
+        if (pageNo >= persisted || isUnknown(persistedRanges, pageNo))
+            write(pageNo, pageRanges);
+    }
+
+    /**
+     * @return whether the entry of a page has the range of all ints for
+     *         every field, as pages whose ranges are not known do.
+     */
+    private boolean isUnknown(int[] r, int pageNo) {
+        int base = pageNo * entrySize();
+        for (int i = 0; i < entrySize(); i += 2) {
+            if (r[base + i] != Integer.MIN_VALUE || r[base + i + 1] != Integer.MAX_VALUE)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Makes the sidecar cover a page that is about to be written to disk
+     * with the specified ranges, widening its entry if the page gains values
+     * outside the recorded ranges.
+     */
+    synchronized void prepare(int pageNo, int[] pageRanges) throws IOException {
+        load();
+        // pages past the end of the sidecar are unknown until their entry is written
+        if (pageNo >= persisted)
+            return;
+        int base = pageNo * entrySize();
+        int[] widened = Arrays.copyOfRange(persistedRanges, base, base + entrySize());
+        boolean grown = false;
+        for (int i = 0; i < widened.length; i += 2) {
+            if (pageRanges[i] > pageRanges[i + 1])
+                continue; // no tuples
+            if (pageRanges[i] < widened[i] || pageRanges[i + 1] > widened[i + 1]) {
+                widened[i] = Math.min(widened[i], pageRanges[i]);
+                widened[i + 1] = Math.max(widened[i + 1], pageRanges[i + 1]);
+                grown = true;
+            }
+        }
+        if (grown)
+            write(pageNo, widened);
+    }
+
+    /**
+     * Records the exact ranges of a page that has been written to disk, and
+     * persists its entry in the sidecar. Ranges widened by tuples inserted
+     * into the page since its write started stay as wide in memory.
+     *
+     * @see #startWrite
+     */
+    synchronized void persist(int pageNo, int[] pageRanges) throws IOException {
+        load();
+        extendTo(pageNo);
+        int base = pageNo * entrySize();
+        if (grown.get(pageNo)) {
+            for (int i = 0; i < entrySize(); i += 2) {
+                ranges[base + i] = Math.min(ranges[base + i], pageRanges[i]);
+                ranges[base + i + 1] = Math.max(ranges[base + i + 1], pageRanges[i + 1]);
+            }
+        } else {
+            System.arraycopy(pageRanges, 0, ranges, base, entrySize());
+        }
+        stale.clear(pageNo);
+        if (pageNo >= persisted
+                || !Arrays.equals(Arrays.copyOfRange(persistedRanges, base, base + entrySize()), pageRanges))
+            write(pageNo, pageRanges);
+    }
+
+    /**
+     * Writes the entry of a page to the sidecar, filling the entries of any
+     * pages between the end of the sidecar and the page with unknown ranges.
+     */
+    private void write(int pageNo, int[] pageRanges) throws IOException {
+        int from = Math.min(persisted, pageNo);
+        ByteBuffer entries = ByteBuffer.allocate((pageNo + 1 - from) * entrySize() * 4);
+        for (int p = from; p < pageNo; p++) {
+            for (int i = 0; i < entrySize(); i += 2)
+                entries.putInt(Integer.MIN_VALUE).putInt(Integer.MAX_VALUE);
+        }
+        for (int v : pageRanges)
+            entries.putInt(v);
+        sidecar.write(entries.array(), HEADER_SIZE + (long) from * entrySize() * 4);
+        ensureCapacity(pageNo + 1);
+        entries.flip();
+        entries.asIntBuffer().get(persistedRanges, from * entrySize(), (pageNo + 1 - from) * entrySize());
+        if (persisted <= pageNo) {
+            persisted = pageNo + 1;
+            sidecar.write(ByteBuffer.allocate(HEADER_SIZE).putInt(persisted).array(), 0);
+        }
+    }
+
+    /**
+     * Returns whether a page may hold a tuple satisfying a predicate. Pages
+     * with unknown ranges, and predicates on fields other than INT fields,
+     * always may.
+     *
+     * @param pageNo the page to check
+     * @param p the predicate; its operand is compared to the page's values
+     */
+    synchronized boolean mayMatch(int pageNo, Predicate p) {
+        load();
+        if (pageNo >= known || !(p.getOperand() instanceof IntField))
+            return true;
+        int i = Arrays.binarySearch(fields, p.getField());
+        if (i < 0)
+            return true;
+        int min = ranges[pageNo * entrySize() + 2 * i];
+        int max = ranges[pageNo * entrySize() + 2 * i + 1];
+        if (min > max)
+            return false; // no tuples
+        int v = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                return min <= v && v <= max;
+            case NOT_EQUALS:
+                return min != v || max != v;
+            case GREATER_THAN:
+                return max > v;
+            case GREATER_THAN_OR_EQ:
+                return max >= v;
+            case LESS_THAN:
+                return min < v;
+            case LESS_THAN_OR_EQ:
+                return min <= v;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Forgets the pages at and after the specified page, which have been cut
+     * off the end of the file, and cuts their entries off the sidecar.
+     *
+     * @param numPages the number of pages left in the file
+     */
+    synchronized void truncate(int numPages) throws IOException {
+        load();
+        known = Math.min(known, numPages);
+        stale.clear(numPages, Math.max(numPages, stale.length()));
+        grown.clear(numPages, Math.max(numPages, grown.length()));
+        if (persisted > known) {
+            persisted = known;
+            sidecar.write(ByteBuffer.allocate(HEADER_SIZE).putInt(persisted).array(), 0);
+            sidecar.truncate(HEADER_SIZE + (long) persisted * entrySize() * 4);
+        }
+    }
+
+    /**
+     * Closes the sidecar file; it is reopened on demand.
+     */
+    void close() {
+        sidecar.close();
+    }
+}
@@ -107,8 +107,13 @@ public class LockManager {
                         }
                         if (pageLocks.size() > 1){
                             // 该page 上还有其他事务的读锁，则不能升级
+                            // wait-die: the oldest reader waits for the others to
+                            // finish, the younger ones abort, so that readers
+                            // upgrading at once cannot keep aborting each other
+                            if (isOldest(tid, pageLocks)) {
+                                return false;
+                            }
 //                            System.out.println(thread + ": the " + pid + " have many read locks, transaction" + tid + " require write lock, abort!!!");
-//                            return false;
                             throw new TransactionAbortedException();
                         }
                     }
@@ -124,6 +129,15 @@ public class LockManager {
             return false;
     }
 
+    private static boolean isOldest(TransactionId tid, Map<TransactionId, PageLock> pageLocks) {
+        for (TransactionId other : pageLocks.keySet()) {
+            if (other.getId() < tid.getId()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public synchronized boolean releaseLock(PageId pid) {
         lockMap.remove(pid);
         return true;
@@ -53,8 +53,8 @@ public class Transaction {
             // Release locks and flush pages if needed
             Database.getBufferPool().transactionComplete(tid, !abort); // release locks
 
-            // write commit log record
-            if (!abort) {
+            // write commit log record, unless a NO-FORCE commit has
+            if (!abort && Database.getLogFile().isLive(tid)) {
             	Database.getLogFile().logCommit(tid);
             }
 
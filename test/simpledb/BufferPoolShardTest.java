@@ -0,0 +1,153 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolShardTest extends SimpleDbTestBase {
+
+    /** tuples of two int fields on a page */
+    private static final int TUPLES_PER_PAGE = 504;
+    private static final int PAGES = 64;
+    private static final int SHARDS = 4;
+    private static final int THREADS = 8;
+
+    private static class SlowHeapFile extends TestUtil.RecordingHeapFile {
+        final AtomicInteger reading = new AtomicInteger();
+        final AtomicInteger maxReading = new AtomicInteger();
+        /** readPage waits here, if set, until as many readers arrive */
+        volatile CyclicBarrier barrier;
+
+        SlowHeapFile(File f) {
+            super(f, Utility.getTupleDesc(2));
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            maxReading.accumulateAndGet(reading.incrementAndGet(), Math::max);
+            try {
+                if (barrier != null)
+                    barrier.await(5, TimeUnit.SECONDS);
+                else
+                    Thread.sleep(50);
+            } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+                // the readers did not overlap, which maxReading shows
+            } finally {
+                reading.decrementAndGet();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private SlowHeapFile table;
+
+    @Before public void setUp() throws Exception {
+        File f = SystemTestUtil.createTempTableFile("shards");
+        HeapFileEncoder.convert(SystemTestUtil.sequentialTuples(0, PAGES * TUPLES_PER_PAGE), f,
+                BufferPool.getPageSize(), 2);
+        table = new SlowHeapFile(f);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        Database.resetBufferPool(PAGES, BufferPool.DEFAULT_REPLACEMENT, SHARDS);
+    }
+
+    @After public void tearDown() {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Runs a task on each of THREADS threads at once, each with its own
+     * transaction, and returns what they returned.
+     */
+    private static List<Page> concurrently(Callable<Page>[] tasks) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(tasks.length);
+        try {
+            List<Future<Page>> futures = pool.invokeAll(Arrays.asList(tasks));
+            List<Page> pages = new ArrayList<>();
+            for (Future<Page> f : futures)
+                pages.add(f.get());
+            return pages;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Callable<Page>[] getPages(int[] pageNos) {
+        Callable<Page>[] tasks = new Callable[pageNos.length];
+        for (int i = 0; i < pageNos.length; i++) {
+            PageId pid = new HeapPageId(table.getId(), pageNos[i]);
+            tasks[i] = () -> {
+                TransactionId tid = new TransactionId();
+                Page p = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                Database.getBufferPool().transactionComplete(tid);
+                return p;
+            };
+        }
+        return tasks;
+    }
+
+    /**
+     * Threads missing on the same page at once read it once, and all get
+     * the same copy
+     */
+    @Test public void sameMissLoadsOnce() throws Exception {
+        List<Page> pages = concurrently(getPages(new int[THREADS]));
+        assertEquals(1, table.reads.get());
+        for (Page p : pages)
+            assertSame(pages.get(0), p);
+    }
+
+    /**
+     * Misses on different pages are read in parallel
+     */
+    @Test public void missesOverlap() throws Exception {
+        table.barrier = new CyclicBarrier(THREADS);
+        int[] pageNos = new int[THREADS];
+        for (int i = 0; i < THREADS; i++)
+            pageNos[i] = i;
+        concurrently(getPages(pageNos));
+        assertEquals(THREADS, table.reads.get());
+        assertEquals(THREADS, table.maxReading.get());
+    }
+
+    /**
+     * The shards share the pool's budget, so a table as large as the pool
+     * fits in it however its pages hash
+     */
+    @Test public void sharedBudget() throws Exception {
+        assertEquals(SHARDS, Database.getBufferPool().getNumShards());
+        for (int i = 0; i < 2; i++)
+            assertEquals(PAGES * TUPLES_PER_PAGE, SystemTestUtil.countTuples(table));
+        assertEquals(PAGES, table.reads.get());
+    }
+
+    /**
+     * Small pools are not split unless asked to be
+     */
+    @Test public void defaultShards() {
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).getNumShards());
+        assertEquals(BufferPool.DEFAULT_SHARDS, new BufferPool(1 << 12).getNumShards());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolShardTest.class);
+    }
+}
@@ -46,7 +46,8 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
                 byte[] emptyData = HeapPage.createEmptyPageData();
                 bw.write(emptyData);
                 bw.close();
-    			HeapPage p = new HeapPage(new HeapPageId(super.getId(), super.numPages() - 1),
+    			// the page was appended behind the HeapFile's back
+    			HeapPage p = new HeapPage(new HeapPageId(super.getId(), super.refresh() - 1),
     					HeapPage.createEmptyPageData());
     	        p.insertTuple(t);
     			dirtypages.add(p);
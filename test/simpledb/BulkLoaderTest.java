@@ -0,0 +1,145 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private static File writeText(List<List<Integer>> tuples) throws IOException {
+        File text = File.createTempFile("bulk", ".txt");
+        text.deleteOnExit();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(text))) {
+            for (List<Integer> tuple : tuples) {
+                StringBuilder line = new StringBuilder();
+                for (int i = 0; i < tuple.size(); i++) {
+                    if (i > 0)
+                        line.append(',');
+                    line.append(tuple.get(i));
+                }
+                bw.write(line + "\n");
+            }
+        }
+        return text;
+    }
+
+    private static List<List<Integer>> randomTuples(int columns, int rows, long seed) {
+        Random r = new Random(seed);
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            List<Integer> tuple = new ArrayList<>();
+            for (int j = 0; j < columns; j++)
+                tuple.add(r.nextInt(1 << 16));
+            tuples.add(tuple);
+        }
+        return tuples;
+    }
+
+    /**
+     * A load in a single chunk writes the same pages as HeapFileEncoder
+     */
+    @Test public void loadMatchesEncoder() throws Exception {
+        List<List<Integer>> tuples = randomTuples(3, 3000, 1);
+        File text = writeText(tuples);
+        File encoded = SystemTestUtil.createTempTableFile("bulk");
+        HeapFileEncoder.convert(text, encoded, BufferPool.getPageSize(), 3);
+
+        File loaded = SystemTestUtil.createTempTableFile("bulk");
+        HeapFile hf = new HeapFile(loaded, Utility.getTupleDesc(3));
+        assertEquals(3000, new BulkLoader(hf).load(text, ','));
+        assertArrayEquals(Files.readAllBytes(encoded.toPath()), Files.readAllBytes(loaded.toPath()));
+
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Appends to a table that already holds tuples, over many small chunks
+     * parsed on several threads, and skips bad lines
+     */
+    @Test public void appendInChunks() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        int pagesBefore = hf.numPages();
+
+        List<List<Integer>> added = randomTuples(2, 20000, 2);
+        File text = writeText(added);
+        try (FileWriter fw = new FileWriter(text, true)) {
+            fw.write("1,not a number\n\n1,2,3\n7,8");
+        }
+        added.add(Arrays.asList(7, 8));
+
+        assertEquals(added.size(), new BulkLoader(hf, 4, 1000).load(text, ','));
+        assertTrue(hf.numPages() > pagesBefore);
+        tuples.addAll(added);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // the free-space map knows about the loaded pages, so inserts still work
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{ -1, -2 }));
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.add(Arrays.asList(-1, -2));
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Loads a table with VARCHAR fields onto slotted pages
+     */
+    @Test public void loadVarchar() throws Exception {
+        File text = File.createTempFile("bulk", ".txt");
+        text.deleteOnExit();
+        int rows = 5000;
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < rows; i++)
+                bw.write(i + "|code" + i + "\r\n");
+        }
+        TupleDesc td = new TupleDesc(new Type[]{ Type.INT_TYPE, Type.VARCHAR_TYPE });
+        HeapFile hf = new HeapFile(SystemTestUtil.createTempTableFile("bulk"), td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(rows, new BulkLoader(hf, 2, 4096).load(text, '|'));
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < rows; i++) {
+            assertTrue(it.hasNext());
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals("code" + i, ((StringField) t.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Loads a table with the PAX page layout
+     */
+    @Test public void loadPax() throws Exception {
+        List<List<Integer>> tuples = randomTuples(4, 4000, 3);
+        File text = writeText(tuples);
+        PaxFile pf = new PaxFile(SystemTestUtil.createTempTableFile("bulk"), Utility.getTupleDesc(4));
+        Database.getCatalog().addTable(pf, SystemTestUtil.getUUID());
+        assertEquals(tuples.size(), new BulkLoader(pf, 3, 8192).load(text, ','));
+        SystemTestUtil.matchTuples(pf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedPageStoreTest extends SimpleDbTestBase {
+    private final PageCodec codec = new LzPageCodec();
+
+    private byte[] roundTrip(byte[] page) throws IOException {
+        byte[] restored = new byte[page.length];
+        codec.decompress(codec.compress(page), restored);
+        assertArrayEquals(page, restored);
+        return codec.compress(page);
+    }
+
+    private static byte[] randomPage(long seed) {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        new Random(seed).nextBytes(page);
+        return page;
+    }
+
+    /**
+     * Unit test for LzPageCodec compressing and restoring pages
+     */
+    @Test public void codecRoundTrip() throws Exception {
+        // a mostly empty page shrinks to a few bytes
+        assertTrue(roundTrip(HeapPage.createEmptyPageData()).length < 64);
+        assertTrue(roundTrip(HeapPageReadTest.EXAMPLE_DATA).length < HeapPageReadTest.EXAMPLE_DATA.length / 8);
+        // random bytes don't compress, but still come back intact
+        roundTrip(randomPage(1));
+        roundTrip(new byte[0]);
+        roundTrip(new byte[]{ 1, 2, 3 });
+
+        byte[] repeated = new byte[1000];
+        for (int i = 0; i < repeated.length; i++)
+            repeated[i] = (byte) (i % 7);
+        roundTrip(repeated);
+    }
+
+    /**
+     * Unit test for LzPageCodec rejecting data that does not decompress to a page
+     */
+    @Test(expected=IOException.class)
+    public void codecCorruptData() throws Exception {
+        byte[] compressed = codec.compress(HeapPage.createEmptyPageData());
+        codec.decompress(Arrays.copyOf(compressed, compressed.length - 1), HeapPage.createEmptyPageData());
+    }
+
+    /**
+     * Unit test for CompressedPageStore rewriting pages that grow
+     */
+    @Test public void storeRewrite() throws Exception {
+        File f = SystemTestUtil.createTempTableFile("compressed");
+        CompressedPageStore store = new CompressedPageStore(f, codec);
+        byte[] empty = HeapPage.createEmptyPageData();
+        store.write(0, empty);
+        store.write(1, HeapPageReadTest.EXAMPLE_DATA);
+        assertEquals(2, store.numPages());
+        assertTrue(f.length() < 2 * CompressedPageStore.ALIGNMENT + empty.length / 4);
+
+        // page 0 no longer fits in place and moves to the end of the file
+        byte[] random = randomPage(2);
+        store.write(0, random);
+        store.close();
+
+        CompressedPageStore reopened = new CompressedPageStore(f, codec);
+        assertEquals(2, reopened.numPages());
+        byte[] page = new byte[BufferPool.getPageSize()];
+        reopened.read(0, page);
+        assertArrayEquals(random, page);
+        reopened.read(1, page);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page);
+        reopened.read(2, page);
+        assertArrayEquals(empty, page);
+
+        try {
+            reopened.write(3, empty);
+            fail("page 3 is past the end; expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // explicitly ignored
+        }
+        reopened.close();
+    }
+
+    /**
+     * Scans and inserts into a HeapFile converted to compressed pages
+     */
+    @Test public void compressedHeapFile() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        // small random keys next to a column of repeated values
+        Map<Integer, Integer> repeated = new HashMap<>();
+        repeated.put(1, 7);
+        File rows = SystemTestUtil.createRandomHeapFileUnopened(2, 5000, 64, repeated, tuples);
+        File f = SystemTestUtil.createTempTableFile("compressed");
+        HeapFileEncoder.convertToCompressed(rows, f, BufferPool.getPageSize(), codec);
+        assertTrue(f.length() < rows.length() / 2);
+
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), false, codec);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(rows.length() / BufferPool.getPageSize(), hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // inserts are written back compressed, and survive reopening the file
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{ 100, 200 }));
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.add(Arrays.asList(100, 200));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(2), false, codec);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * Inserts into and scans a BTreeFile with compressed pages
+     */
+    @Test public void compressedBTreeFile() throws Exception {
+        File f = SystemTestUtil.createTempTableFile("compressed_index");
+        f.delete();
+        BTreeFile bf = new BTreeFile(f, 0, Utility.getTupleDesc(2), codec);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            Tuple t = BTreeUtility.getBTreeTuple(new int[]{ i % 97, i });
+            Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+            tuples.add(BTreeUtility.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(bf.numPages() > 3);
+        assertTrue(f.length() < (long) bf.numPages() * BufferPool.getPageSize() / 2);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(bf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageStoreTest.class);
+    }
+}
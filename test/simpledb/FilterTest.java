@@ -13,6 +13,7 @@ import simpledb.execution.Filter;
 import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 
@@ -126,6 +127,29 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Unit test for Filter.nextBatch() mixed with Filter.next()
+   */
+  @Test public void filterBatch() throws Exception {
+    Predicate pred = new Predicate(0, Predicate.Op.LESS_THAN, TestUtil.getField(2));
+    Filter op = new Filter(pred, scan);
+    op.open();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(-5, testWidth), op.next()));
+
+    TupleBatch batch = op.nextBatch(3);
+    assertEquals(3, batch.size());
+    for (int i = 0; i < 3; i++)
+      assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(-4 + i, testWidth), batch.get(i)));
+
+    // fewer tuples than asked for are left
+    batch = op.nextBatch(10);
+    assertEquals(3, batch.size());
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(1, testWidth), batch.get(2)));
+    assertTrue(op.nextBatch(10).isEmpty());
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
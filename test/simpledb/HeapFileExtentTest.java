@@ -0,0 +1,122 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileExtentTest extends SimpleDbTestBase {
+
+    private static final int EXTENT = 8;
+
+    private File f;
+
+    @Before public void setUp() throws Exception {
+        HeapFile.setExtentPages(EXTENT);
+        f = SystemTestUtil.createTempTableFile("extent");
+    }
+
+    @After public void tearDown() {
+        HeapFile.setExtentPages(HeapFile.DEFAULT_EXTENT_PAGES);
+    }
+
+    private TestUtil.RecordingHeapFile open() {
+        TestUtil.RecordingHeapFile table = new TestUtil.RecordingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    private static List<List<Integer>> insert(HeapFile table, int n) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(-i));
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            tuples.add(Arrays.asList(i, -i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+
+    /**
+     * A table grows by a whole extent at a time, and new pages are built in memory
+     */
+    @Test public void growsByExtent() throws Exception {
+        TestUtil.RecordingHeapFile table = open();
+        int pageSize = BufferPool.getPageSize();
+        insert(table, 1);
+        assertEquals(1, table.numPages());
+        assertEquals((long) EXTENT * pageSize, f.length());
+        assertEquals(0, table.reads.get());
+
+        // three pages' worth still fits in the first extent
+        List<List<Integer>> tuples = insert(table, 3 * 504);
+        assertEquals(4, table.numPages());
+        assertEquals((long) EXTENT * pageSize, f.length());
+
+        // 8 full pages and one tuple over
+        tuples.addAll(insert(table, (EXTENT - 3) * 504));
+        assertEquals(EXTENT + 1, table.numPages());
+        assertEquals((long) 2 * EXTENT * pageSize, f.length());
+        assertEquals(0, table.reads.get());
+
+        tuples.add(Arrays.asList(0, 0));
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * The number of pages in use survives reopening the table
+     */
+    @Test public void reopen() throws Exception {
+        List<List<Integer>> tuples = insert(open(), 2 * 504);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TestUtil.RecordingHeapFile table = open();
+        assertEquals(2, table.numPages());
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(2, table.reads.get());
+    }
+
+    /**
+     * A header that doesn't match the file is ignored, and every page of the file is in use
+     */
+    @Test public void staleHeader() throws Exception {
+        List<List<Integer>> tuples = insert(open(), 504 + 1);
+        // something else grows the file
+        try (FileOutputStream out = new FileOutputStream(f, true)) {
+            out.write(new byte[BufferPool.getPageSize()]);
+        }
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TestUtil.RecordingHeapFile table = open();
+        assertEquals(EXTENT + 1, table.numPages());
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * Extents of one page grow the file a page at a time
+     */
+    @Test public void singlePageExtents() throws Exception {
+        HeapFile.setExtentPages(1);
+        TestUtil.RecordingHeapFile table = open();
+        insert(table, 3 * 504);
+        assertEquals(3, table.numPages());
+        assertEquals(3L * BufferPool.getPageSize(), f.length());
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileExtentTest.class);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileHeaderTest extends SimpleDbTestBase {
+
+    private File f;
+    private List<List<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createTempTableFile("header");
+        tuples = new ArrayList<>();
+        for (int i = 0; i < 2000; i++)
+            tuples.add(Arrays.asList(i, i % 11));
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+    }
+
+    private TestUtil.RecordingHeapFile open(int columns) {
+        TestUtil.RecordingHeapFile table = new TestUtil.RecordingHeapFile(f, Utility.getTupleDesc(columns, "field"));
+        Database.getCatalog().addTable(table, "header" + System.nanoTime());
+        return table;
+    }
+
+    private static Tuple tuple(HeapFile table, int a) {
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(a));
+        t.setField(1, new IntField(-a));
+        return t;
+    }
+
+    /**
+     * A file written by HeapFileEncoder knows its size without being read
+     */
+    @Test public void encodedFile() throws Exception {
+        TestUtil.RecordingHeapFile table = open(2);
+        assertEquals(2000, table.tupleCount(null));
+        assertEquals(4, table.numPages());
+        assertEquals(0, table.reads.get());
+    }
+
+    /**
+     * The count follows committed transactions, and each transaction sees its own changes
+     */
+    @Test public void transactional() throws Exception {
+        TestUtil.RecordingHeapFile table = open(2);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++)
+            Database.getBufferPool().insertTuple(tid, table.getId(), tuple(table, -i - 1));
+        assertEquals(2010, table.tupleCount(tid));
+        // another transaction would wait for the changed pages
+        assertEquals(-1, table.tupleCount(new TransactionId()));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(2000, table.tupleCount(null));
+
+        tid = new TransactionId();
+        for (int i = 0; i < 10; i++)
+            Database.getBufferPool().insertTuple(tid, table.getId(), tuple(table, -i - 1));
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        Database.getBufferPool().deleteTuple(tid, it.next());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2009, table.tupleCount(null));
+
+        // the count survives reopening the table
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(2009, open(2).tupleCount(null));
+    }
+
+    /**
+     * A header written for another layout of the file is ignored
+     */
+    @Test public void otherSchema() throws Exception {
+        TestUtil.RecordingHeapFile table = open(4);
+        assertEquals(-1, table.tupleCount(null));
+        assertEquals(4, table.numPages());
+    }
+
+    /**
+     * A page written outside of a transaction makes the count unknown
+     */
+    @Test public void directWrite() throws Exception {
+        TestUtil.RecordingHeapFile table = open(2);
+        HeapPage page = new HeapPage(new HeapPageId(table.getId(), 1), HeapPage.createEmptyPageData());
+        table.writePage(page);
+        assertEquals(-1, table.tupleCount(null));
+        assertEquals(4, table.numPages());
+    }
+
+    /**
+     * COUNT over a whole table reads the header instead of scanning
+     */
+    @Test public void countQuery() throws Exception {
+        TestUtil.RecordingHeapFile table = open(2);
+        String name = Database.getCatalog().getTableName(table.getId());
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), name);
+        lp.addAggregate("count", name + ".field0", null);
+        lp.addProjectField(name + ".field0", "count");
+        OpIterator plan = lp.physicalPlan(tid, new HashMap<>(), false);
+        plan.open();
+        assertEquals(2000, ((IntField) plan.next().getField(0)).getValue());
+        assertFalse(plan.hasNext());
+        plan.close();
+        assertEquals(0, table.reads.get());
+
+        // the transaction's own changes count
+        Database.getBufferPool().insertTuple(tid, table.getId(), tuple(table, -1));
+        plan.open();
+        assertEquals(2001, ((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        // without a count, the aggregate scans the table
+        table.writePage(new HeapPage(new HeapPageId(table.getId(), table.numPages()), HeapPage.createEmptyPageData()));
+        tid = new TransactionId();
+        plan = lp.physicalPlan(tid, new HashMap<>(), false);
+        plan.open();
+        assertEquals(2001, ((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(table.reads.get() > 0);
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileHeaderTest.class);
+    }
+}
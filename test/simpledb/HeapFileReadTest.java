@@ -6,6 +6,7 @@ import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -81,6 +82,53 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() after the file has been closed
+     */
+    @Test
+    public void readPageAfterClose() {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.readPage(pid);
+        hf.close();
+
+        // the file is reopened on demand
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(484, page.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() on a read-only file
+     */
+    @Test
+    public void readPageOfReadOnlyFile() {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.close();
+        assertTrue(hf.getFile().setReadOnly());
+        try {
+            HeapPage page = (HeapPage) hf.readPage(pid);
+            assertEquals(484, page.getNumEmptySlots());
+        } finally {
+            hf.getFile().setWritable(true);
+        }
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() once the file is gone: the read
+     * fails rather than creating an empty file
+     */
+    @Test
+    public void readPageOfMissingFile() {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.close();
+        assertTrue(hf.getFile().delete());
+        try {
+            hf.readPage(pid);
+            fail("expected exception");
+        } catch (RuntimeException ignored) {
+        }
+        assertFalse(hf.getFile().exists());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -125,6 +173,36 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    private TestUtil.RecordingHeapFile scanRecorded(int pages) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * pages, 1000, null, tuples);
+        TestUtil.RecordingHeapFile rf = new TestUtil.RecordingHeapFile(f, td);
+        Database.getCatalog().addTable(rf, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(rf, tuples);
+        assertEquals(pages, rf.numPages());
+        return rf;
+    }
+
+    /**
+     * Unit test for HeapFile.iterator() reading pages ahead of the scan
+     */
+    @Test
+    public void testReadAhead() throws Exception {
+        TestUtil.RecordingHeapFile rf = scanRecorded(30);
+        // every page is read once, and some are read by the prefetcher
+        assertEquals(30, rf.pagesRead.size());
+        assertEquals(30, new HashSet<>(rf.pagesRead).size());
+        assertTrue(rf.readers.size() > 1);
+
+        BufferPool.setReadAheadPages(0);
+        try {
+            rf = scanRecorded(5);
+            assertEquals(Collections.singleton(Thread.currentThread()), rf.readers);
+        } finally {
+            BufferPool.setReadAheadPages(BufferPool.DEFAULT_READ_AHEAD_PAGES);
+        }
+    }
+
     /**
      * JUnit suite target
      */
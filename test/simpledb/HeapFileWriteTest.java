@@ -50,6 +50,32 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.addTuple() going straight to a page with room
+     */
+    @Test public void addTupleSkipsFullPages() throws Exception {
+        for (int i = 0; i < 505; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // page 0 is full, so a new transaction should not even lock it
+        TransactionId tid2 = new TransactionId();
+        empty.insertTuple(tid2, Utility.getHeapTuple(0, 2));
+        assertFalse(Database.getBufferPool().holdsLock(tid2, new HeapPageId(empty.getId(), 0)));
+        assertTrue(Database.getBufferPool().holdsLock(tid2, new HeapPageId(empty.getId(), 1)));
+        Database.getBufferPool().transactionComplete(tid2);
+
+        // the map survives reopening the file
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        TransactionId tid3 = new TransactionId();
+        reopened.insertTuple(tid3, Utility.getHeapTuple(0, 2));
+        assertFalse(Database.getBufferPool().holdsLock(tid3, new HeapPageId(reopened.getId(), 0)));
+        assertEquals(2, reopened.numPages());
+        Database.getBufferPool().transactionComplete(tid3);
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
@@ -123,6 +123,26 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() on a page whose tuples are only
+     * partly decoded
+     */
+    @Test public void getPageDataPartlyDecoded() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        Iterator<Tuple> it = page.iterator();
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            if (row % 2 == 0)
+                assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(1)).getValue());
+            row++;
+        }
+        assertEquals(EXAMPLE_VALUES.length, row);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -131,6 +131,55 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() after tuples are inserted and deleted
+     */
+    @Test public void pageDataAfterChanges() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+
+        LinkedList<Tuple> tuples = new LinkedList<>();
+        page.iterator().forEachRemaining(tuples::add);
+        page.deleteTuple(tuples.removeFirst());
+        page.deleteTuple(tuples.removeLast());
+        for (int i = 0; i < 3; i++) {
+            Tuple t = Utility.getHeapTuple(new int[]{ 1000 + i, -i });
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+
+        HeapPage reread = new HeapPage(pid, page.getPageData());
+        assertArrayEquals(page.getPageData(), reread.getPageData());
+        Iterator<Tuple> it = reread.iterator();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTrue(tuples.stream().anyMatch(u -> TestUtil.compareTuples(u, t)));
+            n++;
+        }
+        assertEquals(tuples.size(), n);
+
+        // the slots of deleted tuples are zeroed
+        for (Tuple t : tuples)
+            page.deleteTuple(t);
+        assertArrayEquals(HeapPage.createEmptyPageData(), page.getPageData());
+    }
+
+    /**
+     * Unit test for HeapPage.getBeforeImage() and setBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.insertTuple(Utility.getHeapTuple(new int[]{ 1, 2 }));
+        // until it is set, the before image is the page as it was read
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        page.deleteTuple(page.iterator().next());
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+    }
+
     /**
      * JUnit suite target
      */
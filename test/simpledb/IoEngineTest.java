@@ -0,0 +1,172 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class IoEngineTest extends SimpleDbTestBase {
+
+    private static final int BLOCK = 512;
+
+    /** Counts the reads and writes issued on a file. */
+    private static class CountingChannel extends DbFileChannel {
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger writes = new AtomicInteger();
+
+        CountingChannel(File f) {
+            super(f);
+        }
+
+        @Override
+        public int read(byte[] buf, long position) throws IOException {
+            reads.incrementAndGet();
+            return super.read(buf, position);
+        }
+
+        @Override
+        public void write(byte[] data, long position) throws IOException {
+            writes.incrementAndGet();
+            super.write(data, position);
+        }
+    }
+
+    private IoEngine engine;
+    private CountingChannel channel;
+    private CountDownLatch gate;
+
+    @Before public void setUp() throws Exception {
+        // a single thread, held up until every request of a test is queued
+        engine = new IoEngine(1, 1 << 20);
+        File f = File.createTempFile("ioengine", ".dat");
+        f.deleteOnExit();
+        channel = new CountingChannel(f);
+        gate = new CountDownLatch(1);
+        engine.call(() -> {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+    }
+
+    private static byte[] block(int i) {
+        byte[] b = new byte[BLOCK];
+        Arrays.fill(b, (byte) i);
+        return b;
+    }
+
+    /**
+     * Adjacent requests queued together are merged into one I/O
+     */
+    @Test public void mergesAdjacentRequests() throws Exception {
+        // blocks 0-7 written in shuffled order, and block 20 apart from them
+        List<Integer> order = new ArrayList<>(Arrays.asList(3, 0, 7, 1, 6, 2, 5, 4, 20));
+        long[] positions = new long[order.size()];
+        List<byte[]> data = new ArrayList<>();
+        for (int i = 0; i < order.size(); i++) {
+            positions[i] = (long) order.get(i) * BLOCK;
+            data.add(block(order.get(i)));
+        }
+        CompletableFuture<Void> written = engine.write(channel, positions, data);
+        gate.countDown();
+        written.join();
+        assertEquals(2, channel.writes.get());
+
+        CountDownLatch gate2 = new CountDownLatch(1);
+        engine.call(() -> {
+            try {
+                gate2.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        List<CompletableFuture<byte[]>> reads = engine.read(channel, positions, BLOCK);
+        // past the end of the file
+        List<CompletableFuture<byte[]>> beyond = engine.read(channel, new long[] { 30L * BLOCK }, BLOCK);
+        gate2.countDown();
+        for (int i = 0; i < order.size(); i++)
+            assertArrayEquals(block(order.get(i)), reads.get(i).join());
+        assertArrayEquals(new byte[BLOCK], beyond.get(0).join());
+        assertEquals(3, channel.reads.get());
+    }
+
+    /**
+     * Failed requests complete their futures exceptionally
+     */
+    @Test public void failures() throws Exception {
+        CompletableFuture<Object> task = engine.call(() -> {
+            throw new IllegalStateException("task failed");
+        });
+        gate.countDown();
+        try {
+            task.join();
+            fail("expected the task to fail");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    /**
+     * HeapFiles read and write batches of pages through the engine
+     */
+    @Test public void heapFileBatches() throws Exception {
+        gate.countDown();
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * 10, 1000, null, tuples);
+        List<PageId> pids = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            pids.add(new HeapPageId(table.getId(), i));
+        pids.add(new HeapPageId(table.getId(), 50));
+        List<CompletableFuture<Page>> pages = table.readPagesAsync(pids);
+        for (int i = 0; i < 10; i++)
+            assertArrayEquals(table.readPage(pids.get(i)).getPageData(), pages.get(i).join().getPageData());
+        try {
+            pages.get(10).join();
+            fail("expected a page past the end of the file to fail");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+
+        // a transaction changing several pages writes them as one batch at commit
+        TransactionId tid = new TransactionId();
+        Set<Tuple> deleted = new HashSet<>();
+        for (int i = 0; i < 10; i += 3) {
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pids.get(i), Permissions.READ_WRITE);
+            Tuple t = p.iterator().next();
+            Database.getBufferPool().deleteTuple(tid, t);
+            tuples.remove(SystemTestUtil.tupleToList(t));
+            deleted.add(t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(4, deleted.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IoEngineTest.class);
+    }
+}
@@ -9,11 +9,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
 import simpledb.execution.Join;
 import simpledb.execution.JoinPredicate;
 import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 
@@ -112,6 +114,26 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for HashEquiJoin.nextBatch() using an = predicate
+   */
+  @Test public void hashEqJoinBatch() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    int count = 0;
+    for (TupleBatch batch = op.nextBatch(2); !batch.isEmpty(); batch = op.nextBatch(2)) {
+      assertTrue(batch.size() <= 2);
+      for (Tuple t : batch) {
+        assertTrue(TestUtil.compareTuples(eqJoin.next(), t));
+        count++;
+      }
+    }
+    assertEquals(3, count);
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,108 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageSizeTest extends SimpleDbTestBase {
+
+    @After public void tearDown() {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Tables with pages larger and smaller than the default read and grow in their own page size
+     */
+    @Test public void readAndInsert() throws Exception {
+        for (int pageSize : new int[] { 1024, 32768 }) {
+            List<List<Integer>> tuples = SystemTestUtil.sequentialTuples(0, 10000);
+            HeapFile table = TestUtil.createRecordingHeapFile(tuples, pageSize);
+            int perPage = (pageSize * 8) / (8 * 8 + 1);
+            assertEquals(pageSize, table.getPageSize());
+            assertEquals((tuples.size() + perPage - 1) / perPage, table.numPages());
+            SystemTestUtil.matchTuples(table, tuples);
+
+            TransactionId tid = new TransactionId();
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(table.getId(), 0), Permissions.READ_ONLY);
+            assertEquals(pageSize, p.getSizeInBytes());
+            assertEquals(pageSize, p.getPageData().length);
+            Database.getBufferPool().transactionComplete(tid);
+
+            // fill the last page and append another
+            tid = new TransactionId();
+            for (int i = 0; i < perPage; i++) {
+                Tuple t = new Tuple(table.getTupleDesc());
+                t.setField(0, new IntField(-i));
+                t.setField(1, new IntField(i));
+                Database.getBufferPool().insertTuple(tid, table.getId(), t);
+                tuples.add(Arrays.asList(-i, i));
+            }
+            Database.getBufferPool().transactionComplete(tid);
+            assertEquals(0, table.getFile().length() % pageSize);
+            assertEquals((tuples.size() + perPage - 1) / perPage, table.numPages());
+            SystemTestUtil.matchTuples(table, tuples);
+        }
+    }
+
+    /**
+     * The pool holds as many bytes of small pages as of pages of the default size
+     */
+    @Test public void byteBudget() throws Exception {
+        // eight 1KB pages fit in two pages of the default size
+        List<List<Integer>> tuples = SystemTestUtil.sequentialTuples(0, 8 * ((1024 * 8) / (8 * 8 + 1)));
+        TestUtil.RecordingHeapFile small = TestUtil.createRecordingHeapFile(tuples, 1024);
+        assertEquals(8, small.numPages());
+        Database.resetBufferPool(2);
+        SystemTestUtil.matchTuples(small, tuples);
+        assertEquals(8, small.reads.get());
+        SystemTestUtil.matchTuples(small, tuples);
+        assertEquals(8, small.reads.get());
+
+        // a page four times the default size doesn't fit next to them
+        List<List<Integer>> wide = SystemTestUtil.sequentialTuples(0, 100);
+        HeapFile large = TestUtil.createRecordingHeapFile(wide, 4 * BufferPool.getPageSize());
+        SystemTestUtil.matchTuples(large, wide);
+        SystemTestUtil.matchTuples(small, tuples);
+        assertEquals(16, small.reads.get());
+    }
+
+    /**
+     * The catalog opens tables with the page size of their schema line
+     */
+    @Test public void catalogOption() throws Exception {
+        File dir = Files.createTempDirectory("pagesize").toFile();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("wide (a int, b int) pagesize=32768\n");
+            w.write("narrow (a int, b int)\n");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int wide = Database.getCatalog().getTableId("wide");
+        int narrow = Database.getCatalog().getTableId("narrow");
+        assertEquals(32768, Database.getCatalog().getPageSize(wide));
+        assertEquals(BufferPool.getPageSize(), Database.getCatalog().getPageSize(narrow));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxPageTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    private static byte[] exampleData() {
+        return PaxPage.fromHeapPageData(HeapPageReadTest.EXAMPLE_DATA, Utility.getTupleDesc(2));
+    }
+
+    /**
+     * Unit test for PaxPage.iterator() over a page converted from a HeapPage
+     */
+    @Test public void testIterator() throws Exception {
+        PaxPage page = new PaxPage(pid, exampleData());
+        assertEquals(484, page.getNumEmptySlots());
+
+        Iterator<Tuple> it = page.iterator();
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertEquals(HeapPageReadTest.EXAMPLE_VALUES[row][0], ((IntField) tup.getField(0)).getValue());
+            assertEquals(HeapPageReadTest.EXAMPLE_VALUES[row][1], ((IntField) tup.getField(1)).getValue());
+            assertEquals(new RecordId(pid, row), tup.getRecordId());
+            row++;
+        }
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES.length, row);
+    }
+
+    /**
+     * Unit test for PaxPage.iterator(int[]) reading one column
+     */
+    @Test public void testColumnIterator() throws Exception {
+        PaxPage page = new PaxPage(pid, exampleData());
+        Iterator<Tuple> it = page.iterator(new int[]{1});
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertEquals(HeapPageReadTest.EXAMPLE_VALUES[row][1], ((IntField) tup.getField(1)).getValue());
+            // fields outside the hint are still readable
+            assertEquals(HeapPageReadTest.EXAMPLE_VALUES[row][0], ((IntField) tup.getField(0)).getValue());
+            row++;
+        }
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES.length, row);
+    }
+
+    /**
+     * Unit test for PaxPage.getPageData() after inserts and deletes
+     */
+    @Test public void getPageData() throws Exception {
+        PaxPage page = new PaxPage(pid, exampleData());
+        // an unmodified page serializes to the bytes it was read from
+        assertArrayEquals(exampleData(), page.getPageData());
+
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(new int[]{7, 8}));
+        page.insertTuple(Utility.getHeapTuple(new int[]{9, 10}));
+
+        PaxPage copy = new PaxPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(new int[]{7, 8}), it.next()));
+        for (int row = 1; row < HeapPageReadTest.EXAMPLE_VALUES.length; row++) {
+            assertTrue(TestUtil.compareTuples(
+                    Utility.getHeapTuple(HeapPageReadTest.EXAMPLE_VALUES[row]), it.next()));
+        }
+        assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(new int[]{9, 10}), it.next()));
+        assertFalse(it.hasNext());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
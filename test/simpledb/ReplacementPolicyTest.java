@@ -0,0 +1,142 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    /** tuples of two int fields on a page */
+    private static final int TUPLES_PER_PAGE = 504;
+
+    @After public void tearDown() {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private static PageId page(int n) {
+        return new HeapPageId(1, n);
+    }
+
+    /** admits a page and references it, as getPage does on a miss */
+    private static void read(ReplacementPolicy policy, int n) {
+        policy.admit(page(n));
+        policy.access(page(n));
+    }
+
+    private static PageId victim(ReplacementPolicy policy) {
+        return policy.victim(pid -> true);
+    }
+
+    @Test public void lruEvictsLeastRecentlyUsed() {
+        ReplacementPolicy policy = ReplacementPolicy.Kind.LRU.create(8);
+        read(policy, 1);
+        read(policy, 2);
+        read(policy, 3);
+        policy.access(page(1));
+        assertEquals(page(2), victim(policy));
+        assertEquals(page(3), victim(policy));
+        assertEquals(page(1), victim(policy));
+        assertNull(victim(policy));
+    }
+
+    @Test public void clockGivesSecondChance() {
+        ReplacementPolicy policy = ReplacementPolicy.Kind.CLOCK.create(8);
+        read(policy, 1);
+        read(policy, 2);
+        // read ahead, never asked for
+        policy.admit(page(3));
+        assertEquals(page(3), victim(policy));
+        // the sweep cleared the bits of 1 and 2, and 1 is referenced again
+        policy.access(page(1));
+        assertEquals(page(2), victim(policy));
+        assertEquals(page(1), victim(policy));
+        assertNull(victim(policy));
+    }
+
+    @Test public void twoQueuePromotesRememberedPages() {
+        // A1in holds a single page
+        ReplacementPolicy policy = ReplacementPolicy.Kind.TWO_QUEUE.create(4);
+        read(policy, 1);
+        read(policy, 2);
+        assertEquals(page(1), victim(policy));
+        // 1 is remembered, so it comes back hot, and 2 goes before it
+        read(policy, 1);
+        read(policy, 3);
+        assertEquals(page(2), victim(policy));
+    }
+
+    @Test public void lruKEvictsPagesReferencedOnceFirst() {
+        ReplacementPolicy policy = ReplacementPolicy.Kind.LRU_K.create(8);
+        read(policy, 1);
+        policy.access(page(1));
+        read(policy, 2);
+        read(policy, 3);
+        assertEquals(page(2), victim(policy));
+        assertEquals(page(3), victim(policy));
+        assertEquals(page(1), victim(policy));
+    }
+
+    /**
+     * Every policy passes over the pages that may not be evicted, and
+     * forgets the pages removed from the pool
+     */
+    @Test public void skipsAndRemoves() {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            ReplacementPolicy policy = kind.create(8);
+            for (int i = 1; i <= 4; i++)
+                read(policy, i);
+            policy.remove(page(2));
+            assertEquals(kind.toString(), page(3), policy.victim(pid -> !pid.equals(page(1))));
+            assertNull(kind.toString(), policy.victim(pid -> pid.equals(page(2))));
+            Set<PageId> rest = new HashSet<>(Arrays.asList(victim(policy), victim(policy)));
+            assertEquals(kind.toString(), new HashSet<>(Arrays.asList(page(1), page(4))), rest);
+            assertNull(kind.toString(), victim(policy));
+        }
+    }
+
+    private static TestUtil.RecordingHeapFile createTable(int pages) throws Exception {
+        return TestUtil.createRecordingHeapFile(
+                SystemTestUtil.sequentialTuples(0, pages * TUPLES_PER_PAGE), BufferPool.getPageSize());
+    }
+
+    /**
+     * @return the number of pages of the small, often used table read again
+     *         after a scan of a large table
+     */
+    private static int rereadsAfterScan(ReplacementPolicy.Kind kind) throws Exception {
+        TestUtil.RecordingHeapFile hot = createTable(3);
+        TestUtil.RecordingHeapFile large = createTable(40);
+        Database.resetBufferPool(12, kind);
+        SystemTestUtil.countTuples(hot);
+        SystemTestUtil.countTuples(hot);
+        SystemTestUtil.countTuples(large);
+        int reads = hot.reads.get();
+        SystemTestUtil.countTuples(hot);
+        return hot.reads.get() - reads;
+    }
+
+    /**
+     * A large scan does not flush the working set under the scan-resistant
+     * policies, as it does under LRU
+     */
+    @Test public void scanResistance() throws Exception {
+        assertEquals(3, rereadsAfterScan(ReplacementPolicy.Kind.LRU));
+        assertEquals(0, rereadsAfterScan(ReplacementPolicy.Kind.TWO_QUEUE));
+        assertEquals(0, rereadsAfterScan(ReplacementPolicy.Kind.LRU_K));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,173 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReusableTupleTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    private final List<List<Integer>> tuples = new ArrayList<>();
+    private HeapFile table;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, tuples);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private SeqScan reusingScan(HeapFile f) {
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.setReuseTuples(true);
+        return scan;
+    }
+
+    /**
+     * A reusing scan returns the same rows as a normal one, refilling two tuples
+     */
+    @Test public void scanRefillsTuples() throws Exception {
+        SystemTestUtil.matchTuples(reusingScan(table), tuples);
+
+        SeqScan scan = reusingScan(table);
+        Set<Tuple> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertTrue(t.isReused());
+            seen.add(t);
+        }
+        scan.close();
+        assertEquals(2, seen.size());
+    }
+
+    /**
+     * Retained tuples and fields keep their values after the scan moves on
+     */
+    @Test public void retain() throws Exception {
+        List<Tuple> kept = new ArrayList<>();
+        List<IntField> fields = new ArrayList<>();
+        SeqScan scan = reusingScan(table);
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            kept.add(t.retain());
+            fields.add((IntField) t.retainField(2));
+        }
+        scan.close();
+
+        for (int i = 0; i < ROWS; i++) {
+            assertFalse(kept.get(i).isReused());
+            assertEquals(tuples.get(i), SystemTestUtil.tupleToList(kept.get(i)));
+            assertEquals((int) tuples.get(i).get(2), fields.get(i).getValue());
+        }
+        // the copies keep the record ids of the rows they were read from
+        Set<RecordId> rids = new HashSet<>();
+        for (Tuple t : kept)
+            rids.add(t.getRecordId());
+        assertEquals(ROWS, rids.size());
+    }
+
+    /**
+     * Batches of operators over reusing scans stay intact until the next call
+     */
+    @Test public void batches() throws Exception {
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) > 80)
+                expected.add(Arrays.asList(t.get(0), t.get(2)));
+        }
+        OpIterator it = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(80)),
+                new Project(Arrays.asList(0, 2), Arrays.asList(Type.INT_TYPE, Type.INT_TYPE),
+                        reusingScan(table)));
+        assertEquals(expected, readBatches(it, 64));
+
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 50, 100, null, new ArrayList<>());
+        // pages keep the tuples a normal scan decodes, so the reusing scans go first
+        List<List<Integer>> reusedJoined = readBatches(new HashEquiJoin(
+                new JoinPredicate(0, Predicate.Op.EQUALS, 1), reusingScan(other), reusingScan(table)), 1000);
+        List<List<Integer>> joined = readBatches(new HashEquiJoin(
+                new JoinPredicate(0, Predicate.Op.EQUALS, 1), new SeqScan(tid, other.getId(), ""),
+                new SeqScan(tid, table.getId(), "")), 1000);
+        assertFalse(joined.isEmpty());
+        assertEquals(joined, reusedJoined);
+    }
+
+    /**
+     * @return the values of the tuples of it, read once each batch is complete
+     */
+    private static List<List<Integer>> readBatches(OpIterator it, int max) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        it.open();
+        for (TupleBatch batch = it.nextBatch(max); !batch.isEmpty(); batch = it.nextBatch(max)) {
+            assertTrue(batch.size() <= max);
+            for (Tuple t : batch)
+                rows.add(SystemTestUtil.tupleToList(t));
+        }
+        it.close();
+        return rows;
+    }
+
+    /**
+     * Operators that buffer rows keep copies of reused tuples
+     */
+    @Test public void bufferingOperators() throws Exception {
+        List<List<Integer>> sorted = new ArrayList<>(tuples);
+        sorted.sort(Comparator.comparing(t -> t.get(1)));
+        OrderBy ob = new OrderBy(1, true, reusingScan(table));
+        ob.open();
+        for (List<Integer> t : sorted) {
+            assertTrue(ob.hasNext());
+            assertEquals(t.get(1), SystemTestUtil.tupleToList(ob.next()).get(1));
+        }
+        assertFalse(ob.hasNext());
+        ob.close();
+
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, new ArrayList<>());
+        List<Tuple> kept = new ArrayList<>();
+        OpIterator join = new Join(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                reusingScan(other), reusingScan(table));
+        join.open();
+        while (join.hasNext())
+            kept.add(join.next());
+        join.close();
+
+        List<List<Integer>> expected = new ArrayList<>();
+        join = new Join(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, other.getId(), ""), new SeqScan(tid, table.getId(), ""));
+        join.open();
+        while (join.hasNext())
+            expected.add(SystemTestUtil.tupleToList(join.next()));
+        join.close();
+        assertEquals(expected.size(), kept.size());
+        for (int i = 0; i < kept.size(); i++)
+            assertEquals(expected.get(i), SystemTestUtil.tupleToList(kept.get(i)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReusableTupleTest.class);
+    }
+}
@@ -0,0 +1,190 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{ Type.INT_TYPE, Type.VARCHAR_TYPE }, new String[]{ "id", "code" });
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple getTuple(int id, String code) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(code, Type.STRING_LEN, Type.VARCHAR_TYPE));
+        return t;
+    }
+
+    private static String code(int i) {
+        return "c" + i;
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.insertTuple() until the page is full
+     */
+    @Test public void insertTuple() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        assertFalse(page.iterator().hasNext());
+
+        int n = 0;
+        while (page.hasRoomFor(getTuple(n, code(n)))) {
+            Tuple t = getTuple(n, code(n));
+            page.insertTuple(t);
+            assertEquals(new RecordId(pid, n), t.getRecordId());
+            n++;
+        }
+
+        // short strings only take the bytes they need, so many more tuples
+        // fit than the page's fixed-size equivalent would hold
+        int fixedSlots = (BufferPool.getPageSize() * 8) / (TD.getSize() * 8 + 1);
+        assertTrue(n > 4 * fixedSlots);
+
+        try {
+            page.insertTuple(getTuple(n, code(n)));
+            fail("page should be full; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.getPageData() round trip
+     */
+    @Test public void getPageData() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        String longest = new String(new char[Type.STRING_LEN]).replace('\0', 'x');
+        page.insertTuple(getTuple(0, ""));
+        page.insertTuple(getTuple(1, "abc"));
+        page.insertTuple(getTuple(2, longest + "truncated"));
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        assertTrue(TestUtil.compareTuples(getTuple(0, ""), it.next()));
+        assertTrue(TestUtil.compareTuples(getTuple(1, "abc"), it.next()));
+        Tuple last = it.next();
+        assertEquals(longest, ((StringField) last.getField(1)).getValue());
+        assertEquals(new RecordId(pid, 2), last.getRecordId());
+        assertFalse(it.hasNext());
+
+        // re-serializing an unmodified page gives the same bytes
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.deleteTuple() reusing slots and space
+     */
+    @Test public void deleteTuple() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; page.hasRoomFor(getTuple(i, code(i))); i++) {
+            Tuple t = getTuple(i, code(i));
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        int full = tuples.size();
+
+        // deleting a tuple frees its slot for the next insert
+        page.deleteTuple(tuples.get(3));
+        assertFalse(page.isSlotUsed(3));
+        Tuple t = getTuple(3, code(3));
+        page.insertTuple(t);
+        assertEquals(3, t.getRecordId().getTupleNumber());
+
+        // the records of deleted tuples are reclaimed once the page is written
+        for (Tuple d : tuples.subList(full / 2, full))
+            page.deleteTuple(d);
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        int count = 0;
+        for (Iterator<Tuple> it = copy.iterator(); it.hasNext(); it.next())
+            count++;
+        assertEquals(full / 2, count);
+        for (int i = full / 2; i < full; i++)
+            copy.insertTuple(getTuple(i, code(i)));
+        assertFalse(copy.hasRoomFor(getTuple(full, code(full))));
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.deleteTuple() with false tuples
+     */
+    @Test(expected=DbException.class)
+    public void deleteNonexistentTuple() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        page.insertTuple(getTuple(0, "a"));
+        Tuple other = getTuple(0, "a");
+        other.setRecordId(new RecordId(pid, 1));
+        page.deleteTuple(other);
+    }
+
+    /**
+     * Scans a VARCHAR table written by HeapFileEncoder through a HeapFile
+     */
+    @Test public void scanEncodedFile() throws Exception {
+        File text = File.createTempFile("varchar", ".txt");
+        text.deleteOnExit();
+        int rows = 5000;
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < rows; i++)
+                bw.write(i + "," + code(i) + "\n");
+        }
+        File data = File.createTempFile("varchar", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2,
+                new Type[]{ Type.INT_TYPE, Type.VARCHAR_TYPE }, ',');
+        HeapFile hf = new HeapFile(data, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        // a fixed-size layout would need room for the longest string in every tuple
+        int fixedPages = rows / ((BufferPool.getPageSize() * 8) / (TD.getSize() * 8 + 1)) + 1;
+        assertTrue(hf.numPages() * 4 < fixedPages);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < rows; i++) {
+            assertTrue(it.hasNext());
+            assertTrue(TestUtil.compareTuples(getTuple(i, code(i)), it.next()));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+
+        // inserted tuples go through the same page format
+        Tuple added = getTuple(rows, "added");
+        Database.getBufferPool().insertTuple(tid, hf.getId(), added);
+        Page page = Database.getBufferPool().getPage(tid,
+                added.getRecordId().getPageId(), simpledb.common.Permissions.READ_ONLY);
+        assertTrue(page instanceof SlottedHeapPage);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -3,11 +3,15 @@ package simpledb;
 import simpledb.common.*;
 import simpledb.execution.OpIterator;
 import simpledb.storage.*;
+import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -239,6 +243,9 @@ public class TestUtil {
 		public TupleDesc getTupleDesc() {			
 			return td;
 		}
+
+        public void close() {
+        }
     }
 
     /**
@@ -369,6 +376,84 @@ public class TestUtil {
         }
     }
 
+    /**
+     * A HeapFile that records the pages it reads, and the threads reading them.
+     */
+    public static class RecordingHeapFile extends HeapFile {
+        /** the number of pages read */
+        public final AtomicInteger reads = new AtomicInteger();
+        /** the numbers of the pages read, in the order they were read */
+        public final List<Integer> pagesRead = Collections.synchronizedList(new ArrayList<>());
+        public final Set<Thread> readers = ConcurrentHashMap.newKeySet();
+
+        public RecordingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public RecordingHeapFile(File f, TupleDesc td, int pageSize) {
+            super(f, td, false, null, pageSize);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            pagesRead.add(pid.getPageNumber());
+            readers.add(Thread.currentThread());
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * Writes tuples of two int fields to a temporary table of the given page
+     * size, and adds it to the catalog.
+     *
+     * @return the table, recording the pages it reads
+     */
+    public static RecordingHeapFile createRecordingHeapFile(List<List<Integer>> tuples, int pageSize)
+            throws IOException {
+        File f = SystemTestUtil.createTempTableFile("table");
+        HeapFileEncoder.convert(tuples, f, pageSize, 2);
+        RecordingHeapFile table = new RecordingHeapFile(f, Utility.getTupleDesc(2), pageSize);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    /**
+     * A HeapFile whose page writes block until the test releases them, so
+     * that a test can look at the buffer pool while a page is being written.
+     */
+    public static class BlockingHeapFile extends HeapFile {
+        /** counted down as a write starts */
+        public final CountDownLatch writing = new CountDownLatch(1);
+        /** writes wait for this */
+        public final CountDownLatch release = new CountDownLatch(1);
+
+        public BlockingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        private void block() {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            block();
+            super.writePage(page);
+        }
+
+        @Override
+        public void writePages(List<Page> pages) throws IOException {
+            block();
+            super.writePages(pages);
+        }
+    }
+
     /** JUnit fixture that creates a heap file and cleans it up afterward. */
     public static abstract class CreateHeapFile {
         protected CreateHeapFile() {
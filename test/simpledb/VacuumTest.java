@@ -0,0 +1,248 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class VacuumTest extends SimpleDbTestBase {
+
+    @After public void tearDown() {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private static HeapFile table(List<List<Integer>> tuples) throws Exception {
+        File f = SystemTestUtil.createTempTableFile("vacuum");
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile table = new HeapFile(f, Utility.getTupleDesc(2));
+        // a name the parser takes as an identifier
+        Database.getCatalog().addTable(table, "vacuum" + System.nanoTime());
+        return table;
+    }
+
+    /**
+     * Deletes every tuple whose first field doesn't satisfy keep, returning
+     * the tuples left.
+     */
+    private static List<List<Integer>> deleteAllBut(HeapFile table, List<List<Integer>> tuples,
+                                                    java.util.function.IntPredicate keep) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        scan.open();
+        List<Tuple> doomed = new ArrayList<>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (!keep.test(((IntField) t.getField(0)).getValue()))
+                doomed.add(t);
+        }
+        scan.close();
+        for (Tuple t : doomed)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        List<List<Integer>> left = new ArrayList<>();
+        for (List<Integer> row : tuples)
+            if (keep.test(row.get(0)))
+                left.add(row);
+        return left;
+    }
+
+    /**
+     * Vacuum moves the tuples of sparse pages forward and cuts the emptied pages off the file
+     */
+    @Test public void compactsSparseTable() throws Exception {
+        List<List<Integer>> tuples = SystemTestUtil.sequentialTuples(0, 5000);
+        HeapFile table = table(tuples);
+        int before = table.numPages();
+        List<List<Integer>> left = deleteAllBut(table, tuples, v -> v % 10 == 0);
+
+        int removed = table.vacuum();
+        assertTrue(removed > 0);
+        assertEquals(before - removed, table.numPages());
+        assertTrue(table.numPages() <= (before + 9) / 10 + 1);
+        assertEquals((long) table.numPages() * BufferPool.getPageSize(), table.getFile().length());
+        SystemTestUtil.matchTuples(table, left);
+
+        // nothing more to do
+        assertEquals(0, table.vacuum());
+    }
+
+    /**
+     * Rounds are bounded by the BufferPool, so a small pool still vacuums the whole table
+     */
+    @Test public void smallBufferPool() throws Exception {
+        List<List<Integer>> tuples = SystemTestUtil.sequentialTuples(0, 5000);
+        HeapFile table = table(tuples);
+        List<List<Integer>> left = deleteAllBut(table, tuples, v -> v < 1000 || v % 25 == 0);
+        Database.resetBufferPool(6);
+
+        table.vacuum();
+        int perPage = (BufferPool.getPageSize() * 8) / (8 * 8 + 1);
+        assertEquals((left.size() + perPage - 1) / perPage, table.numPages());
+        SystemTestUtil.matchTuples(table, left);
+    }
+
+    /**
+     * The table takes inserts after it has been vacuumed, growing again from its new end
+     */
+    @Test public void insertAfterVacuum() throws Exception {
+        List<List<Integer>> tuples = SystemTestUtil.sequentialTuples(0, 3000);
+        HeapFile table = table(tuples);
+        List<List<Integer>> left = deleteAllBut(table, tuples, v -> v < 500);
+        table.vacuum();
+        int pages = table.numPages();
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setField(0, new IntField(-i));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            left.add(Arrays.asList(-i, i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(table.numPages() > pages);
+        SystemTestUtil.matchTuples(table, left);
+    }
+
+    /**
+     * Each round is a transaction of the log, whose pages are logged before
+     * they are written, so recovery after a vacuum finds the table as it left it
+     */
+    @Test public void roundsAreLogged() throws Exception {
+        List<List<Integer>> tuples = SystemTestUtil.sequentialTuples(0, 3000);
+        HeapFile table = table(tuples);
+        List<List<Integer>> left = deleteAllBut(table, tuples, v -> v % 4 == 0);
+        int records = Database.getLogFile().getTotalRecords();
+        table.vacuum();
+        // BEGIN, COMMIT and at least an UPDATE for each of the two pages of a move
+        assertTrue(Database.getLogFile().getTotalRecords() - records >= 4);
+
+        Database.reset();
+        HeapFile reopened = new HeapFile(table.getFile(), Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, "vacuum" + System.nanoTime());
+        // redo writes the emptied pages back past the end of the file
+        Database.getLogFile().recover();
+        SystemTestUtil.matchTuples(reopened, left);
+    }
+
+    /** the rows a scan of the table for first fields satisfying op value returns */
+    private static List<List<Integer>> scan(HeapFile table, TransactionId tid, Predicate.Op op, int value)
+            throws Exception {
+        DbFileIterator it = table.iterator(tid, null, new Predicate(0, op, new IntField(value)));
+        it.open();
+        List<List<Integer>> rows = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(Arrays.asList(((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue()));
+        }
+        it.close();
+        return rows;
+    }
+
+    private static Set<List<Integer>> atLeast(List<List<Integer>> tuples, int min) {
+        Set<List<Integer>> rows = new HashSet<>();
+        for (List<Integer> row : tuples)
+            if (row.get(0) >= min)
+                rows.add(row);
+        return rows;
+    }
+
+    /**
+     * A scan that skips pages by the zone map does not lock them, so vacuum
+     * waits for it rather than moving tuples into pages behind it
+     */
+    @Test public void waitsForSkippingScan() throws Exception {
+        List<List<Integer>> tuples = SystemTestUtil.sequentialTuples(0, 5000);
+        HeapFile table = table(tuples);
+        // the first page stays full, so the scan locks no page vacuum changes
+        List<List<Integer>> left = deleteAllBut(table, tuples, v -> v < 504 || v % 10 == 0);
+        int before = table.numPages();
+
+        TransactionId scanner = new TransactionId();
+        assertEquals(100, scan(table, scanner, Predicate.Op.LESS_THAN, 100).size());
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> vacuum = pool.submit(table::vacuum);
+            Thread.sleep(300);
+            assertFalse(vacuum.isDone());
+            Database.getBufferPool().transactionComplete(scanner);
+            assertTrue(vacuum.get(10, TimeUnit.SECONDS) > 0);
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(table.numPages() < before);
+        SystemTestUtil.matchTuples(table, left);
+    }
+
+    /**
+     * Scans skipping pages by the zone map, run while vacuum moves the
+     * tuples they match, see every matching row, once
+     */
+    @Test public void skippingScansDuringVacuum() throws Exception {
+        List<List<Integer>> tuples = SystemTestUtil.sequentialTuples(0, 5000);
+        HeapFile table = table(tuples);
+        List<List<Integer>> left = deleteAllBut(table, tuples, v -> v % 10 == 0 || v >= 4000);
+        Set<List<Integer>> matching = atLeast(left, 4000);
+        // many small rounds, each a point where a scan may come in
+        Database.resetBufferPool(6);
+
+        AtomicBoolean vacuumed = new AtomicBoolean();
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> scans = pool.submit(() -> {
+                int n = 0;
+                while (!vacuumed.get()) {
+                    TransactionId tid = new TransactionId();
+                    List<List<Integer>> rows = scan(table, tid, Predicate.Op.GREATER_THAN_OR_EQ, 4000);
+                    Database.getBufferPool().transactionComplete(tid);
+                    assertEquals(matching.size(), rows.size());
+                    assertEquals(matching, new HashSet<>(rows));
+                    n++;
+                    // let the next round in
+                    Thread.sleep(1);
+                }
+                return n;
+            });
+            try {
+                assertTrue(table.vacuum() > 0);
+            } finally {
+                vacuumed.set(true);
+            }
+            assertTrue(scans.get(30, TimeUnit.SECONDS) > 0);
+        } finally {
+            pool.shutdown();
+        }
+        SystemTestUtil.matchTuples(table, left);
+    }
+
+    /**
+     * VACUUM is a statement of the parser
+     */
+    @Test public void parserStatement() throws Exception {
+        List<List<Integer>> tuples = SystemTestUtil.sequentialTuples(0, 3000);
+        HeapFile table = table(tuples);
+        List<List<Integer>> left = deleteAllBut(table, tuples, v -> v % 3 == 0);
+        int before = table.numPages();
+        new Parser().processNextStatement("VACUUM " + Database.getCatalog().getTableName(table.getId()) + ";");
+        assertTrue(table.numPages() < before);
+        SystemTestUtil.matchTuples(table, left);
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VacuumTest.class);
+    }
+}
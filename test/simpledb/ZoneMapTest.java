@@ -0,0 +1,193 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    /** tuples of two int fields on a page */
+    private static final int TUPLES_PER_PAGE = 504;
+
+    /**
+     * @return a table whose first field counts up from 0, like a timestamp
+     */
+    private static File orderedTable(int rows) throws Exception {
+        File f = SystemTestUtil.createTempTableFile("zones");
+        List<List<Integer>> tuples = new ArrayList<>();
+        Random r = new Random(1);
+        for (int i = 0; i < rows; i++)
+            tuples.add(Arrays.asList(i, r.nextInt(1000)));
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        return f;
+    }
+
+    private static TestUtil.RecordingHeapFile open(File f) {
+        TestUtil.RecordingHeapFile rf = new TestUtil.RecordingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(rf, SystemTestUtil.getUUID());
+        return rf;
+    }
+
+    /**
+     * @return the numbers of the pages the table has read
+     */
+    private static Set<Integer> pagesRead(TestUtil.RecordingHeapFile rf) {
+        return new HashSet<>(rf.pagesRead);
+    }
+
+    /**
+     * @return the number of tuples of the table satisfying a predicate on its first field
+     */
+    private static int count(HeapFile f, Predicate.Op op, int value) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator it = new Filter(new Predicate(0, op, new IntField(value)),
+                new SeqScan(tid, f.getId(), ""));
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * A range scan learns the ranges of pages written by HeapFileEncoder,
+     * then skips the pages outside the range, also after the table is reopened
+     */
+    @Test public void skipPages() throws Exception {
+        File f = orderedTable(20 * TUPLES_PER_PAGE);
+        TestUtil.RecordingHeapFile rf = open(f);
+        assertEquals(150, count(rf, Predicate.Op.GREATER_THAN_OR_EQ, 20 * TUPLES_PER_PAGE - 150));
+        assertEquals(20, pagesRead(rf).size());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        rf.pagesRead.clear();
+        assertEquals(150, count(rf, Predicate.Op.GREATER_THAN_OR_EQ, 20 * TUPLES_PER_PAGE - 150));
+        assertEquals(Collections.singleton(19), pagesRead(rf));
+        assertEquals(TUPLES_PER_PAGE + 1, count(rf, Predicate.Op.LESS_THAN_OR_EQ, TUPLES_PER_PAGE));
+        assertEquals(new HashSet<>(Arrays.asList(0, 1, 19)), pagesRead(rf));
+        assertEquals(0, count(rf, Predicate.Op.GREATER_THAN, 20 * TUPLES_PER_PAGE));
+
+        // the ranges were persisted as the pages were read
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        rf = open(f);
+        assertEquals(1, count(rf, Predicate.Op.EQUALS, 3000));
+        assertEquals(Collections.singleton(3000 / TUPLES_PER_PAGE), pagesRead(rf));
+    }
+
+    /**
+     * Inserted tuples widen the range of their page, so scans still find them
+     */
+    @Test public void insertWidensRange() throws Exception {
+        File f = orderedTable(10 * TUPLES_PER_PAGE - 100);
+        TestUtil.RecordingHeapFile rf = open(f);
+        assertEquals(0, count(rf, Predicate.Op.LESS_THAN, 0));
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, rf.getId(), Utility.getHeapTuple(new int[]{ -5, 0 }));
+        // the transaction sees its own insert before it commits
+        SeqScan scan = new SeqScan(tid, rf.getId(), "");
+        scan.setPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)));
+        scan.open();
+        assertTrue(scan.hasNext());
+        assertEquals(new IntField(-5), scan.next().getField(0));
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        rf = open(f);
+        assertEquals(1, count(rf, Predicate.Op.LESS_THAN, 0));
+        assertEquals(1, pagesRead(rf).size());
+    }
+
+    /**
+     * @return the tuple of the table whose first field has the specified value
+     */
+    private static Tuple find(TransactionId tid, HeapFile f, int value) throws Exception {
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.setPredicate(new Predicate(0, Predicate.Op.EQUALS, new IntField(value)));
+        scan.open();
+        Tuple t = scan.next();
+        scan.close();
+        return t;
+    }
+
+    /**
+     * Deleting tuples narrows the range of their page once it is written
+     */
+    @Test public void deleteNarrowsRange() throws Exception {
+        File f = orderedTable(10 * TUPLES_PER_PAGE);
+        TestUtil.RecordingHeapFile rf = open(f);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().deleteTuple(tid, find(tid, rf, 0));
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        rf = open(f);
+        assertEquals(0, count(rf, Predicate.Op.LESS_THAN, 1));
+        assertFalse(pagesRead(rf).contains(0));
+    }
+
+    /**
+     * An abort that puts back tuples of a page written without them widens
+     * the range of the page again
+     */
+    @Test public void abortRestoresRange() throws Exception {
+        File f = orderedTable(10 * TUPLES_PER_PAGE);
+        TestUtil.RecordingHeapFile rf = open(f);
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().deleteTuple(t.getId(), find(t.getId(), rf, 0));
+        // steal the page, which narrows its range
+        Database.getBufferPool().flushPages(t.getId());
+        t.abort();
+        assertEquals(1, count(rf, Predicate.Op.LESS_THAN, 1));
+    }
+
+    /**
+     * BulkLoader records the ranges of the pages it writes
+     */
+    @Test public void bulkLoadedRanges() throws Exception {
+        File text = File.createTempFile("zones", ".txt");
+        text.deleteOnExit();
+        int rows = 12 * TUPLES_PER_PAGE;
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < rows; i++)
+                bw.write(i + "," + (i % 7) + "\n");
+        }
+        File f = SystemTestUtil.createTempTableFile("zones");
+        new BulkLoader(new HeapFile(f, Utility.getTupleDesc(2)), 1, 1 << 20).load(text, ',');
+
+        TestUtil.RecordingHeapFile rf = open(f);
+        assertEquals(10, count(rf, Predicate.Op.LESS_THAN, 10));
+        assertEquals(Collections.singleton(0), pagesRead(rf));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
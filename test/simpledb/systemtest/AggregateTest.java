@@ -1,5 +1,6 @@
 package simpledb.systemtest;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -9,11 +10,15 @@ import java.util.Map;
 import org.junit.Test;
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Utility;
 import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
 import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.PaxFile;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -121,6 +126,24 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    /** Aggregates a table stored column by column within each page. */
+    @Test public void testSumPax() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        File rows = SystemTestUtil.createRandomHeapFileUnopened(
+                COLUMNS, ROWS, MAX_VALUE, null, createdTuples);
+        File temp = File.createTempFile("pax", ".dat");
+        temp.deleteOnExit();
+        HeapFileEncoder.convertToPax(rows, temp, BufferPool.getPageSize(), Utility.getTypes(COLUMNS));
+        PaxFile table = new PaxFile(temp, Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        SystemTestUtil.matchTuples(table, createdTuples);
+        validateAggregate(table, Aggregator.Op.SUM, 1, 0,
+                aggregate(createdTuples, Aggregator.Op.SUM, 0));
+        validateAggregate(table, Aggregator.Op.SUM, 1, Aggregator.NO_GROUPING,
+                aggregate(createdTuples, Aggregator.Op.SUM, Aggregator.NO_GROUPING));
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
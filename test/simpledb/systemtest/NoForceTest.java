@@ -0,0 +1,170 @@
+package simpledb.systemtest;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test NO-FORCE commits, which leave the pages of a transaction in the
+ * buffer pool, and the group commit that shares log forces among them.
+ */
+public class NoForceTest extends SimpleDbTestBase {
+
+    /** tuples of two int fields on a page */
+    private static final int TUPLES_PER_PAGE = 504;
+    private static final int THREADS = 8;
+
+    private final List<File> files = new ArrayList<>();
+
+    @Before public void noForce() {
+        BufferPool.setNoForce(true);
+    }
+
+    @After public void tearDown() {
+        BufferPool.setNoForce(false);
+        LogFile.setGroupCommitWait(LogFile.DEFAULT_GROUP_COMMIT_WAIT_MICROS);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private HeapFile createTable() throws IOException {
+        File file = SystemTestUtil.createTempTableFile("noforce");
+        files.add(file);
+        return Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    private static void insert(HeapFile hf, Transaction t, int first, int n)
+            throws DbException, TransactionAbortedException {
+        SystemTestUtil.insertTuples(t.getId(), hf, SystemTestUtil.sequentialTuples(first, n));
+    }
+
+    private static void commitInsert(HeapFile hf, int first, int n)
+            throws DbException, TransactionAbortedException, IOException {
+        Transaction t = new Transaction();
+        t.start();
+        insert(hf, t, first, n);
+        t.commit();
+    }
+
+    /** the number of tuples of a table on disk, dropping the pages the buffer pool has not written */
+    private static int onDisk(HeapFile hf) throws DbException, TransactionAbortedException, IOException {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        return SystemTestUtil.countTuples(hf);
+    }
+
+    /** crashes, with whatever the buffer pool holds, and recovers */
+    private HeapFile crash() throws IOException {
+        Database.reset();
+        HeapFile hf = Utility.openHeapFile(2, files.get(0));
+        Database.getLogFile().recover();
+        return hf;
+    }
+
+    @Test public void commitOnlyWritesTheLog()
+            throws DbException, TransactionAbortedException, IOException {
+        HeapFile hf = createTable();
+        commitInsert(hf, 0, 10);
+        assertEquals(10, SystemTestUtil.countTuples(hf));
+        assertEquals(0, onDisk(hf));
+        // the log redoes the commit
+        hf = crash();
+        assertEquals(10, SystemTestUtil.countTuples(hf));
+        assertEquals(10, onDisk(hf));
+    }
+
+    @Test public void abortKeepsUnwrittenCommit()
+            throws DbException, TransactionAbortedException, IOException {
+        HeapFile hf = createTable();
+        commitInsert(hf, 0, 10);
+        Transaction t = new Transaction();
+        t.start();
+        insert(hf, t, 10, 10);
+        t.abort();
+        assertEquals(10, SystemTestUtil.countTuples(hf));
+        Database.getBufferPool().flushAllPages();
+        assertEquals(10, onDisk(hf));
+    }
+
+    @Test public void evictionWritesBack()
+            throws DbException, TransactionAbortedException, IOException {
+        HeapFile hf = createTable();
+        Database.resetBufferPool(4);
+        for (int i = 0; i < 10; i++)
+            commitInsert(hf, i * TUPLES_PER_PAGE, TUPLES_PER_PAGE);
+        assertEquals(10 * TUPLES_PER_PAGE, SystemTestUtil.countTuples(hf));
+        // at most the pages the pool holds are not on disk
+        assertTrue(onDisk(hf) >= 6 * TUPLES_PER_PAGE);
+        hf = crash();
+        assertEquals(10 * TUPLES_PER_PAGE, SystemTestUtil.countTuples(hf));
+    }
+
+    /**
+     * Transactions committing at once share a force of the log
+     */
+    @Test public void groupCommit() throws Exception {
+        LogFile.setGroupCommitWait(TimeUnit.SECONDS.toMicros(1));
+        List<HeapFile> tables = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++)
+            tables.add(createTable());
+        CyclicBarrier inserted = new CyclicBarrier(THREADS + 1);
+        CyclicBarrier committed = new CyclicBarrier(THREADS + 1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (HeapFile hf : tables) {
+                futures.add(pool.submit(() -> {
+                    Transaction t = new Transaction();
+                    t.start();
+                    insert(hf, t, 0, 10);
+                    inserted.await();
+                    t.commit();
+                    committed.await();
+                    return null;
+                }));
+            }
+            inserted.await();
+            int forces = Database.getLogFile().getTotalForces();
+            committed.await();
+            assertTrue(Database.getLogFile().getTotalForces() - forces < THREADS);
+            for (Future<Void> f : futures)
+                f.get();
+        } finally {
+            pool.shutdown();
+        }
+        for (HeapFile hf : tables)
+            assertEquals(10, SystemTestUtil.countTuples(hf));
+    }
+
+    /**
+     * A commit does not wait for transactions that are running but not
+     * committing, such as those blocked on its locks
+     */
+    @Test public void groupCommitSkipsRunning() throws Exception {
+        LogFile.setGroupCommitWait(TimeUnit.SECONDS.toMicros(5));
+        HeapFile hf = createTable();
+        Transaction idle = new Transaction();
+        idle.start();
+        long start = System.nanoTime();
+        commitInsert(hf, 0, 10);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        idle.commit();
+        assertEquals(10, SystemTestUtil.countTuples(hf));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(NoForceTest.class);
+    }
+}
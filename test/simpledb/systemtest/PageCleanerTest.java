@@ -0,0 +1,165 @@
+package simpledb.systemtest;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the background cleaner that writes the dirty pages of the buffer
+ * pool back between two watermarks.
+ */
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    /** tuples of two int fields on a page */
+    private static final int TUPLES_PER_PAGE = 504;
+    private static final int POOL_PAGES = 8;
+    /** tuples filling most of the pool */
+    private static final int PAGES = 6;
+    private static final int FAST = 100000;
+
+    private File file;
+    private HeapFile hf;
+
+    @Before public void createTable() throws IOException {
+        file = SystemTestUtil.createTempTableFile("cleaner");
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        Database.resetBufferPool(POOL_PAGES);
+    }
+
+    @After public void tearDown() {
+        BufferPool.setNoForce(false);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private void insert(TransactionId tid, int first, int n)
+            throws DbException, TransactionAbortedException {
+        SystemTestUtil.insertTuples(tid, hf, SystemTestUtil.sequentialTuples(first, n));
+    }
+
+    private void commitInsert(int first, int n)
+            throws DbException, TransactionAbortedException, IOException {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t.getId(), first, n);
+        t.commit();
+    }
+
+    private int count() throws DbException, TransactionAbortedException, IOException {
+        return SystemTestUtil.countTuples(hf);
+    }
+
+    /** the number of tuples of the table on disk, dropping the pages the buffer pool has not written */
+    private int onDisk() throws DbException, TransactionAbortedException, IOException {
+        Database.resetBufferPool(POOL_PAGES);
+        return count();
+    }
+
+    /** waits up to ten seconds for the dirty fraction of the pool to drop to at most the specified one */
+    private static void awaitDirty(double fraction) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (Database.getBufferPool().getDirtyFraction() > fraction) {
+            assertTrue("the cleaner did not write the pages", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test public void writesCommittedPages() throws Exception {
+        BufferPool.setNoForce(true);
+        commitInsert(0, PAGES * TUPLES_PER_PAGE);
+        assertTrue(Database.getBufferPool().getDirtyFraction() > 0);
+        Database.getBufferPool().startPageCleaner(FAST, 0, 0.1);
+        awaitDirty(0);
+        assertEquals(PAGES * TUPLES_PER_PAGE, onDisk());
+    }
+
+    @Test public void stopsAtLowWatermark() throws Exception {
+        BufferPool.setNoForce(true);
+        for (int i = 0; i < PAGES; i++)
+            commitInsert(i * TUPLES_PER_PAGE, TUPLES_PER_PAGE);
+        BufferPool pool = Database.getBufferPool();
+        assertTrue(pool.getDirtyFraction() >= PageCleaner.DEFAULT_HIGH_WATERMARK);
+        pool.startPageCleaner(FAST, PageCleaner.DEFAULT_LOW_WATERMARK, PageCleaner.DEFAULT_HIGH_WATERMARK);
+        awaitDirty(PageCleaner.DEFAULT_LOW_WATERMARK);
+        // the cleaner rests until the pool is dirty up to the high watermark again
+        Thread.sleep(200);
+        assertTrue(pool.getDirtyFraction() > 0);
+        pool.stopPageCleaner();
+        int written = onDisk();
+        assertTrue(written > 0 && written < PAGES * TUPLES_PER_PAGE);
+    }
+
+    /**
+     * Pages of a running transaction that has begun in the log are stolen,
+     * and its abort undoes them
+     */
+    @Test public void stealsLoggedPages() throws Exception {
+        commitInsert(0, TUPLES_PER_PAGE);
+        Transaction t = new Transaction();
+        t.start();
+        insert(t.getId(), TUPLES_PER_PAGE, (PAGES - 1) * TUPLES_PER_PAGE);
+        Database.getBufferPool().startPageCleaner(FAST, 0, 0.1);
+        awaitDirty(0);
+        Database.getBufferPool().stopPageCleaner();
+        t.abort();
+        assertEquals(TUPLES_PER_PAGE, count());
+        assertEquals(TUPLES_PER_PAGE, onDisk());
+    }
+
+    /**
+     * A transaction that has not begun in the log cannot be undone, so the
+     * cleaner leaves its pages dirty
+     */
+    @Test public void leavesUnloggedPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        insert(tid, 0, TUPLES_PER_PAGE);
+        Database.getBufferPool().startPageCleaner(FAST, 0, 0.1);
+        Thread.sleep(200);
+        assertTrue(Database.getBufferPool().getDirtyFraction() > 0);
+        Database.getBufferPool().transactionComplete(tid, false);
+    }
+
+    /**
+     * The cleaner writes its batch without the shard's latch, so the shard
+     * serves other threads meanwhile
+     */
+    @Test public void writesOutsideLatch() throws Exception {
+        TestUtil.BlockingHeapFile blocking = new TestUtil.BlockingHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(blocking, SystemTestUtil.getUUID());
+        hf = blocking;
+        BufferPool.setNoForce(true);
+        commitInsert(0, PAGES * TUPLES_PER_PAGE);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Database.getBufferPool().startPageCleaner(FAST, 0, 0.1);
+            assertTrue(blocking.writing.await(10, TimeUnit.SECONDS));
+            // discardPage takes the latch of the page's shard, the only one
+            pool.submit(() -> Database.getBufferPool().discardPage(new HeapPageId(blocking.getId(), PAGES)))
+                    .get(10, TimeUnit.SECONDS);
+        } finally {
+            blocking.release.countDown();
+            pool.shutdown();
+        }
+        awaitDirty(0);
+        assertEquals(PAGES * TUPLES_PER_PAGE, onDisk());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -134,6 +134,19 @@ public class ScanTest extends SimpleDbTestBase {
         }
     }
 
+    /** Scans a table whose pages are read through a memory mapping. */
+    @Test public void testMemoryMapped() throws IOException, DbException, TransactionAbortedException {
+        for (int rows : new int[]{0, 1, 1025, 4096 + r.nextInt(4096)}) {
+            List<List<Integer>> tuples = new ArrayList<>();
+            File temp = SystemTestUtil.createRandomHeapFileUnopened(2, rows, 1 << 16, null, tuples);
+            HeapFile f = new HeapFile(temp, Utility.getTupleDesc(2), true);
+            Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+            assertTrue(f.isMemoryMapped());
+            SystemTestUtil.matchTuples(f, tuples);
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        }
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);
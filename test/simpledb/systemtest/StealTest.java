@@ -0,0 +1,169 @@
+package simpledb.systemtest;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test that transactions dirtying more pages than the buffer pool holds
+ * steal pages, and that aborts and recovery undo the stolen pages.
+ */
+public class StealTest extends SimpleDbTestBase {
+
+    /** tuples of two int fields on a page */
+    private static final int TUPLES_PER_PAGE = 504;
+    private static final int POOL_PAGES = 4;
+    /** tuples filling more pages than the pool holds */
+    private static final int LARGE = 10 * TUPLES_PER_PAGE;
+    private static final int COMMITTED = 2 * TUPLES_PER_PAGE;
+
+    private File file;
+    private HeapFile hf;
+
+    @Before public void createTable() throws IOException {
+        file = SystemTestUtil.createTempTableFile("steal");
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    @After public void tearDown() {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private void insert(TransactionId tid, int first, int n)
+            throws DbException, TransactionAbortedException {
+        SystemTestUtil.insertTuples(tid, hf, SystemTestUtil.sequentialTuples(first, n));
+    }
+
+    private void commitInsert(int first, int n)
+            throws DbException, TransactionAbortedException, IOException {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t.getId(), first, n);
+        t.commit();
+    }
+
+    private int count() throws DbException, TransactionAbortedException, IOException {
+        return SystemTestUtil.countTuples(hf);
+    }
+
+    @Test public void largeTransactionCommits()
+            throws DbException, TransactionAbortedException, IOException {
+        Database.resetBufferPool(POOL_PAGES);
+        commitInsert(0, LARGE);
+        assertEquals(LARGE, count());
+        // and the disk has every page, not only the ones left in the pool
+        Database.resetBufferPool(POOL_PAGES);
+        assertEquals(LARGE, count());
+    }
+
+    @Test public void abortUndoesStolenPages()
+            throws DbException, TransactionAbortedException, IOException {
+        Database.resetBufferPool(POOL_PAGES);
+        commitInsert(0, COMMITTED);
+        Transaction t = new Transaction();
+        t.start();
+        insert(t.getId(), COMMITTED, LARGE);
+        t.abort();
+        assertEquals(COMMITTED, count());
+        Database.resetBufferPool(POOL_PAGES);
+        assertEquals(COMMITTED, count());
+    }
+
+    @Test public void recoveryUndoesStolenPages()
+            throws DbException, TransactionAbortedException, IOException {
+        Database.resetBufferPool(POOL_PAGES);
+        commitInsert(0, COMMITTED);
+        Transaction t = new Transaction();
+        t.start();
+        insert(t.getId(), COMMITTED, LARGE);
+
+        // crash with the transaction running, and recover
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        assertEquals(COMMITTED, count());
+    }
+
+    /**
+     * A page is stolen without its shard's latch held across the log force
+     * and the write, so the shard serves other threads meanwhile
+     */
+    @Test public void stealWritesOutsideLatch() throws Exception {
+        Database.resetBufferPool(POOL_PAGES);
+        TestUtil.BlockingHeapFile blocking = new TestUtil.BlockingHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(blocking, SystemTestUtil.getUUID());
+        hf = blocking;
+        Transaction t = new Transaction();
+        t.start();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Void> inserting = pool.submit(() -> {
+                insert(t.getId(), 0, LARGE);
+                return null;
+            });
+            assertTrue(blocking.writing.await(10, TimeUnit.SECONDS));
+            // discardPage takes the latch of the page's shard, the only one
+            pool.submit(() -> Database.getBufferPool().discardPage(new HeapPageId(blocking.getId(), LARGE)))
+                    .get(10, TimeUnit.SECONDS);
+            blocking.release.countDown();
+            inserting.get();
+            t.commit();
+        } finally {
+            blocking.release.countDown();
+            pool.shutdown();
+        }
+        assertEquals(LARGE, count());
+    }
+
+    /**
+     * A transaction that has not begun in the log cannot be undone, so its
+     * dirty pages stay in the pool
+     */
+    @Test public void unloggedTransactionIsNotStolen()
+            throws DbException, TransactionAbortedException {
+        Database.resetBufferPool(POOL_PAGES);
+        TransactionId tid = new TransactionId();
+        try {
+            insert(tid, 0, LARGE);
+            fail("expected the pool to run out of pages to evict");
+        } catch (DbException expected) {
+            // the pool is full of the transaction's dirty pages
+        } finally {
+            Database.getBufferPool().transactionComplete(tid, false);
+        }
+    }
+
+    /**
+     * Recovery ignores transactions that have not begun in the log, so
+     * writing their pages logs nothing
+     */
+    @Test public void unloggedFlushIsNotLogged()
+            throws DbException, TransactionAbortedException, IOException {
+        TransactionId tid = new TransactionId();
+        insert(tid, 0, COMMITTED);
+        int records = Database.getLogFile().getTotalRecords();
+        Database.getBufferPool().transactionComplete(tid, true);
+        assertEquals(records, Database.getLogFile().getTotalRecords());
+        assertEquals(COMMITTED, count());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StealTest.class);
+    }
+}
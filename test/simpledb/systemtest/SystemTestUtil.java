@@ -3,6 +3,7 @@ package simpledb.systemtest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -11,9 +12,11 @@ import java.util.UUID;
 import org.junit.Assert;
 
 import simpledb.common.*;
+import simpledb.execution.Insert;
 import simpledb.execution.OpIterator;
 import simpledb.execution.SeqScan;
 import simpledb.storage.*;
+import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -84,12 +87,74 @@ public class SystemTestUtil {
         }
 
         // Convert the tuples list to a heap file and open it
-        File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
+        File temp = createTempTableFile("table");
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }
 
+    /**
+     * Creates an empty temporary file for a table, deleted on exit along
+     * with the sidecar files a HeapFile keeps next to it.
+     */
+    public static File createTempTableFile(String prefix) throws IOException {
+        File f = File.createTempFile(prefix, ".dat");
+        f.deleteOnExit();
+        for (String sidecar : new String[]{".fsm", ".zmap", ".hdr", ".pmap"})
+            new File(f.getPath() + sidecar).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * @return n tuples of two fields, the first counting up from first and
+     *         the second the first modulo 97
+     */
+    public static List<List<Integer>> sequentialTuples(int first, int n) {
+        List<List<Integer>> tuples = new ArrayList<>(n);
+        for (int i = first; i < first + n; i++)
+            tuples.add(Arrays.asList(i, i % 97));
+        return tuples;
+    }
+
+    /**
+     * Inserts tuples of int fields into a table with an Insert operator,
+     * checking that it inserts all of them.
+     */
+    public static void insertTuples(TransactionId tid, DbFile f, List<List<Integer>> tuples)
+            throws DbException, TransactionAbortedException {
+        TupleDesc td = f.getTupleDesc();
+        List<Tuple> rows = new ArrayList<>();
+        for (List<Integer> tuple : tuples) {
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < tuple.size(); i++)
+                t.setField(i, new IntField(tuple.get(i)));
+            rows.add(t);
+        }
+        Insert insert = new Insert(tid, new TupleIterator(td, rows), f.getId());
+        insert.open();
+        Assert.assertEquals(tuples.size(), ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+    }
+
+    /**
+     * @return the number of tuples of a table, scanned in a transaction of
+     *         its own that begins and commits in the log
+     */
+    public static int countTuples(DbFile f)
+            throws DbException, TransactionAbortedException, IOException {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), f.getId(), "");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        t.commit();
+        return n;
+    }
+
     public static List<Integer> tupleToList(Tuple tuple) {
         List<Integer> list = new ArrayList<>();
         for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i) {
@@ -234,7 +234,7 @@ public class TransactionTest extends SimpleDbTestBase {
         validateTransactions(10);
     }
 
-    @Test public void testAllDirtyFails()
+    @Test public void testAllDirtySteals()
             throws IOException, DbException, TransactionAbortedException {
         // Allocate a file with ~10 pages of data
         HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
@@ -247,11 +247,8 @@ public class TransactionTest extends SimpleDbTestBase {
         // Insert a new row
         AbortEvictionTest.insertRow(f, t);
 
-        // Scanning the table must fail because it can't evict the dirty page
-        try {
-            AbortEvictionTest.findMagicTuple(f, t);
-            fail("Expected scan to run out of available buffer pages");
-        } catch (DbException ignored) {}
+        // Scanning the table steals the dirty page, and still sees the row
+        assertTrue(AbortEvictionTest.findMagicTuple(f, t));
         t.commit();
     }
 